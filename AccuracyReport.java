@@ -0,0 +1,165 @@
+package numericalmethods;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The AccuracyReport class compares the accelerations found by the Barnes-Hut engine with those found by the exact
+ * direct-sum engine. A random system is generated in the same way as the random mode of the Nbody class, the
+ * accelerations are found with both engines, and the relative error of each body's acceleration is summarized for
+ * several opening angles along with the time each engine took. Every engine is timed in the same way, by
+ * KernelReport.seconds(), so that the speed-ups compare engines that have all been warmed up. The report can be used to
+ * choose an opening angle with a known error budget before switching a large run to the Barnes-Hut engine. The
+ * particle-mesh engines are summarized in the same way for several mesh sizes.
+ *
+ * Usage: AccuracyReport [number of bodies] [seed] [theta...]
+ *
+ */
+public class AccuracyReport
+{
+    //DEFAULT_BODIES is the number of bodies used when none is given
+    public static final int DEFAULT_BODIES = 2000;
+
+    //DEFAULT_THETAS are the opening angles compared when none are given
+    public static final double[] DEFAULT_THETAS = {0.2, 0.35, 0.5, 0.7, 1.0};
+
+    //MESH_SIZES are the mesh sizes of the particle-mesh engines compared
+    public static final int[] MESH_SIZES = {32, 64};
+
+    /**
+     * The main method reads the optional arguments, generates the random system, and prints the report.
+     */
+    public static void main(String[] args)
+    {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BODIES;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        double[] thetas = DEFAULT_THETAS;
+        if(args.length > 2)
+        {
+            thetas = new double[args.length - 2];
+            for(int i = 2; i < args.length; i++)
+            {
+                thetas[i - 2] = Double.parseDouble(args[i]);
+            }
+        }
+
+        ParticleStore particles = randomBodies(n, seed);
+
+        double directSeconds = KernelReport.seconds(new DirectSum(), particles);
+        double[][] exact = accelerationsOf(particles);
+
+        System.out.println("Barnes-Hut accuracy report: " + n + " bodies, seed " + seed);
+        System.out.printf("direct sum: %.3f s%n", directSeconds);
+        System.out.println("theta\ttime (s)\tspeed-up\tmedian error\t99th percentile\tmax error\tRMS error");
+
+        for(double theta : thetas)
+        {
+            double seconds = KernelReport.seconds(new BarnesHut(theta), particles);
+            double[][] approximate = accelerationsOf(particles);
+
+            double[] errors = relativeErrors(exact, approximate);
+            System.out.printf("%.2f\t%.3f\t\t%.1f\t\t%.3e\t%.3e\t%.3e\t%.3e%n", theta, seconds, directSeconds/seconds,
+                    percentile(errors, 0.5), percentile(errors, 0.99), percentile(errors, 1.0), rms(errors));
+        }
+
+        System.out.println("mesh\ttime (s)\tspeed-up\tmedian error\t99th percentile\tmax error\tRMS error");
+        for(int meshSize : MESH_SIZES)
+        {
+            for(boolean shortRange : new boolean[] {false, true})
+            {
+                double seconds = KernelReport.seconds(new ParticleMesh(meshSize, shortRange), particles);
+                double[] errors = relativeErrors(exact, accelerationsOf(particles));
+                System.out.printf("%s %d\t%.3f\t\t%.1f\t\t%.3e\t%.3e\t%.3e\t%.3e%n", shortRange ? "p3m" : "pm",
+                        meshSize, seconds, directSeconds/seconds, percentile(errors, 0.5), percentile(errors, 0.99),
+                        percentile(errors, 1.0), rms(errors));
+            }
+        }
+    }
+
+    /**
+     * Generates bodies of random mass, velocity, and position within the bounds used by the random mode of the Nbody
+     * class.
+     *
+     * @param n: the number of bodies
+     * @param seed: the seed of the random number generator, so that reports can be repeated
+     * @return: a ParticleStore holding the new bodies
+     */
+    public static ParticleStore randomBodies(int n, long seed)
+    {
+        Random random = new Random(seed);
+        ParticleStore particles = new ParticleStore(n);
+        for(int i = 0; i < n; i++)
+        {
+            particles.add(
+                    (random.nextDouble()*Nbody.RANDOM_DIMENSION)-(Nbody.RANDOM_DIMENSION/2),
+                    (random.nextDouble()*Nbody.RANDOM_DIMENSION)-(Nbody.RANDOM_DIMENSION/2),
+                    (random.nextDouble()*Nbody.RANDOM_DIMENSION)-(Nbody.RANDOM_DIMENSION/2),
+                    (random.nextDouble()*Nbody.MAX_VELOCITY)-(Nbody.MAX_VELOCITY/2),
+                    (random.nextDouble()*Nbody.MAX_VELOCITY)-(Nbody.MAX_VELOCITY/2),
+                    (random.nextDouble()*Nbody.MAX_VELOCITY)-(Nbody.MAX_VELOCITY/2),
+                    random.nextDouble()*Nbody.MAX_MASS);
+        }
+        return particles;
+    }
+
+    /**
+     * Copies the accelerations last found for each body into an array of vectors.
+     *
+     * @return: an array with the acceleration vector of each body
+     */
+    public static double[][] accelerationsOf(ParticleStore particles)
+    {
+        double[][] accelerations = new double[particles.n][];
+        for(int i = 0; i < particles.n; i++)
+        {
+            accelerations[i] = new double[] {particles.ax[i], particles.ay[i], particles.az[i]};
+        }
+        return accelerations;
+    }
+
+    /**
+     * Finds the relative error of each approximate acceleration vector, |a - a_exact| / |a_exact|.
+     *
+     * @return: an array with the relative error of each body
+     */
+    public static double[] relativeErrors(double[][] exact, double[][] approximate)
+    {
+        double[] errors = new double[exact.length];
+        for(int i = 0; i < exact.length; i++)
+        {
+            double difference = 0;
+            double magnitude = 0;
+            for(int k = 0; k < 3; k++)
+            {
+                difference += (approximate[i][k] - exact[i][k])*(approximate[i][k] - exact[i][k]);
+                magnitude += exact[i][k]*exact[i][k];
+            }
+            errors[i] = magnitude > 0 ? Math.sqrt(difference/magnitude) : Math.sqrt(difference);
+        }
+        return errors;
+    }
+
+    /**
+     * Finds the given percentile of an array of errors.
+     *
+     * @param fraction: the percentile as a fraction from 0 to 1
+     * @return: the error below which the given fraction of errors fall
+     */
+    public static double percentile(double[] errors, double fraction)
+    {
+        double[] sorted = errors.clone();
+        Arrays.sort(sorted);
+        int index = (int)Math.ceil(fraction*sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    //Returns the root mean square of an array of errors
+    public static double rms(double[] errors)
+    {
+        double total = 0;
+        for(double error : errors)
+        {
+            total += error*error;
+        }
+        return Math.sqrt(total/errors.length);
+    }
+}
@@ -0,0 +1,119 @@
+package numericalmethods;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The AllocationReport class checks that the force engines do not create garbage during a time step. It builds a
+ * random system, warms each engine up so that any arrays it reuses have grown to fit the system and its kernel has
+ * been compiled, and then counts the bytes allocated by the current thread over a number of steps using the allocation
+ * counter of the JVM. The report prints the bytes allocated per step for each engine and exits with a non-zero status
+ * if any engine allocated memory, so it can be used as a check after changes to the kernels.
+ *
+ * Usage: AllocationReport [number of bodies] [steps]
+ *
+ */
+public class AllocationReport
+{
+    //WARMUP_STEPS is the least number of steps taken before measuring, and WARMUP_LIMIT is the most. Warming up goes on
+    //past WARMUP_STEPS until a step allocates nothing, since the kernels of the Vector API allocate until compiled.
+    public static final int WARMUP_STEPS = 3;
+    public static final int WARMUP_LIMIT = 100;
+
+    /**
+     * The main method reads the optional arguments, measures each engine, and prints the report.
+     */
+    public static void main(String[] args)
+    {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean))
+        {
+            System.out.println("This JVM does not count allocated bytes per thread.");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean)threads;
+        counter.setThreadAllocatedMemoryEnabled(true);
+
+        ParticleStore particles = AccuracyReport.randomBodies(n, 1);
+        boolean allocated = false;
+
+        System.out.println("Allocation report: " + n + " bodies, " + steps + " steps");
+        for(Map.Entry<String, ForceEngine> engine : engines().entrySet())
+        {
+            long bytes = bytesPerStep(counter, engine.getValue(), particles, steps);
+            System.out.println(engine.getKey() + ": " + bytes + " bytes per step");
+            allocated |= bytes > 0;
+        }
+
+        System.exit(allocated ? 1 : 0);
+    }
+
+    /**
+     * Creates each of the engines that must not allocate memory during a step, including the vector kernels if the
+     * Vector API is available.
+     *
+     * @return: the engines, by name, in the order in which they are reported
+     */
+    public static Map<String, ForceEngine> engines()
+    {
+        Map<String, ForceEngine> engines = new LinkedHashMap<>();
+        engines.put("direct", new DirectSum());
+        engines.put("direct (symmetric)", new DirectSum(null, true));
+        engines.put("barneshut", new BarnesHut(0.5));
+        engines.put("pm", new ParticleMesh(32, false));
+        engines.put("p3m", new ParticleMesh(32, true));
+        engines.put("direct (mixed)", new MixedPrecisionSum(null, false, Softening.NONE));
+        if(GravityKernel.isVectorSupported())
+        {
+            //The vectors of the SIMD kernel must be kept in registers by the JIT compiler rather than allocated
+            engines.put("direct (vector)", new DirectSum(null, false, true, false));
+            engines.put("direct (vector, symmetric, rsqrt)", new DirectSum(null, true, true, true));
+            engines.put("direct (vector, mixed)", new MixedPrecisionSum(null, true, Softening.NONE));
+        }
+        return engines;
+    }
+
+    /**
+     * Counts the bytes allocated by the current thread while the engine finds accelerations, after warming it up.
+     *
+     * @param counter: the JVM's per-thread allocation counter
+     * @param engine: the engine to be measured
+     * @param particles: the system on which the engine runs
+     * @param steps: the number of measured steps
+     * @return: the average number of bytes allocated per step
+     */
+    public static long bytesPerStep(com.sun.management.ThreadMXBean counter, ForceEngine engine,
+            ParticleStore particles, int steps)
+    {
+        long thread = Thread.currentThread().getId();
+
+        for(int s = 0; s < WARMUP_STEPS; s++)
+        {
+            engine.computeAccelerations(particles);
+        }
+        counter.getThreadAllocatedBytes(thread);
+        for(int s = WARMUP_STEPS; s < WARMUP_LIMIT; s++)
+        {
+            long start = counter.getThreadAllocatedBytes(thread);
+            engine.computeAccelerations(particles);
+            if(counter.getThreadAllocatedBytes(thread) == start)
+            {
+                break;
+            }
+        }
+
+        //The counter itself may allocate when first read, so it is read once before the measurement begins
+        counter.getThreadAllocatedBytes(thread);
+        long before = counter.getThreadAllocatedBytes(thread);
+        for(int s = 0; s < steps; s++)
+        {
+            engine.computeAccelerations(particles);
+        }
+        long after = counter.getThreadAllocatedBytes(thread);
+
+        return (after - before)/steps;
+    }
+}
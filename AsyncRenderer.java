@@ -0,0 +1,153 @@
+package numericalmethods;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import javax.swing.SwingUtilities;
+
+/**
+ * The AsyncRenderer class draws the bodies of a system in a GraphingData window without slowing down the simulation.
+ * The simulation thread submits snapshots of the positions of the bodies, and a separate renderer thread takes them
+ * from a bounded queue and hands them to the Swing event dispatch thread to be painted.
+ *
+ * Snapshots are copied into a fixed set of reusable frames. A frame is either free or waiting in the queue to be drawn.
+ * When the renderer falls behind and every frame is in use, new snapshots are dropped rather than making the
+ * simulation wait, so rendering never holds back the physics; the number of dropped snapshots is counted.
+ *
+ */
+public class AsyncRenderer
+{
+    //graph is the panel on which the bodies are drawn
+    private final GraphingData graph;
+
+    //ready holds the frames waiting to be drawn, in the order they were submitted, and free holds the frames that can
+    //be filled with the next snapshot
+    private final ArrayBlockingQueue<Frame> ready;
+    private final ArrayBlockingQueue<Frame> free;
+
+    //END is the frame placed in the queue by close() to tell the renderer thread to stop
+    private static final Frame END = new Frame(0);
+
+    //thread is the renderer thread
+    private final Thread thread;
+
+    //submitted is the number of snapshots submitted, and dropped is the number of those that were not drawn because
+    //every frame was in use
+    private long submitted;
+    private long dropped;
+
+    /**
+     * The Frame class holds the x and y components of the positions of the bodies in one snapshot.
+     */
+    private static class Frame
+    {
+        double[] x, y;
+        int n;
+
+        Frame(int capacity)
+        {
+            x = new double[capacity];
+            y = new double[capacity];
+        }
+    }
+
+    /**
+     * Creates a renderer and starts its thread.
+     *
+     * @param graph: the panel on which the bodies are drawn
+     * @param capacity: the number of snapshots that may wait to be drawn before new ones are dropped
+     * @param bodies: the number of bodies each frame is first sized for
+     */
+    public AsyncRenderer(GraphingData graph, int capacity, int bodies)
+    {
+        this.graph = graph;
+        ready = new ArrayBlockingQueue<>(capacity + 1);
+        free = new ArrayBlockingQueue<>(capacity);
+        for(int i = 0; i < capacity; i++)
+        {
+            free.add(new Frame(bodies));
+        }
+
+        thread = new Thread(this::drawFrames, "renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Copies the positions of the bodies into a free frame and queues it to be drawn. If no frame is free, the snapshot
+     * is dropped. This never blocks.
+     *
+     * @param particles: the bodies in the system
+     * @return: true if the snapshot was queued, or false if it was dropped
+     */
+    public boolean submit(ParticleStore particles)
+    {
+        submitted++;
+        Frame frame = free.poll();
+        if(frame == null)
+        {
+            dropped++;
+            return false;
+        }
+
+        int n = particles.n;
+        if(frame.x.length < n)
+        {
+            frame.x = new double[n];
+            frame.y = new double[n];
+        }
+        System.arraycopy(particles.x, 0, frame.x, 0, n);
+        System.arraycopy(particles.y, 0, frame.y, 0, n);
+        frame.n = n;
+        ready.add(frame);
+        return true;
+    }
+
+    //Returns the number of snapshots submitted so far
+    public long getSubmittedFrames()
+    {
+        return submitted;
+    }
+
+    //Returns the number of snapshots dropped so far because the renderer had fallen behind
+    public long getDroppedFrames()
+    {
+        return dropped;
+    }
+
+    /**
+     * Waits for the frames already queued to be drawn and stops the renderer thread. The window stays open.
+     *
+     * @throws InterruptedException: if the calling thread is interrupted while waiting
+     */
+    public void close() throws InterruptedException
+    {
+        ready.put(END);
+        thread.join();
+    }
+
+    //Draws each queued frame on the event dispatch thread and then returns it to the free frames, until close() is
+    //called
+    private void drawFrames()
+    {
+        try
+        {
+            while(true)
+            {
+                Frame frame = ready.take();
+                if(frame == END)
+                {
+                    return;
+                }
+                SwingUtilities.invokeAndWait(() -> graph.setPoints(frame.x, frame.y, frame.n));
+                free.add(frame);
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(InvocationTargetException e)
+        {
+            System.out.println("The renderer stopped after an error: " + e.getCause());
+        }
+    }
+}
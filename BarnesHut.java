@@ -0,0 +1,572 @@
+package numericalmethods;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The BarnesHut class is a ForceEngine that approximates the gravitational acceleration of each body using an octree.
+ * Every time step, the octree is rebuilt over the bodies: the cube containing all of them is split into eight smaller
+ * cubes, which are split again until each cube holds at most one body. Each cube (or cell) stores the total mass and
+ * the center of mass of the bodies it contains. When a cell is far enough from a body, as judged by the opening angle
+ * theta, the whole cell is treated as a single mass at its center of mass. This reduces the cost of a step from the
+ * square of the number of bodies to roughly n log n.
+ *
+ * The octree is stored in flat arrays indexed by cell number rather than as linked objects, so that it can be rebuilt
+ * every step without allocating new memory once the arrays have grown to fit the system. The octree is built on the
+ * calling thread; if a ForkJoinPool is given, the octree is then walked for blocks of bodies in parallel. Each body's
+ * walk visits the cells in the same order regardless of the number of threads, so the results are reproducible.
+ *
+ * If the force is softened (see Softening), the softening is applied to the whole mass of each distant cell as well as
+ * to each nearby body.
+ *
+ */
+public class BarnesHut implements ForceEngine
+{
+    //MAX_DEPTH is the deepest level to which a cell is split. Bodies that still share a cell at this depth (which only
+    //happens if they are at nearly the same position) are kept together in a list and summed directly.
+    public static final int MAX_DEPTH = 64;
+
+    //theta is the opening angle; a cell is treated as a single mass if its side length divided by its distance from
+    //the body is less than theta
+    public double theta;
+
+    //The following arrays describe the cells of the octree. centerX/Y/Z and halfSize give the geometric center and
+    //half of the side length of each cell. mass and comX/Y/Z give the total mass and center of mass of the bodies
+    //inside each cell. child holds the indices of the eight children of each cell, or -1 where there is no child.
+    //firstBody holds the index of the first body in a leaf cell, -1 for an empty cell, or -2 for a cell that has been
+    //split.
+    private double[] centerX, centerY, centerZ, halfSize;
+    private double[] mass, comX, comY, comZ;
+    private int[] child;
+    private int[] firstBody;
+
+    //nextBody links bodies that share a leaf cell at MAX_DEPTH; it holds -1 at the end of each list
+    private int[] nextBody;
+
+    //cellCount is the number of cells in use in the current octree
+    private int cellCount;
+
+    //STACK_SIZE is the largest number of cells waiting to be visited during a walk of the octree
+    private static final int STACK_SIZE = 8*MAX_DEPTH + 8;
+
+    //pool is the ForkJoinPool on which blocks of bodies walk the octree, or null to run on the calling thread
+    private final ForkJoinPool pool;
+
+    //softening is the softening of the force of each body and cell
+    private final Softening softening;
+
+    //stack and acceleration are reused for the walk of the octree when running on the calling thread
+    private final int[] stack = new int[STACK_SIZE];
+    private final double[] acceleration = new double[3];
+
+    //interactions is the number of interactions evaluated by the last call to computeAccelerations(), and
+    //blockInteractions collects the counts of the blocks of bodies that walk the octree in parallel
+    private long interactions;
+    private final LongAdder blockInteractions = new LongAdder();
+
+    /**
+     * Creates a new Barnes-Hut engine with the given opening angle.
+     *
+     * @param theta: the opening angle
+     */
+    public BarnesHut(double theta)
+    {
+        this(theta, null);
+    }
+
+    /**
+     * Creates a new Barnes-Hut engine with the given opening angle that walks the octree on the given pool.
+     *
+     * @param theta: the opening angle
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     */
+    public BarnesHut(double theta, ForkJoinPool pool)
+    {
+        this(theta, pool, Softening.NONE);
+    }
+
+    /**
+     * Creates a new Barnes-Hut engine that softens the force of each body and cell.
+     *
+     * @param theta: the opening angle
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     * @param softening: the softening of the force
+     */
+    public BarnesHut(double theta, ForkJoinPool pool, Softening softening)
+    {
+        this.theta = theta;
+        this.pool = pool;
+        this.softening = softening;
+        allocateCells(64);
+        nextBody = new int[0];
+    }
+
+    /**
+     * Rebuilds the octree over the bodies and then finds the acceleration of each body by walking the octree.
+     *
+     * @param particles: the bodies in the system, whose accelerations are overwritten
+     */
+    public void computeAccelerations(ParticleStore particles)
+    {
+        computeAccelerations(particles, particles.n);
+    }
+
+    /**
+     * Rebuilds the octree over all of the bodies and then finds the acceleration of the first count of them only. A
+     * DistributedWorker uses this to find the accelerations of its own bodies, which come first in its store, due to
+     * them and to the bodies and cells imported from the other workers.
+     *
+     * @param particles: the bodies in the system, whose first count accelerations are overwritten
+     * @param count: the number of bodies whose accelerations are found
+     */
+    public void computeAccelerations(ParticleStore particles, int count)
+    {
+        buildTree(particles);
+
+        if(pool == null)
+        {
+            interactions = walkRange(particles, 0, count, stack, acceleration);
+        }
+        else
+        {
+            ParallelRange.forEach(pool, count, (from, to) ->
+                    blockInteractions.add(walkRange(particles, from, to, new int[STACK_SIZE], new double[3])));
+            interactions = blockInteractions.sumThenReset();
+        }
+    }
+
+    //Returns the number of body-body and cell-body interactions evaluated by the last call to computeAccelerations()
+    public long interactionCount(ParticleStore particles)
+    {
+        return interactions;
+    }
+
+    /**
+     * Finds the acceleration of the bodies with indices from through to - 1 by walking the octree.
+     *
+     * @param stack: an array used to hold the cells waiting to be visited
+     * @param acceleration: a vector used to hold the acceleration of each body
+     * @return: the number of interactions evaluated
+     */
+    private long walkRange(ParticleStore particles, int from, int to, int[] stack, double[] acceleration)
+    {
+        long count = 0;
+        for(int i = from; i < to; i++)
+        {
+            count += accelerationAt(i, particles.x[i], particles.y[i], particles.z[i], particles, stack, acceleration);
+            particles.ax[i] = acceleration[0];
+            particles.ay[i] = acceleration[1];
+            particles.az[i] = acceleration[2];
+        }
+        return count;
+    }
+
+    /**
+     * Builds the octree over the given bodies and computes the mass and center of mass of every cell.
+     *
+     * @param particles: the bodies in the system
+     */
+    public void buildTree(ParticleStore particles)
+    {
+        int n = particles.n;
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        if(nextBody.length < n)
+        {
+            nextBody = new int[n];
+        }
+
+        //The root cell is the smallest cube, centered on the bounding box, that contains every body
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < n; i++)
+        {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            minZ = Math.min(minZ, z[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+            maxZ = Math.max(maxZ, z[i]);
+        }
+        double half = 0.5*Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+
+        //The root is made slightly larger than the bounding box so that bodies on its faces fall strictly inside it
+        half = half > 0 ? half*(1 + 1e-9) : 1;
+
+        cellCount = 0;
+        newCell(0.5*(minX + maxX), 0.5*(minY + maxY), 0.5*(minZ + maxZ), half);
+
+        for(int i = 0; i < n; i++)
+        {
+            insert(i, particles);
+        }
+
+        summarize(0, particles);
+    }
+
+    /**
+     * Finds the acceleration at a given position due to the bodies in the octree, skipping the body with the given
+     * index. The octree must have been built beforehand.
+     *
+     * @param self: the index of the body at the position, which exerts no force on itself, or -1 for none
+     * @param x: the x component of the position in meters
+     * @param y: the y component of the position in meters
+     * @param z: the z component of the position in meters
+     * @param particles: the bodies over which the octree was built
+     * @param acceleration: a vector that is overwritten with the acceleration in meters/second^2
+     */
+    public void accelerationAt(int self, double x, double y, double z, ParticleStore particles, double[] acceleration)
+    {
+        accelerationAt(self, x, y, z, particles, new int[STACK_SIZE], acceleration);
+    }
+
+    /**
+     * Finds the acceleration at a given position as above, using the given array to hold the cells waiting to be
+     * visited so that the walk creates no objects.
+     *
+     * @return: the number of bodies and cells whose force was summed
+     */
+    private int accelerationAt(int self, double x, double y, double z, ParticleStore particles, int[] stack,
+            double[] acceleration)
+    {
+        double ax = 0, ay = 0, az = 0;
+        int count = 0;
+        double thetaSquared = theta*theta;
+
+        int top = 0;
+        stack[top++] = 0;
+
+        while(top > 0)
+        {
+            int cell = stack[--top];
+
+            if(firstBody[cell] >= 0)
+            {
+                //Leaf cells are summed directly over every body they hold
+                for(int b = firstBody[cell]; b >= 0; b = nextBody[b])
+                {
+                    if(b != self)
+                    {
+                        double dx = particles.x[b] - x;
+                        double dy = particles.y[b] - y;
+                        double dz = particles.z[b] - z;
+                        double factor = softening.factor(particles.mass[b], dx*dx + dy*dy + dz*dz);
+                        ax += dx*factor;
+                        ay += dy*factor;
+                        az += dz*factor;
+                        count++;
+                    }
+                }
+                continue;
+            }
+
+            double dx = comX[cell] - x;
+            double dy = comY[cell] - y;
+            double dz = comZ[cell] - z;
+            double distanceSquared = dx*dx + dy*dy + dz*dz;
+            double size = 2*halfSize[cell];
+
+            //A cell is opened if it is too close for the opening angle or if the position lies inside the cell, since a
+            //center of mass close to a cell's edge can otherwise make a neighbouring body look far away
+            boolean inside = Math.abs(x - centerX[cell]) <= halfSize[cell]
+                    && Math.abs(y - centerY[cell]) <= halfSize[cell]
+                    && Math.abs(z - centerZ[cell]) <= halfSize[cell];
+
+            if(!inside && size*size < thetaSquared*distanceSquared)
+            {
+                double factor = softening.factor(mass[cell], distanceSquared);
+                ax += dx*factor;
+                ay += dy*factor;
+                az += dz*factor;
+                count++;
+            }
+            else
+            {
+                for(int octant = 0; octant < 8; octant++)
+                {
+                    int c = child[8*cell + octant];
+                    if(c >= 0)
+                    {
+                        stack[top++] = c;
+                    }
+                }
+            }
+        }
+
+        acceleration[0] = ax;
+        acceleration[1] = ay;
+        acceleration[2] = az;
+        return count;
+    }
+
+    /**
+     * Appends to a store the bodies and cells of the octree that the walk of any position within a box would use: a
+     * cell is appended as a single body at its center of mass if it lies outside the box and is small enough for the
+     * opening angle as seen from the nearest point of the box, and otherwise is opened. Walking the appended bodies
+     * then gives, within the opening angle, the acceleration due to the bodies of the octree anywhere in the box. This
+     * is the locally essential tree of the box (Salmon and Warren 1994). With an opening angle of 0, every body is
+     * appended. The octree must have been built beforehand.
+     *
+     * @param particles: the bodies over which the octree was built
+     * @param box: the box, as its minimum x, y, and z followed by its maximum x, y, and z, in meters
+     * @param essential: the store to which the bodies and cells are appended, with zero velocity
+     */
+    public void exportEssential(ParticleStore particles, double[] box, ParticleStore essential)
+    {
+        double thetaSquared = theta*theta;
+
+        int top = 0;
+        stack[top++] = 0;
+
+        while(top > 0)
+        {
+            int cell = stack[--top];
+
+            if(firstBody[cell] >= 0)
+            {
+                for(int b = firstBody[cell]; b >= 0; b = nextBody[b])
+                {
+                    essential.add(particles.x[b], particles.y[b], particles.z[b], 0, 0, 0, particles.mass[b]);
+                }
+                continue;
+            }
+            if(firstBody[cell] == -1)
+            {
+                continue;
+            }
+
+            //The cell is kept whole only if no position in the box lies inside it or too close to its center of mass
+            double half = halfSize[cell];
+            boolean overlaps = centerX[cell] + half >= box[0] && centerX[cell] - half <= box[3]
+                    && centerY[cell] + half >= box[1] && centerY[cell] - half <= box[4]
+                    && centerZ[cell] + half >= box[2] && centerZ[cell] - half <= box[5];
+            double dx = Math.max(0, Math.max(box[0] - comX[cell], comX[cell] - box[3]));
+            double dy = Math.max(0, Math.max(box[1] - comY[cell], comY[cell] - box[4]));
+            double dz = Math.max(0, Math.max(box[2] - comZ[cell], comZ[cell] - box[5]));
+            double size = 2*half;
+
+            if(!overlaps && size*size < thetaSquared*(dx*dx + dy*dy + dz*dz))
+            {
+                essential.add(comX[cell], comY[cell], comZ[cell], 0, 0, 0, mass[cell]);
+            }
+            else
+            {
+                for(int octant = 0; octant < 8; octant++)
+                {
+                    int c = child[8*cell + octant];
+                    if(c >= 0)
+                    {
+                        stack[top++] = c;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts the body with the given index into the octree, splitting leaf cells as needed.
+     *
+     * @param b: the index of the body to be inserted
+     * @param particles: the bodies in the system
+     */
+    private void insert(int b, ParticleStore particles)
+    {
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        nextBody[b] = -1;
+
+        int cell = 0;
+        int depth = 0;
+
+        while(true)
+        {
+            if(firstBody[cell] == -1)
+            {
+                //An empty leaf simply takes the body
+                firstBody[cell] = b;
+                return;
+            }
+
+            if(firstBody[cell] >= 0)
+            {
+                if(depth >= MAX_DEPTH)
+                {
+                    //The cell cannot be split further, so the body joins the list of bodies in the cell
+                    nextBody[b] = firstBody[cell];
+                    firstBody[cell] = b;
+                    return;
+                }
+
+                //The leaf is split by moving the body it holds into the appropriate child
+                int resident = firstBody[cell];
+                firstBody[cell] = -2;
+                int octant = octantOf(cell, x[resident], y[resident], z[resident]);
+                int c = newChild(cell, octant);
+                firstBody[c] = resident;
+            }
+
+            //The body descends into the child cell that contains its position
+            int octant = octantOf(cell, x[b], y[b], z[b]);
+            int c = child[8*cell + octant];
+            if(c < 0)
+            {
+                c = newChild(cell, octant);
+                firstBody[c] = b;
+                return;
+            }
+            cell = c;
+            depth++;
+        }
+    }
+
+    /**
+     * Computes the total mass and center of mass of a cell and all of its descendants.
+     *
+     * @param cell: the index of the cell
+     * @param particles: the bodies in the system
+     */
+    private void summarize(int cell, ParticleStore particles)
+    {
+        double m = 0, x = 0, y = 0, z = 0;
+
+        if(firstBody[cell] >= 0)
+        {
+            for(int b = firstBody[cell]; b >= 0; b = nextBody[b])
+            {
+                double bodyMass = particles.mass[b];
+                m += bodyMass;
+                x += bodyMass*particles.x[b];
+                y += bodyMass*particles.y[b];
+                z += bodyMass*particles.z[b];
+            }
+        }
+        else
+        {
+            for(int octant = 0; octant < 8; octant++)
+            {
+                int c = child[8*cell + octant];
+                if(c >= 0)
+                {
+                    summarize(c, particles);
+                    m += mass[c];
+                    x += mass[c]*comX[c];
+                    y += mass[c]*comY[c];
+                    z += mass[c]*comZ[c];
+                }
+            }
+        }
+
+        mass[cell] = m;
+        if(m > 0)
+        {
+            comX[cell] = x/m;
+            comY[cell] = y/m;
+            comZ[cell] = z/m;
+        }
+        else
+        {
+            //Cells holding only massless bodies are placed at their geometric center and exert no force
+            comX[cell] = centerX[cell];
+            comY[cell] = centerY[cell];
+            comZ[cell] = centerZ[cell];
+        }
+    }
+
+    /**
+     * Determines which of the eight children of a cell contains the given position.
+     *
+     * @return: an int from 0 to 7 whose bits are set for the x, y, and z halves above the center of the cell
+     */
+    private int octantOf(int cell, double x, double y, double z)
+    {
+        int octant = 0;
+        if(x >= centerX[cell])
+        {
+            octant |= 1;
+        }
+        if(y >= centerY[cell])
+        {
+            octant |= 2;
+        }
+        if(z >= centerZ[cell])
+        {
+            octant |= 4;
+        }
+        return octant;
+    }
+
+    /**
+     * Creates the child of a cell in the given octant.
+     *
+     * @return: the index of the new cell
+     */
+    private int newChild(int parent, int octant)
+    {
+        double quarter = 0.5*halfSize[parent];
+        double x = centerX[parent] + ((octant & 1) != 0 ? quarter : -quarter);
+        double y = centerY[parent] + ((octant & 2) != 0 ? quarter : -quarter);
+        double z = centerZ[parent] + ((octant & 4) != 0 ? quarter : -quarter);
+        int c = newCell(x, y, z, quarter);
+        child[8*parent + octant] = c;
+        return c;
+    }
+
+    /**
+     * Creates an empty leaf cell, growing the cell arrays if they are full.
+     *
+     * @return: the index of the new cell
+     */
+    private int newCell(double x, double y, double z, double half)
+    {
+        if(cellCount == centerX.length)
+        {
+            allocateCells(2*cellCount);
+        }
+        int cell = cellCount++;
+        centerX[cell] = x;
+        centerY[cell] = y;
+        centerZ[cell] = z;
+        halfSize[cell] = half;
+        firstBody[cell] = -1;
+        for(int octant = 0; octant < 8; octant++)
+        {
+            child[8*cell + octant] = -1;
+        }
+        return cell;
+    }
+
+    /**
+     * Resizes the cell arrays to the given capacity, keeping the cells already in use.
+     *
+     * @param capacity: the number of cells the arrays should be able to hold
+     */
+    private void allocateCells(int capacity)
+    {
+        centerX = grow(centerX, capacity);
+        centerY = grow(centerY, capacity);
+        centerZ = grow(centerZ, capacity);
+        halfSize = grow(halfSize, capacity);
+        mass = grow(mass, capacity);
+        comX = grow(comX, capacity);
+        comY = grow(comY, capacity);
+        comZ = grow(comZ, capacity);
+
+        int[] newChild = new int[8*capacity];
+        int[] newFirstBody = new int[capacity];
+        if(child != null)
+        {
+            System.arraycopy(child, 0, newChild, 0, 8*cellCount);
+            System.arraycopy(firstBody, 0, newFirstBody, 0, cellCount);
+        }
+        child = newChild;
+        firstBody = newFirstBody;
+    }
+
+    //Returns a copy of the array with the given length, or a new array if the given array is null
+    private double[] grow(double[] array, int capacity)
+    {
+        double[] grown = new double[capacity];
+        if(array != null)
+        {
+            System.arraycopy(array, 0, grown, 0, cellCount);
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,350 @@
+package numericalmethods;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.InputMismatchException;
+
+/**
+ * The BinarySnapshot class reads and writes the state of a system in a compact binary format. A binary file holds one
+ * or more frames written one after another. Each frame is a 64-byte header followed by seven columns of n doubles:
+ * x, y, z, vx, vy, vz, and mass, in meters, meters/second, and kilograms. Every value is stored exactly, so a run
+ * restarted from a binary file continues from precisely the saved state.
+ *
+ * The header holds, in little-endian order:
+ *     bytes 0-7: the magic number MAGIC, which identifies the file as a binary snapshot
+ *     bytes 8-11: the format VERSION
+ *     bytes 12-15: the number of columns, COLUMNS
+ *     bytes 16-23: the number of bodies n
+ *     bytes 24-31: the simulation time of the frame in seconds
+ *     bytes 32-39: the number of time steps taken before the frame
+ *     bytes 40-63: reserved, written as 0
+ *
+ * Frames are written and read with positional reads and writes of the file through a direct buffer of COPY_BYTES
+ * bytes, into which each column is copied in bulk from or to the arrays of a ParticleStore, so reading or writing a
+ * frame of a million bodies takes milliseconds. The file is never memory-mapped, since a mapping stays open until it is
+ * garbage collected, and an open mapping stops the file from being truncated, replaced, or deleted on Windows.
+ *
+ * The main method exports the last frame of a binary file in the text format of the input file:
+ *     BinarySnapshot [binary file] [text file]
+ *
+ */
+public class BinarySnapshot
+{
+    //MAGIC is the first eight bytes of every frame, the characters "NBODYSNP" read as a little-endian long
+    public static final long MAGIC = 0x504E5359444F424EL;
+
+    //VERSION is the version of the format written by this class
+    public static final int VERSION = 1;
+
+    //COLUMNS is the number of columns of doubles in each frame
+    public static final int COLUMNS = 7;
+
+    //HEADER_BYTES is the size of the header of each frame in bytes
+    public static final int HEADER_BYTES = 64;
+
+    //COPY_BYTES is the size in bytes of the buffer through which columns are copied between the arrays and the file
+    public static final int COPY_BYTES = 1 << 20;
+
+    //particles holds the bodies of the frame that was read
+    public ParticleStore particles;
+
+    //time is the simulation time of the frame in seconds
+    public double time;
+
+    //step is the number of time steps taken before the frame
+    public long step;
+
+    /**
+     * Creates a snapshot holding the given state.
+     */
+    public BinarySnapshot(ParticleStore particles, double time, long step)
+    {
+        this.particles = particles;
+        this.time = time;
+        this.step = step;
+    }
+
+    //Returns the size in bytes of a frame of n bodies
+    public static long frameBytes(long n)
+    {
+        return HEADER_BYTES + COLUMNS*8*n;
+    }
+
+    //Returns a new buffer for copying frames, of COPY_BYTES bytes in little-endian order
+    public static ByteBuffer createBuffer()
+    {
+        return ByteBuffer.allocateDirect(COPY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Appends a frame holding the state of the given bodies to the end of a file.
+     *
+     * @param channel: a channel opened for writing on the file
+     * @param buffer: a buffer from createBuffer(), reused from frame to frame
+     * @param particles: the bodies in the system
+     * @param time: the simulation time in seconds
+     * @param step: the number of time steps taken
+     * @throws IOException: if the file cannot be written
+     */
+    public static void append(FileChannel channel, ByteBuffer buffer, ParticleStore particles, double time, long step)
+            throws IOException
+    {
+        int n = particles.n;
+        long position = channel.size();
+
+        buffer.clear();
+        buffer.putLong(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(COLUMNS);
+        buffer.putLong(n);
+        buffer.putDouble(time);
+        buffer.putLong(step);
+        while(buffer.position() < HEADER_BYTES)
+        {
+            buffer.put((byte)0);
+        }
+        buffer.flip();
+        position = writeFully(channel, buffer, position);
+
+        for(double[] column : columnsOf(particles))
+        {
+            position = writeColumn(channel, buffer, column, n, position);
+        }
+    }
+
+    /**
+     * Writes the first n elements of a column to a file at the given position, through a buffer.
+     *
+     * @param channel: a channel opened for writing on the file
+     * @param buffer: the buffer through which the values are copied, in little-endian order
+     * @param column: the column
+     * @param n: the number of elements written
+     * @param position: the position in the file of the first element
+     * @return: the position in the file just after the last element
+     * @throws IOException: if the file cannot be written
+     */
+    static long writeColumn(FileChannel channel, ByteBuffer buffer, double[] column, int n, long position)
+            throws IOException
+    {
+        for(int from = 0; from < n; )
+        {
+            int chunk = Math.min(n - from, buffer.capacity()/8);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(column, from, chunk);
+            buffer.limit(8*chunk);
+            position = writeFully(channel, buffer, position);
+            from += chunk;
+        }
+        return position;
+    }
+
+    /**
+     * Reads the next n elements of a column from a file at the given position, through a buffer.
+     *
+     * @param channel: a channel opened for reading on the file
+     * @param buffer: the buffer through which the values are copied, in little-endian order
+     * @param column: the column, whose first n elements are overwritten
+     * @param n: the number of elements read
+     * @param position: the position in the file of the first element
+     * @return: the position in the file just after the last element
+     * @throws IOException: if the file cannot be read or ends before the last element
+     */
+    static long readColumn(FileChannel channel, ByteBuffer buffer, double[] column, int n, long position)
+            throws IOException
+    {
+        for(int from = 0; from < n; )
+        {
+            int chunk = Math.min(n - from, buffer.capacity()/8);
+            buffer.clear();
+            buffer.limit(8*chunk);
+            position = readFully(channel, buffer, position);
+            buffer.flip();
+            buffer.asDoubleBuffer().get(column, from, chunk);
+            from += chunk;
+        }
+        return position;
+    }
+
+    //Writes the remaining bytes of a buffer to a file at the given position and returns the position after them
+    static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    //Fills the remaining bytes of a buffer from a file at the given position and returns the position after them
+    static long readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position);
+            if(read < 0)
+            {
+                throw new EOFException("Unexpected end of file at byte " + position);
+            }
+            position += read;
+        }
+        return position;
+    }
+
+    /**
+     * Writes a file holding a single frame with the state of the given bodies, replacing any existing file.
+     *
+     * @param file: the file to be written
+     * @param particles: the bodies in the system
+     * @param time: the simulation time in seconds
+     * @param step: the number of time steps taken
+     * @throws IOException: if the file cannot be written
+     */
+    public static void write(File file, ParticleStore particles, double time, long step) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            append(channel, createBuffer(), particles, time, step);
+        }
+    }
+
+    /**
+     * Determines whether a file begins with the magic number of a binary snapshot.
+     *
+     * @param file: the file to be checked
+     * @return: true if the file is a binary snapshot
+     * @throws IOException: if the file cannot be read
+     */
+    public static boolean isSnapshot(File file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if(channel.size() < HEADER_BYTES)
+            {
+                return false;
+            }
+            ByteBuffer magic = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, magic, 0);
+            return magic.getLong(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads the last frame of a binary file.
+     *
+     * @param file: the file to be read
+     * @return: a BinarySnapshot holding the bodies, time, and step of the last frame
+     * @throws IOException: if the file cannot be read
+     * @throws InputMismatchException: if the file is not a binary snapshot or is truncated
+     */
+    public static BinarySnapshot readLast(File file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = createBuffer();
+            long size = channel.size();
+            long start = 0;
+            long last = -1;
+
+            //The headers are followed from frame to frame to find the start of the last complete frame
+            while(start + HEADER_BYTES <= size)
+            {
+                long n = readHeader(channel, buffer, start).getLong(16);
+                long end = start + frameBytes(n);
+                if(end > size)
+                {
+                    break;
+                }
+                last = start;
+                start = end;
+            }
+            if(last < 0)
+            {
+                throw new InputMismatchException("No complete frame in binary snapshot " + file);
+            }
+
+            return readFrame(channel, buffer, last);
+        }
+    }
+
+    /**
+     * Reads the frame that begins at the given position of a file.
+     *
+     * @param channel: a channel opened for reading on the file
+     * @param buffer: a buffer from createBuffer()
+     * @param start: the position of the header of the frame
+     * @return: a BinarySnapshot holding the bodies, time, and step of the frame
+     * @throws IOException: if the file cannot be read
+     */
+    public static BinarySnapshot readFrame(FileChannel channel, ByteBuffer buffer, long start) throws IOException
+    {
+        ByteBuffer header = readHeader(channel, buffer, start);
+        long count = header.getLong(16);
+        double time = header.getDouble(24);
+        long step = header.getLong(32);
+        if(count > Integer.MAX_VALUE)
+        {
+            throw new InputMismatchException("Too many bodies in binary snapshot: " + count);
+        }
+        int n = (int)count;
+
+        ParticleStore particles = new ParticleStore(n);
+        particles.n = n;
+        long position = start + HEADER_BYTES;
+        for(double[] column : columnsOf(particles))
+        {
+            position = readColumn(channel, buffer, column, n, position);
+        }
+
+        return new BinarySnapshot(particles, time, step);
+    }
+
+    /**
+     * Reads into a buffer and checks the header of the frame that begins at the given position.
+     *
+     * @return: the buffer, holding the header from position 0
+     * @throws InputMismatchException: if the header does not have the magic number, version, and column count
+     */
+    private static ByteBuffer readHeader(FileChannel channel, ByteBuffer header, long start) throws IOException
+    {
+        header.clear();
+        header.limit(HEADER_BYTES);
+        readFully(channel, header, start);
+        if(header.getLong(0) != MAGIC)
+        {
+            throw new InputMismatchException("Not a binary snapshot frame at byte " + start);
+        }
+        if(header.getInt(8) != VERSION || header.getInt(12) != COLUMNS)
+        {
+            throw new InputMismatchException("Unsupported binary snapshot version " + header.getInt(8));
+        }
+        return header;
+    }
+
+    //Returns the arrays of the store in the order of the columns of a frame
+    private static double[][] columnsOf(ParticleStore particles)
+    {
+        return new double[][] {particles.x, particles.y, particles.z, particles.vx, particles.vy, particles.vz,
+                particles.mass};
+    }
+
+    /**
+     * The main method exports the last frame of a binary file as a text file in the format of the input file.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 2)
+        {
+            System.out.println("Usage: BinarySnapshot [binary file] [text file]");
+            System.exit(2);
+        }
+        BinarySnapshot snapshot = readLast(new File(args[0]));
+        TrajectoryWriter writer = new TrajectoryWriter(new File(args[1]));
+        writer.writeFrame(snapshot.particles, snapshot.time, snapshot.step);
+        writer.close();
+    }
+}
@@ -0,0 +1,466 @@
+package numericalmethods;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The BlockTimestepIntegrator class gives every body its own time step. A single close pair of bodies would otherwise
+ * force the whole system onto the tiny time step the pair needs; here only the bodies that need short steps take them.
+ *
+ * Each body's step is a power-of-two fraction of the global time step from the control file (dt, dt/2, dt/4, and so
+ * on), which arranges the bodies into blocks that share a step. A body's step is chosen from its acceleration and jerk
+ * (the rate of change of acceleration) and their higher derivatives using the criterion of Aarseth, so that bodies in
+ * close encounters take short steps and isolated bodies take long ones. Within a global step, the integrator repeatedly
+ * advances the block of bodies whose steps end soonest (the active bodies). All bodies are predicted to that time, the
+ * acceleration and jerk of only the active bodies are found, and the active bodies are corrected with the fourth-order
+ * Hermite scheme. A body's step may only grow to a step that divides its current time, so the blocks stay
+ * synchronized, and every body reaches the end of the global step together.
+ *
+ * Times within a global step are counted in integer ticks of dt/2^MAX_LEVEL so that the block boundaries are exact.
+ * Because the Hermite scheme needs the jerk as well as the acceleration, and only for the active bodies, the integrator
+ * finds them with its own direct-sum kernel rather than with the ForceEngine passed to step().
+ *
+ */
+public class BlockTimestepIntegrator implements Integrator
+{
+    //MAX_LEVEL is the largest number of times the global time step may be halved for a single body
+    public static final int MAX_LEVEL = 40;
+
+    //TICKS is the number of ticks in a global time step
+    private static final long TICKS = 1L << MAX_LEVEL;
+
+    //eta is the accuracy parameter of the time step criterion; smaller values give shorter, more accurate steps
+    public final double eta;
+
+    //softening is the softening of the force between each pair of bodies
+    private final Softening softening;
+
+    //forceEvaluations is the number of times the acceleration and jerk of a single body have been found
+    public long forceEvaluations;
+
+    //interactions is the number of pair interactions evaluated in finding those accelerations and jerks, and
+    //forceNanos is the time in nanoseconds spent finding them
+    private long interactions;
+    private long forceNanos;
+
+    //pool is the ForkJoinPool on which the accelerations of the active bodies are found, or null for the calling thread
+    private final ForkJoinPool pool;
+
+    //time holds the time of each body in ticks since the start of the global step, and level holds the number of
+    //times the global step has been halved to give the step of each body
+    private long[] time = new long[0];
+    private int[] level = new int[0];
+
+    //ax, ay, az and jx, jy, jz hold the acceleration and jerk of each body at its own time
+    private double[] ax = new double[0], ay = new double[0], az = new double[0];
+    private double[] jx = new double[0], jy = new double[0], jz = new double[0];
+
+    //px, py, pz and pvx, pvy, pvz hold the predicted position and velocity of each body at the current block time
+    private double[] px = new double[0], py = new double[0], pz = new double[0];
+    private double[] pvx = new double[0], pvy = new double[0], pvz = new double[0];
+
+    //newAx, newAy, newAz and newJx, newJy, newJz hold the acceleration and jerk found for each active body
+    private double[] newAx = new double[0], newAy = new double[0], newAz = new double[0];
+    private double[] newJx = new double[0], newJy = new double[0], newJz = new double[0];
+
+    //active holds the indices of the bodies whose steps end at the current block time
+    private int[] active = new int[0];
+
+    //initializedStep is the global time step for which the accelerations and levels were found, or 0 if they must be
+    //found again
+    private double initializedStep;
+
+    /**
+     * Creates a block time-step integrator.
+     *
+     * @param eta: the accuracy parameter of the time step criterion
+     * @param pool: the ForkJoinPool on which accelerations are found, or null to run on the calling thread
+     */
+    public BlockTimestepIntegrator(double eta, ForkJoinPool pool)
+    {
+        this(eta, pool, Softening.NONE);
+    }
+
+    /**
+     * Creates a block time-step integrator that softens the force between each pair of bodies.
+     *
+     * @param eta: the accuracy parameter of the time step criterion
+     * @param pool: the ForkJoinPool on which accelerations are found, or null to run on the calling thread
+     * @param softening: the softening of the force
+     */
+    public BlockTimestepIntegrator(double eta, ForkJoinPool pool, Softening softening)
+    {
+        this.eta = eta;
+        this.pool = pool;
+        this.softening = softening;
+    }
+
+    /**
+     * Advances every body by one global time step, taking as many block steps as the bodies need.
+     *
+     * @param particles: the bodies in the system
+     * @param engine: not used, since the integrator needs the jerk of each body as well as its acceleration
+     * @param dt: the global time step in seconds
+     */
+    public void step(ParticleStore particles, ForceEngine engine, double dt)
+    {
+        int n = particles.n;
+        if(initializedStep != dt || time.length < n)
+        {
+            initialize(particles, dt);
+        }
+
+        while(true)
+        {
+            //The next block time is the earliest time at which the step of some body ends
+            long next = Long.MAX_VALUE;
+            for(int i = 0; i < n; i++)
+            {
+                next = Math.min(next, time[i] + (TICKS >> level[i]));
+            }
+            if(next > TICKS)
+            {
+                break;
+            }
+
+            int activeCount = 0;
+            for(int i = 0; i < n; i++)
+            {
+                if(time[i] + (TICKS >> level[i]) == next)
+                {
+                    active[activeCount++] = i;
+                }
+            }
+
+            predict(particles, next, dt);
+            final int count = activeCount;
+            long start = System.nanoTime();
+            ParallelRange.forEach(pool, count, (from, to) ->
+            {
+                for(int a = from; a < to; a++)
+                {
+                    evaluate(particles, active[a]);
+                }
+            });
+            forceNanos += System.nanoTime() - start;
+            forceEvaluations += count;
+            interactions += (long)count*(n - 1);
+
+            for(int a = 0; a < count; a++)
+            {
+                correct(particles, active[a], next, dt);
+            }
+        }
+
+        //Every body has reached the end of the global step, which becomes the start of the next one
+        for(int i = 0; i < n; i++)
+        {
+            time[i] = 0;
+        }
+    }
+
+    //The accelerations, jerks, and levels are found again at the start of the next step
+    public void reset()
+    {
+        initializedStep = 0;
+    }
+
+    //Returns the number of pair interactions evaluated so far
+    public long interactionCount()
+    {
+        return interactions;
+    }
+
+    //Returns the time in nanoseconds spent finding accelerations and jerks so far
+    public long forceNanos()
+    {
+        return forceNanos;
+    }
+
+    /**
+     * Saves the step level, acceleration, and jerk of every body. Between calls to step() every body is at the start of
+     * the global step, so their times need not be saved.
+     *
+     * @param out: the output to which the state is written
+     * @throws IOException: if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeDouble(initializedStep);
+        out.writeInt(initializedStep == 0 ? 0 : time.length);
+        if(initializedStep == 0)
+        {
+            return;
+        }
+        for(int i = 0; i < time.length; i++)
+        {
+            out.writeInt(level[i]);
+            out.writeDouble(ax[i]);
+            out.writeDouble(ay[i]);
+            out.writeDouble(az[i]);
+            out.writeDouble(jx[i]);
+            out.writeDouble(jy[i]);
+            out.writeDouble(jz[i]);
+        }
+    }
+
+    /**
+     * Restores the state written by saveState().
+     *
+     * @param in: the input from which the state is read
+     * @param particles: the bodies restored from the same checkpoint
+     * @throws IOException: if the state cannot be read
+     */
+    public void loadState(DataInput in, ParticleStore particles) throws IOException
+    {
+        initializedStep = in.readDouble();
+        int count = in.readInt();
+        if(initializedStep == 0)
+        {
+            return;
+        }
+        allocate(Math.max(count, particles.n));
+        for(int i = 0; i < count; i++)
+        {
+            time[i] = 0;
+            level[i] = in.readInt();
+            ax[i] = in.readDouble();
+            ay[i] = in.readDouble();
+            az[i] = in.readDouble();
+            jx[i] = in.readDouble();
+            jy[i] = in.readDouble();
+            jz[i] = in.readDouble();
+        }
+    }
+
+    /**
+     * Finds the acceleration and jerk of every body and chooses its first step.
+     *
+     * @param particles: the bodies in the system
+     * @param dt: the global time step in seconds
+     */
+    private void initialize(ParticleStore particles, double dt)
+    {
+        int n = particles.n;
+        allocate(n);
+
+        predict(particles, 0, dt);
+        long start = System.nanoTime();
+        ParallelRange.forEach(pool, n, (from, to) ->
+        {
+            for(int i = from; i < to; i++)
+            {
+                evaluate(particles, i);
+            }
+        });
+        forceNanos += System.nanoTime() - start;
+        forceEvaluations += n;
+        interactions += (long)n*(n - 1);
+
+        for(int i = 0; i < n; i++)
+        {
+            time[i] = 0;
+            ax[i] = newAx[i];
+            ay[i] = newAy[i];
+            az[i] = newAz[i];
+            jx[i] = newJx[i];
+            jy[i] = newJy[i];
+            jz[i] = newJz[i];
+
+            //The first step uses only the acceleration and jerk, with a more cautious accuracy parameter
+            double a = Math.sqrt(ax[i]*ax[i] + ay[i]*ay[i] + az[i]*az[i]);
+            double j = Math.sqrt(jx[i]*jx[i] + jy[i]*jy[i] + jz[i]*jz[i]);
+            double ideal = j > 0 ? 0.1*eta*a/j : dt;
+            level[i] = levelFor(ideal, dt, MAX_LEVEL);
+        }
+
+        initializedStep = dt;
+    }
+
+    /**
+     * Predicts the position and velocity of every body at the given block time from its state, acceleration, and jerk
+     * at its own time.
+     *
+     * @param particles: the bodies in the system
+     * @param blockTime: the block time in ticks
+     * @param dt: the global time step in seconds
+     */
+    private void predict(ParticleStore particles, long blockTime, double dt)
+    {
+        double tick = dt/TICKS;
+        for(int i = 0; i < particles.n; i++)
+        {
+            double h = (blockTime - time[i])*tick;
+            double h2 = h*h/2;
+            double h3 = h2*h/3;
+            px[i] = particles.x[i] + particles.vx[i]*h + ax[i]*h2 + jx[i]*h3;
+            py[i] = particles.y[i] + particles.vy[i]*h + ay[i]*h2 + jy[i]*h3;
+            pz[i] = particles.z[i] + particles.vz[i]*h + az[i]*h2 + jz[i]*h3;
+            pvx[i] = particles.vx[i] + ax[i]*h + jx[i]*h2;
+            pvy[i] = particles.vy[i] + ay[i]*h + jy[i]*h2;
+            pvz[i] = particles.vz[i] + az[i]*h + jz[i]*h2;
+        }
+    }
+
+    /**
+     * Finds the acceleration and jerk of body i at the predicted positions and velocities of every body.
+     *
+     * @param particles: the bodies in the system
+     * @param i: the index of the body
+     */
+    private void evaluate(ParticleStore particles, int i)
+    {
+        double[] mass = particles.mass;
+        double sumAx = 0, sumAy = 0, sumAz = 0;
+        double sumJx = 0, sumJy = 0, sumJz = 0;
+
+        for(int j = 0; j < particles.n; j++)
+        {
+            if(j == i)
+            {
+                continue;
+            }
+            double dx = px[j] - px[i];
+            double dy = py[j] - py[i];
+            double dz = pz[j] - pz[i];
+            double dvx = pvx[j] - pvx[i];
+            double dvy = pvy[j] - pvy[i];
+            double dvz = pvz[j] - pvz[i];
+            double distanceSquared = dx*dx + dy*dy + dz*dz;
+            double factor = softening.factor(mass[j], distanceSquared);
+
+            //The jerk is the time derivative of GM r/|r|^3, which includes a term for the change in distance
+            double rate = softening.jerkRate(distanceSquared)*(dx*dvx + dy*dvy + dz*dvz);
+            sumAx += dx*factor;
+            sumAy += dy*factor;
+            sumAz += dz*factor;
+            sumJx += (dvx - rate*dx)*factor;
+            sumJy += (dvy - rate*dy)*factor;
+            sumJz += (dvz - rate*dz)*factor;
+        }
+
+        newAx[i] = sumAx;
+        newAy[i] = sumAy;
+        newAz[i] = sumAz;
+        newJx[i] = sumJx;
+        newJy[i] = sumJy;
+        newJz[i] = sumJz;
+    }
+
+    /**
+     * Corrects the predicted state of an active body with the fourth-order Hermite scheme and chooses its next step.
+     *
+     * @param particles: the bodies in the system
+     * @param i: the index of the active body
+     * @param blockTime: the block time in ticks, at which the step of the body ends
+     * @param dt: the global time step in seconds
+     */
+    private void correct(ParticleStore particles, int i, long blockTime, double dt)
+    {
+        double h = (blockTime - time[i])*(dt/TICKS);
+        double h2 = h*h;
+
+        //The second and third derivatives of the acceleration (snap and crackle) at the start of the step are found by
+        //fitting the accelerations and jerks at both ends of the step
+        double sx = (-6*(ax[i] - newAx[i]) - h*(4*jx[i] + 2*newJx[i]))/h2;
+        double sy = (-6*(ay[i] - newAy[i]) - h*(4*jy[i] + 2*newJy[i]))/h2;
+        double sz = (-6*(az[i] - newAz[i]) - h*(4*jz[i] + 2*newJz[i]))/h2;
+        double cx = (12*(ax[i] - newAx[i]) + 6*h*(jx[i] + newJx[i]))/(h2*h);
+        double cy = (12*(ay[i] - newAy[i]) + 6*h*(jy[i] + newJy[i]))/(h2*h);
+        double cz = (12*(az[i] - newAz[i]) + 6*h*(jz[i] + newJz[i]))/(h2*h);
+
+        double h4 = h2*h2/24;
+        double h5 = h4*h/5;
+        double h3 = h2*h/6;
+        particles.x[i] = px[i] + sx*h4 + cx*h5;
+        particles.y[i] = py[i] + sy*h4 + cy*h5;
+        particles.z[i] = pz[i] + sz*h4 + cz*h5;
+        particles.vx[i] = pvx[i] + sx*h3 + cx*h4;
+        particles.vy[i] = pvy[i] + sy*h3 + cy*h4;
+        particles.vz[i] = pvz[i] + sz*h3 + cz*h4;
+
+        ax[i] = newAx[i];
+        ay[i] = newAy[i];
+        az[i] = newAz[i];
+        jx[i] = newJx[i];
+        jy[i] = newJy[i];
+        jz[i] = newJz[i];
+        particles.ax[i] = ax[i];
+        particles.ay[i] = ay[i];
+        particles.az[i] = az[i];
+        time[i] = blockTime;
+
+        //Aarseth's criterion uses the acceleration, jerk, snap, and crackle at the end of the step
+        double snapX = sx + cx*h, snapY = sy + cy*h, snapZ = sz + cz*h;
+        double a = Math.sqrt(ax[i]*ax[i] + ay[i]*ay[i] + az[i]*az[i]);
+        double j = Math.sqrt(jx[i]*jx[i] + jy[i]*jy[i] + jz[i]*jz[i]);
+        double s = Math.sqrt(snapX*snapX + snapY*snapY + snapZ*snapZ);
+        double c = Math.sqrt(cx*cx + cy*cy + cz*cz);
+        double denominator = j*c + s*s;
+        double ideal = denominator > 0 ? Math.sqrt(eta*(a*s + j*j)/denominator) : dt;
+
+        //The step may shrink freely, but may only grow by a factor of two, and only if the new step divides the
+        //current time so that the body stays in step with its new block
+        int newLevel = levelFor(ideal, dt, MAX_LEVEL);
+        if(newLevel < level[i])
+        {
+            newLevel = level[i] - 1;
+            if(blockTime % (TICKS >> newLevel) != 0)
+            {
+                newLevel = level[i];
+            }
+        }
+        level[i] = newLevel;
+    }
+
+    /**
+     * Finds the smallest level whose step, dt/2^level, is no longer than the ideal step.
+     *
+     * @param ideal: the ideal step in seconds
+     * @param dt: the global time step in seconds
+     * @param maxLevel: the largest level allowed
+     * @return: the level
+     */
+    private static int levelFor(double ideal, double dt, int maxLevel)
+    {
+        int found = 0;
+        double step = dt;
+        while(step > ideal && found < maxLevel)
+        {
+            step /= 2;
+            found++;
+        }
+        return found;
+    }
+
+    //Grows the arrays to hold n bodies
+    private void allocate(int n)
+    {
+        if(time.length >= n)
+        {
+            return;
+        }
+        time = new long[n];
+        level = new int[n];
+        ax = new double[n];
+        ay = new double[n];
+        az = new double[n];
+        jx = new double[n];
+        jy = new double[n];
+        jz = new double[n];
+        px = new double[n];
+        py = new double[n];
+        pz = new double[n];
+        pvx = new double[n];
+        pvy = new double[n];
+        pvz = new double[n];
+        newAx = new double[n];
+        newAy = new double[n];
+        newAz = new double[n];
+        newJx = new double[n];
+        newJy = new double[n];
+        newJz = new double[n];
+        active = new int[n];
+    }
+}
@@ -68,7 +68,9 @@ public class Body
     
     /**
      * In the event of a collision, this method can be used to conserve momentum assuming an inelastic collision. The
-     * method turns the current Body into the result of the collision and sets the other Body to have a mass of 0.
+     * method turns the current Body into the result of the collision, placed at the center of mass of the two bodies so
+     * that the center of mass of the system does not move, and sets the other Body to have a mass of 0. Two massless
+     * bodies merge at their midpoint with their mean velocity.
      * 
      * @param otherBody: the Body into which the current Body collides
      */
@@ -78,14 +80,19 @@ public class Body
         double secondMass = otherBody.getMass();
         double[] firstVelocity = velocity;
         double[] secondVelocity = otherBody.getVelocity();
+        double[] secondPosition = otherBody.getPosition();
         
         //Sets mass of current Body to that of the new Body after the inelastic collision
         mass += secondMass;
         
-        //Velocity adjusted according to conservation of momentum
+        //Velocity adjusted according to conservation of momentum, and position moved to the center of mass, which
+        //leaves the position unchanged when the two bodies coincide
+        double secondWeight = mass > 0 ? secondMass/mass : 0.5;
         for(int i = 0; i < 3; i++)
         {
-            velocity[i] = (firstMass*firstVelocity[i] + secondMass*secondVelocity[i])/(firstMass + secondMass);
+            velocity[i] = mass > 0 ? (firstMass*firstVelocity[i] + secondMass*secondVelocity[i])/mass
+                    : (firstVelocity[i] + secondVelocity[i])/2;
+            position[i] += secondWeight*(secondPosition[i] - position[i]);
         }
         
         //Mass of otherBody set to 0
@@ -146,9 +153,21 @@ public class Body
      * @return: an array of doubles representing the position vector
      */
     public double[] relativePositionFrom(Body body2)
+    {
+        return relativePositionFrom(body2, new double[3]);
+    }
+    
+    /**
+     * Finds the relative position of the current Body from another Body and stores it in the given vector, so that no
+     * new array is created.
+     * 
+     * @param body2: the Body from which the position should be calculated
+     * @param relativePosition: the vector in which the relative position should be stored
+     * @return: the relativePosition vector, holding the position of the current Body with respect to body2
+     */
+    public double[] relativePositionFrom(Body body2, double[] relativePosition)
     {
         double[] position2 = body2.getPosition();
-        double[] relativePosition = new double[3];
         
         //The other position vector is subtracted from the current position vector
         for (int i = 0; i < 3; i++)
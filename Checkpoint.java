@@ -0,0 +1,260 @@
+package numericalmethods;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.InputMismatchException;
+
+/**
+ * The Checkpoint class reads and writes the complete state of a run, from which the run can be resumed exactly as if it
+ * had never stopped. Unlike a BinarySnapshot, which holds only what is needed to start a new run, a checkpoint also
+ * holds the accelerations of the bodies and any state the Integrator and ForceEngine keep between steps, along with
+ * the step counter, the time step, the seed of the random bodies, and the number and length of the frames written to
+ * the output file.
+ *
+ * A checkpoint file is a 72-byte little-endian header, ten columns of n doubles (x, y, z, vx, vy, vz, mass, ax, ay,
+ * and az, in SI units), the name of the integrator, the saved states of the integrator and the engine, and the values
+ * from which SimulationMetrics measures drift:
+ *     bytes 0-7: the magic number MAGIC
+ *     bytes 8-11: the format VERSION
+ *     bytes 12-15: the number of columns, COLUMNS
+ *     bytes 16-23: the number of bodies n
+ *     bytes 24-31: the simulation time in seconds
+ *     bytes 32-39: the number of time steps taken
+ *     bytes 40-47: the time step in seconds
+ *     bytes 48-55: the seed of the random bodies
+ *     bytes 56-63: the number of frames written to the output file
+ *     bytes 64-71: the length in bytes of the output file currently being written
+ *     then the columns, then a 4-byte length and the UTF-8 bytes of the integrator name, then a 4-byte length and the
+ *     bytes of the integrator state, then a 4-byte length and the bytes of the engine state, then a 4-byte count and
+ *     that many doubles of the drift baseline
+ *
+ * A checkpoint is written to a temporary file that is flushed to disk and then renamed over the checkpoint file, so a
+ * crash part way through leaves the previous checkpoint intact. The file is written and read with positional writes and
+ * reads through a direct buffer, as the frames of a BinarySnapshot are, rather than mapped into memory: a mapping is
+ * only released when the buffer is garbage collected, and a file that is still mapped cannot be renamed over or
+ * deleted on some platforms.
+ *
+ */
+public class Checkpoint
+{
+    //MAGIC is the first eight bytes of every checkpoint, the characters "NBODYCKP" read as a little-endian long
+    public static final long MAGIC = 0x504B4359444F424EL;
+
+    //VERSION is the version of the format written by this class
+    public static final int VERSION = 3;
+
+    //COLUMNS is the number of columns of doubles in a checkpoint
+    public static final int COLUMNS = 10;
+
+    //HEADER_BYTES is the size of the header in bytes
+    public static final int HEADER_BYTES = 72;
+
+    //particles holds the bodies, including their accelerations
+    public ParticleStore particles;
+
+    //time is the simulation time in seconds, step is the number of time steps taken, timeStep is the time step in
+    //seconds, seed is the seed of the random bodies, frameCount is the number of frames written to the output file, and
+    //trajectoryBytes is the length in bytes of the output file currently being written
+    public double time;
+    public long step;
+    public double timeStep;
+    public long seed;
+    public long frameCount;
+    public long trajectoryBytes;
+
+    //integrator is the name of the integrator, as in the settings, and integratorState holds its saved state
+    public String integrator;
+    public byte[] integratorState;
+
+    //engineState holds the saved state of the ForceEngine
+    public byte[] engineState = new byte[0];
+
+    //baseline holds the values returned by SimulationMetrics.baseline() at the start of the run, or is null if the run
+    //collected no metrics
+    public double[] baseline;
+
+    /**
+     * Writes a checkpoint to a temporary file beside the given file and renames it over the given file once it is on
+     * disk.
+     *
+     * @param file: the checkpoint file
+     * @throws IOException: if the file cannot be written or renamed
+     */
+    public void write(File file) throws IOException
+    {
+        write(file, BinarySnapshot.createBuffer());
+    }
+
+    /**
+     * Writes a checkpoint to a temporary file beside the given file and renames it over the given file once it is on
+     * disk, copying the columns through the given buffer.
+     *
+     * @param file: the checkpoint file
+     * @param buffer: a buffer from BinarySnapshot.createBuffer(), reused from checkpoint to checkpoint
+     * @throws IOException: if the file cannot be written or renamed
+     */
+    public void write(File file, ByteBuffer buffer) throws IOException
+    {
+        int n = particles.n;
+        byte[] name = integrator.getBytes(StandardCharsets.UTF_8);
+        int baselineCount = baseline == null ? 0 : baseline.length;
+        long size = HEADER_BYTES + COLUMNS*8L*n + 4 + name.length + 4 + integratorState.length + 4
+                + engineState.length + 4 + 8L*baselineCount;
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+
+        try(FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            buffer.clear();
+            buffer.putLong(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(COLUMNS);
+            buffer.putLong(n);
+            buffer.putDouble(time);
+            buffer.putLong(step);
+            buffer.putDouble(timeStep);
+            buffer.putLong(seed);
+            buffer.putLong(frameCount);
+            buffer.putLong(trajectoryBytes);
+            buffer.flip();
+            long position = BinarySnapshot.writeFully(channel, buffer, 0);
+
+            for(double[] column : columnsOf(particles))
+            {
+                position = BinarySnapshot.writeColumn(channel, buffer, column, n, position);
+            }
+
+            ByteBuffer tail = ByteBuffer.allocate((int)(size - position)).order(ByteOrder.LITTLE_ENDIAN);
+            tail.putInt(name.length).put(name).putInt(integratorState.length).put(integratorState);
+            tail.putInt(engineState.length).put(engineState).putInt(baselineCount);
+            for(int k = 0; k < baselineCount; k++)
+            {
+                tail.putDouble(baseline[k]);
+            }
+            tail.flip();
+            BinarySnapshot.writeFully(channel, tail, position);
+            channel.force(true);
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint file.
+     *
+     * @param file: the checkpoint file
+     * @return: the checkpoint
+     * @throws IOException: if the file cannot be read
+     * @throws InputMismatchException: if the file is not a checkpoint or is truncated
+     */
+    public static Checkpoint read(File file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if(size < HEADER_BYTES)
+            {
+                throw new InputMismatchException("Not a checkpoint: " + file);
+            }
+            ByteBuffer header = BinarySnapshot.createBuffer();
+            header.limit(HEADER_BYTES);
+            BinarySnapshot.readFully(channel, header, 0);
+            if(header.getLong(0) != MAGIC)
+            {
+                throw new InputMismatchException("Not a checkpoint: " + file);
+            }
+            if(header.getInt(8) != VERSION || header.getInt(12) != COLUMNS)
+            {
+                throw new InputMismatchException("Unsupported checkpoint version " + header.getInt(8));
+            }
+            long count = header.getLong(16);
+            if(count < 0 || count > Integer.MAX_VALUE || HEADER_BYTES + COLUMNS*8*count + 8 > size
+                    || size - HEADER_BYTES - COLUMNS*8*count > Integer.MAX_VALUE)
+            {
+                throw new InputMismatchException("Truncated checkpoint: " + file);
+            }
+            int n = (int)count;
+
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.time = header.getDouble(24);
+            checkpoint.step = header.getLong(32);
+            checkpoint.timeStep = header.getDouble(40);
+            checkpoint.seed = header.getLong(48);
+            checkpoint.frameCount = header.getLong(56);
+            checkpoint.trajectoryBytes = header.getLong(64);
+
+            checkpoint.particles = new ParticleStore(n);
+            checkpoint.particles.n = n;
+            long position = HEADER_BYTES;
+            for(double[] column : columnsOf(checkpoint.particles))
+            {
+                position = BinarySnapshot.readColumn(channel, header, column, n, position);
+            }
+
+            ByteBuffer tail = ByteBuffer.allocate((int)(size - position)).order(ByteOrder.LITTLE_ENDIAN);
+            BinarySnapshot.readFully(channel, tail, position);
+            tail.flip();
+            try
+            {
+                byte[] name = new byte[tail.getInt()];
+                tail.get(name);
+                checkpoint.integrator = new String(name, StandardCharsets.UTF_8);
+                checkpoint.integratorState = new byte[tail.getInt()];
+                tail.get(checkpoint.integratorState);
+                checkpoint.engineState = new byte[tail.getInt()];
+                tail.get(checkpoint.engineState);
+                int baselineCount = tail.getInt();
+                if(baselineCount > tail.remaining()/8)
+                {
+                    throw new BufferUnderflowException();
+                }
+                if(baselineCount > 0)
+                {
+                    checkpoint.baseline = new double[baselineCount];
+                    for(int k = 0; k < baselineCount; k++)
+                    {
+                        checkpoint.baseline[k] = tail.getDouble();
+                    }
+                }
+            }
+            catch(BufferUnderflowException | NegativeArraySizeException e)
+            {
+                throw new InputMismatchException("Truncated checkpoint: " + file);
+            }
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Restores the saved states of the given integrator and engine.
+     *
+     * @param target: the integrator, which must be of the kind named in the checkpoint
+     * @param engine: the engine, whose state is only restored if the checkpoint holds one
+     * @throws IOException: if a state cannot be read
+     */
+    public void restore(Integrator target, ForceEngine engine) throws IOException
+    {
+        target.loadState(new DataInputStream(new ByteArrayInputStream(integratorState)), particles);
+        if(engineState.length > 0)
+        {
+            engine.loadState(new DataInputStream(new ByteArrayInputStream(engineState)), particles);
+        }
+    }
+
+    //Returns the arrays of the store in the order of the columns of a checkpoint
+    private static double[][] columnsOf(ParticleStore particles)
+    {
+        return new double[][] {particles.x, particles.y, particles.z, particles.vx, particles.vy, particles.vz,
+                particles.mass, particles.ax, particles.ay, particles.az};
+    }
+}
@@ -0,0 +1,247 @@
+package numericalmethods;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The CheckpointWriter class writes checkpoints of a run on a separate thread, so that the simulation only pauses for
+ * as long as it takes to copy its state. Two checkpoint buffers are kept. The simulation thread copies the bodies and
+ * the integrator and engine states into a free buffer and queues it; the writer thread writes the queued buffer to disk
+ * and then frees it. While one buffer is being written, the other can be filled, so the simulation only waits if it
+ * asks for a new checkpoint while both buffers are still busy.
+ *
+ * An error on the writer thread is reported by the next call to submit() or close().
+ *
+ */
+public class CheckpointWriter
+{
+    //file is the checkpoint file
+    public final File file;
+
+    //ready holds the buffers waiting to be written, and free holds the buffers that can be filled
+    private final ArrayBlockingQueue<Buffer> ready = new ArrayBlockingQueue<>(3);
+    private final ArrayBlockingQueue<Buffer> free = new ArrayBlockingQueue<>(2);
+
+    //END is the buffer placed in the queue by close() to tell the writer thread to stop
+    private static final Buffer END = new Buffer();
+
+    //thread is the writer thread
+    private final Thread thread;
+
+    //error is the first error met by the writer thread, or null if there has been none
+    private volatile IOException error;
+
+    //written is the number of checkpoints written so far
+    private volatile long written;
+
+    //copyBuffer is the buffer through which the writer thread copies the columns of each checkpoint to the file
+    private final ByteBuffer copyBuffer = BinarySnapshot.createBuffer();
+
+    /**
+     * The Buffer class holds a copy of the state of a run. Its arrays and byte stream are reused from one checkpoint to
+     * the next.
+     */
+    private static class Buffer
+    {
+        Checkpoint checkpoint = new Checkpoint();
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        ByteArrayOutputStream engineState = new ByteArrayOutputStream();
+
+        Buffer()
+        {
+            checkpoint.particles = new ParticleStore(1);
+        }
+    }
+
+    /**
+     * Creates a writer and starts its thread.
+     *
+     * @param file: the checkpoint file
+     */
+    public CheckpointWriter(File file)
+    {
+        this.file = file;
+        free.add(new Buffer());
+        free.add(new Buffer());
+
+        thread = new Thread(this::writeCheckpoints, "checkpoint-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Copies the state of a run into a free buffer and queues it to be written, waiting for a buffer to become free if
+     * both are busy.
+     *
+     * @param particles: the bodies in the system
+     * @param integrator: the integrator, whose state is saved
+     * @param integratorName: the name of the integrator, as in the settings
+     * @param engine: the force engine, whose state is saved
+     * @param baseline: the values from which SimulationMetrics measures drift, or null if there are no metrics
+     * @param time: the simulation time in seconds
+     * @param step: the number of time steps taken
+     * @param timeStep: the time step in seconds
+     * @param seed: the seed of the random bodies
+     * @param frameCount: the number of frames written to the output file
+     * @param trajectoryBytes: the length in bytes of the output file currently being written
+     * @throws IOException: if an earlier checkpoint could not be written, or the integrator or engine state cannot be
+     * saved
+     */
+    public void submit(ParticleStore particles, Integrator integrator, String integratorName, ForceEngine engine,
+            double[] baseline, double time, long step, double timeStep, long seed, long frameCount,
+            long trajectoryBytes) throws IOException
+    {
+        checkError();
+        Buffer buffer;
+        try
+        {
+            buffer = free.take();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to write a checkpoint", e);
+        }
+
+        Checkpoint checkpoint = buffer.checkpoint;
+        copy(particles, checkpoint.particles);
+        checkpoint.time = time;
+        checkpoint.step = step;
+        checkpoint.timeStep = timeStep;
+        checkpoint.seed = seed;
+        checkpoint.frameCount = frameCount;
+        checkpoint.trajectoryBytes = trajectoryBytes;
+        checkpoint.integrator = integratorName;
+        buffer.state.reset();
+        DataOutputStream stateOut = new DataOutputStream(buffer.state);
+        integrator.saveState(stateOut);
+        stateOut.flush();
+        checkpoint.integratorState = buffer.state.toByteArray();
+        buffer.engineState.reset();
+        DataOutputStream engineOut = new DataOutputStream(buffer.engineState);
+        engine.saveState(engineOut);
+        engineOut.flush();
+        checkpoint.engineState = buffer.engineState.toByteArray();
+        checkpoint.baseline = baseline == null ? null : baseline.clone();
+
+        ready.add(buffer);
+    }
+
+    /**
+     * Waits for the queued checkpoints to be written, so that the checkpoint file holds the last one submitted.
+     *
+     * @throws IOException: if a checkpoint could not be written
+     */
+    public void flush() throws IOException
+    {
+        //Both buffers are free once the writer thread has written every queued buffer
+        try
+        {
+            Buffer first = free.take();
+            Buffer second = free.take();
+            free.add(first);
+            free.add(second);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for checkpoints to be written", e);
+        }
+        checkError();
+    }
+
+    //Returns the number of checkpoints written so far
+    public long getWrittenCount()
+    {
+        return written;
+    }
+
+    /**
+     * Waits for the queued checkpoints to be written and stops the writer thread.
+     *
+     * @throws IOException: if a checkpoint could not be written
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            ready.put(END);
+            thread.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for checkpoints to be written", e);
+        }
+        checkError();
+    }
+
+    //Throws the error met by the writer thread, if there has been one
+    private void checkError() throws IOException
+    {
+        if(error != null)
+        {
+            throw new IOException("Could not write checkpoint " + file + ": " + error.getMessage(), error);
+        }
+    }
+
+    //Writes each queued buffer and then returns it to the free buffers, until close() is called
+    private void writeCheckpoints()
+    {
+        try
+        {
+            while(true)
+            {
+                Buffer buffer = ready.take();
+                if(buffer == END)
+                {
+                    return;
+                }
+                if(error == null)
+                {
+                    try
+                    {
+                        buffer.checkpoint.write(file, copyBuffer);
+                        written++;
+                    }
+                    catch(IOException e)
+                    {
+                        error = e;
+                    }
+                }
+                free.add(buffer);
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copies the positions, velocities, masses, and accelerations of the bodies into another store, growing it if it
+     * is too small.
+     *
+     * @param from: the store to be copied
+     * @param to: the store into which the bodies are copied
+     */
+    private static void copy(ParticleStore from, ParticleStore to)
+    {
+        int n = from.n;
+        to.ensureCapacity(n);
+        System.arraycopy(from.x, 0, to.x, 0, n);
+        System.arraycopy(from.y, 0, to.y, 0, n);
+        System.arraycopy(from.z, 0, to.z, 0, n);
+        System.arraycopy(from.vx, 0, to.vx, 0, n);
+        System.arraycopy(from.vy, 0, to.vy, 0, n);
+        System.arraycopy(from.vz, 0, to.vz, 0, n);
+        System.arraycopy(from.mass, 0, to.mass, 0, n);
+        System.arraycopy(from.ax, 0, to.ax, 0, n);
+        System.arraycopy(from.ay, 0, to.ay, 0, n);
+        System.arraycopy(from.az, 0, to.az, 0, n);
+        to.n = n;
+    }
+}
@@ -0,0 +1,201 @@
+package numericalmethods;
+import java.util.Arrays;
+
+/**
+ * The CollisionDetector class finds bodies that have collided during a time step and merges them. Two bodies collide
+ * when the distance between them is no more than the collision radius. A radius of 0 only merges bodies that occupy
+ * exactly the same position.
+ *
+ * Candidate pairs are found with a spatial hash. Space is divided into cubical cells whose side length is the collision
+ * radius, and each body is placed in the cell containing it, so a body can only collide with bodies in its own cell or
+ * the 26 cells around it. The occupied cells are kept in an open-addressing hash table, which needs memory in
+ * proportion to the number of bodies no matter how spread out they are. Finding collisions therefore takes time in
+ * proportion to the number of bodies rather than its square. Cells are counted from the corner of the box bounding the
+ * system and are never smaller than 1/MAX_CELLS of its longest side, so a radius of 0 or one far smaller than the
+ * system cannot push the cell coordinates past the range of a long.
+ *
+ * Colliding bodies are merged through Body.conserveMomentum(), so the lower-numbered body of each pair absorbs the mass
+ * and momentum of the other and moves to their center of mass. The absorbed bodies are then compacted out of the
+ * ParticleStore, so that later steps do not keep paying for them.
+ *
+ */
+public class CollisionDetector
+{
+    //MAX_CELLS is the most cells of the spatial hash along the longest side of the box bounding the system
+    public static final double MAX_CELLS = 0x1p40;
+
+    //radius is the collision radius in meters
+    public final double radius;
+
+    //cellX, cellY, and cellZ hold the cell coordinates of each body
+    private long[] cellX = new long[0], cellY = new long[0], cellZ = new long[0];
+
+    //nextInCell links the bodies that share a cell; it holds -1 at the end of each list
+    private int[] nextInCell = new int[0];
+
+    //slotHead holds the first body of the cell stored in each slot of the hash table, or -1 for an empty slot
+    private int[] slotHead = new int[0];
+
+    //absorbed marks the bodies that have been merged into another body during the current pass
+    private boolean[] absorbed = new boolean[0];
+
+    /**
+     * Creates a detector with the given collision radius.
+     *
+     * @param radius: the distance in meters at or below which two bodies collide
+     */
+    public CollisionDetector(double radius)
+    {
+        this.radius = radius;
+    }
+
+    /**
+     * Finds every pair of colliding bodies, merges them, and removes the absorbed bodies from the store.
+     *
+     * @param particles: the bodies in the system
+     * @return: the number of bodies that were absorbed
+     */
+    public int resolve(ParticleStore particles)
+    {
+        int n = particles.n;
+        if(n < 2)
+        {
+            return 0;
+        }
+        buildHash(particles);
+
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double radiusSquared = radius*radius;
+        int merged = 0;
+
+        for(int i = 0; i < n; i++)
+        {
+            if(absorbed[i])
+            {
+                continue;
+            }
+
+            //The cell of body i and the 26 cells around it are searched for bodies within the collision radius
+            for(long dx = -1; dx <= 1; dx++)
+            {
+                for(long dy = -1; dy <= 1; dy++)
+                {
+                    for(long dz = -1; dz <= 1; dz++)
+                    {
+                        int slot = findSlot(cellX[i] + dx, cellY[i] + dy, cellZ[i] + dz);
+                        for(int j = slotHead[slot]; j >= 0; j = nextInCell[j])
+                        {
+                            if(j <= i || absorbed[j])
+                            {
+                                continue;
+                            }
+                            double rx = x[j] - x[i];
+                            double ry = y[j] - y[i];
+                            double rz = z[j] - z[i];
+                            if(rx*rx + ry*ry + rz*rz <= radiusSquared)
+                            {
+                                //Applies conservation of linear momentum, using Body objects holding copies of the
+                                //two masses
+                                Body currentBody = particles.getBody(i);
+                                Body otherBody = particles.getBody(j);
+                                currentBody.conserveMomentum(otherBody);
+                                particles.setBody(i, currentBody);
+                                particles.setBody(j, otherBody);
+                                absorbed[j] = true;
+                                merged++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if(merged > 0)
+        {
+            particles.compact(absorbed);
+        }
+        return merged;
+    }
+
+    /**
+     * Places every body in the cell of the spatial hash that contains it.
+     *
+     * @param particles: the bodies in the system
+     */
+    private void buildHash(ParticleStore particles)
+    {
+        int n = particles.n;
+        if(cellX.length < n)
+        {
+            cellX = new long[n];
+            cellY = new long[n];
+            cellZ = new long[n];
+            nextInCell = new int[n];
+            absorbed = new boolean[n];
+        }
+
+        //The table has at least twice as many slots as there are bodies, so that searches stay short
+        int slots = Integer.highestOneBit(Math.max(2*n - 1, 1)) << 1;
+        if(slotHead.length != slots)
+        {
+            slotHead = new int[slots];
+        }
+        Arrays.fill(slotHead, -1);
+        Arrays.fill(absorbed, 0, n, false);
+
+        //The cells are counted from the corner of the box bounding the system, origin, and have a side of cellSize
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double originX = x[0], originY = y[0], originZ = z[0];
+        double maxX = x[0], maxY = y[0], maxZ = z[0];
+        for(int i = 1; i < n; i++)
+        {
+            originX = Math.min(originX, x[i]);
+            originY = Math.min(originY, y[i]);
+            originZ = Math.min(originZ, z[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+            maxZ = Math.max(maxZ, z[i]);
+        }
+        double side = Math.max(maxX - originX, Math.max(maxY - originY, maxZ - originZ));
+        double cellSize = Math.max(radius, side/MAX_CELLS);
+        if(!(cellSize > 0))
+        {
+            //Every body is at the same position, or the radius and box are both 0, so one cell holds them all
+            cellSize = 1;
+        }
+
+        for(int i = 0; i < n; i++)
+        {
+            cellX[i] = (long)Math.floor((x[i] - originX)/cellSize);
+            cellY[i] = (long)Math.floor((y[i] - originY)/cellSize);
+            cellZ[i] = (long)Math.floor((z[i] - originZ)/cellSize);
+
+            int slot = findSlot(cellX[i], cellY[i], cellZ[i]);
+            nextInCell[i] = slotHead[slot];
+            slotHead[slot] = i;
+        }
+    }
+
+    /**
+     * Finds the slot of the hash table holding the given cell, or the empty slot where it would be stored. Slots are
+     * probed one after another from the hash of the cell coordinates.
+     *
+     * @return: the index of the slot
+     */
+    private int findSlot(long cx, long cy, long cz)
+    {
+        int mask = slotHead.length - 1;
+        long hash = cx*0x9E3779B97F4A7C15L + cy*0xC2B2AE3D27D4EB4FL + cz*0x165667B19E3779F9L;
+        int slot = (int)(hash ^ (hash >>> 29)) & mask;
+
+        while(true)
+        {
+            int head = slotHead[slot];
+            if(head < 0 || (cellX[head] == cx && cellY[head] == cy && cellZ[head] == cz))
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package numericalmethods;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The CommandLine class runs simulations named on the command line without prompting, so that runs and parameter
+ * sweeps can be scripted. Its arguments are:
+ *
+ *     [control file...] [--control file] [--engine name] [--threads count] [--seed seed] [--format text|binary]
+ *     [--resume checkpoint] [--set key=value] [--jobs count]
+ *
+ * Each control file names one simulation. --engine, --threads, --seed, --format, and --resume replace the setting of
+ * the same name in every control file, and --set replaces any other setting. When several control files are given, up to
+ * --jobs simulations run at once, each on its own thread (by default, one per processor).
+ *
+ * The exit status is 0 if every simulation finished, 1 if any simulation failed, and 2 if the arguments are invalid.
+ *
+ */
+public class CommandLine
+{
+    //USAGE is the message printed when the arguments are invalid
+    public static final String USAGE = "Usage: Nbody [control file...] [--control file] [--engine "
+            + String.join("|", Settings.ENGINES) + "] [--threads count] [--seed seed] [--format text|binary]"
+            + " [--resume checkpoint] [--set key=value] [--jobs count]";
+
+    //controlFiles holds the control file of each simulation, in the order given
+    public List<File> controlFiles = new ArrayList<>();
+
+    //overrides holds the settings given on the command line, keyed by setting name, which replace those of every
+    //control file
+    public Map<String, String> overrides = new LinkedHashMap<>();
+
+    //jobs is the number of simulations run at once, or 0 to run one per processor
+    public int jobs;
+
+    /**
+     * Reads the command-line arguments.
+     *
+     * @param args: the command-line arguments
+     * @return: a CommandLine holding the control files, overrides, and job count
+     * @throws InputMismatchException: if an argument is not recognized, lacks a value, or has an invalid value
+     */
+    public static CommandLine parse(String[] args)
+    {
+        CommandLine commandLine = new CommandLine();
+        for(int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if(!arg.startsWith("--"))
+            {
+                commandLine.controlFiles.add(new File(arg));
+                continue;
+            }
+            if(i + 1 == args.length)
+            {
+                throw new InputMismatchException("Missing value for " + arg);
+            }
+            String value = args[++i];
+
+            switch(arg)
+            {
+                case "--control":
+                    commandLine.controlFiles.add(new File(value));
+                    break;
+                case "--engine":
+                case "--threads":
+                case "--seed":
+                case "--format":
+                case "--resume":
+                    commandLine.overrides.put(arg.substring(2), value);
+                    break;
+                case "--set":
+                    int equals = value.indexOf('=');
+                    if(equals <= 0)
+                    {
+                        throw new InputMismatchException("Expected key=value after --set: " + value);
+                    }
+                    commandLine.overrides.put(value.substring(0, equals), value.substring(equals + 1));
+                    break;
+                case "--jobs":
+                    try
+                    {
+                        commandLine.jobs = Integer.parseInt(value);
+                    }
+                    catch(NumberFormatException e)
+                    {
+                        throw new InputMismatchException("Invalid value for --jobs: " + value);
+                    }
+                    if(commandLine.jobs < 0)
+                    {
+                        throw new InputMismatchException("--jobs must not be negative: " + value);
+                    }
+                    break;
+                default:
+                    throw new InputMismatchException("Unknown option: " + arg);
+            }
+        }
+
+        if(commandLine.controlFiles.isEmpty())
+        {
+            throw new InputMismatchException("No control file given");
+        }
+
+        //The overrides are checked once here, so that a mistake is reported before any simulation starts
+        Settings check = new Settings();
+        for(Map.Entry<String, String> override : commandLine.overrides.entrySet())
+        {
+            check.set(override.getKey(), override.getValue());
+        }
+        return commandLine;
+    }
+
+    /**
+     * Reads the command-line arguments and runs every simulation they name.
+     *
+     * @param args: the command-line arguments
+     * @return: the exit status
+     */
+    public static int run(String[] args)
+    {
+        CommandLine commandLine;
+        try
+        {
+            commandLine = parse(args);
+        }
+        catch(InputMismatchException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        return commandLine.run();
+    }
+
+    /**
+     * Runs every simulation, up to jobs of them at once, and reports any that fail.
+     *
+     * @return: 0 if every simulation finished, or 1 if any failed
+     */
+    public int run()
+    {
+        if(controlFiles.size() == 1)
+        {
+            return runOne(controlFiles.get(0), "") ? 0 : 1;
+        }
+
+        int threads = jobs == 0 ? Runtime.getRuntime().availableProcessors() : jobs;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, controlFiles.size()));
+        List<Future<Boolean>> results = new ArrayList<>();
+        for(File controlFile : controlFiles)
+        {
+            results.add(executor.submit(() -> runOne(controlFile, controlFile.getName() + ": ")));
+        }
+
+        int failures = 0;
+        try
+        {
+            for(Future<Boolean> result : results)
+            {
+                if(!result.get())
+                {
+                    failures++;
+                }
+            }
+        }
+        catch(InterruptedException | ExecutionException e)
+        {
+            System.err.println("Simulations were interrupted: " + e);
+            failures++;
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        if(failures > 0)
+        {
+            System.err.println(failures + " of " + controlFiles.size() + " simulations failed");
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the simulation named by one control file and reports any error.
+     *
+     * @param controlFile: the control file
+     * @param label: the text printed before each message of the simulation
+     * @return: true if the simulation finished, or false if it failed
+     */
+    private boolean runOne(File controlFile, String label)
+    {
+        Nbody nbody = null;
+        try
+        {
+            nbody = new Nbody(controlFile, overrides);
+            nbody.label = label;
+            nbody.run();
+            return true;
+        }
+        catch(IOException e)
+        {
+            System.err.println(label + "File i/o error: " + e.getMessage());
+        }
+        catch(InputMismatchException e)
+        {
+            System.err.println(label + "Invalid input in " + controlFile + ": " + e.getMessage());
+        }
+        catch(ArithmeticException e)
+        {
+            System.err.println(label + "Simulation halted: " + e.getMessage());
+        }
+        catch(RuntimeException e)
+        {
+            System.err.println(label + "Simulation failed: " + e);
+        }
+        finally
+        {
+            if(nbody != null)
+            {
+                nbody.shutdown();
+            }
+        }
+        return false;
+    }
+}
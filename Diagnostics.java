@@ -0,0 +1,142 @@
+package numericalmethods;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The Diagnostics class finds conserved quantities of a system, which are used to judge the accuracy of a run. In an
+ * isolated system without collisions, the total energy and linear momentum stay constant, so any change in them over a
+ * run is error introduced by the integrator and force engine.
+ *
+ */
+public final class Diagnostics
+{
+    private Diagnostics()
+    {
+    }
+
+    /**
+     * Finds the total energy of the system, the sum of the kinetic energy of every body and the gravitational potential
+     * energy of every pair of bodies. This sums over every pair, so it takes time in proportion to the square of the
+     * number of bodies.
+     *
+     * @param particles: the bodies in the system
+     * @return: the total energy in joules
+     */
+    public static double energy(ParticleStore particles)
+    {
+        return energy(particles, null);
+    }
+
+    /**
+     * Finds the total energy of the system as above, dividing the bodies among the threads of the given pool. The
+     * energy of each body and its pairs with higher-numbered bodies is found separately and the results are added in
+     * order, so the total is the same for any number of threads.
+     *
+     * @param particles: the bodies in the system
+     * @param pool: the ForkJoinPool on which to run, or null to run on the calling thread
+     * @return: the total energy in joules
+     */
+    public static double energy(ParticleStore particles, ForkJoinPool pool)
+    {
+        return energy(particles, Softening.NONE, pool);
+    }
+
+    /**
+     * Finds the total energy of the system as above, with the potential energy of each pair found from the softened
+     * potential of which the force of a softened run is the gradient, so that the energy of such a run is conserved.
+     *
+     * @param particles: the bodies in the system
+     * @param softening: the softening of the force
+     * @param pool: the ForkJoinPool on which to run, or null to run on the calling thread
+     * @return: the total energy in joules
+     */
+    public static double energy(ParticleStore particles, Softening softening, ForkJoinPool pool)
+    {
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double[] vx = particles.vx, vy = particles.vy, vz = particles.vz;
+        double[] mass = particles.mass;
+        int n = particles.n;
+        double[] rows = new double[n];
+
+        ParallelRange.forEach(pool, n, (from, to) ->
+        {
+            for(int i = from; i < to; i++)
+            {
+                double pairs = 0;
+                for(int j = i + 1; j < n; j++)
+                {
+                    double dx = x[j] - x[i];
+                    double dy = y[j] - y[i];
+                    double dz = z[j] - z[i];
+                    pairs += mass[j]*softening.inverseDistance(dx*dx + dy*dy + dz*dz);
+                }
+                rows[i] = 0.5*mass[i]*(vx[i]*vx[i] + vy[i]*vy[i] + vz[i]*vz[i])
+                        - Nbody.GRAVITATIONAL_CONSTANT*mass[i]*pairs;
+            }
+        });
+
+        double total = 0;
+        for(int i = 0; i < n; i++)
+        {
+            total += rows[i];
+        }
+        return total;
+    }
+
+    /**
+     * Finds the total linear momentum of the system.
+     *
+     * @param particles: the bodies in the system
+     * @param result: an array of length 3 into which the components of the momentum are written, in kg*m/s
+     * @return: the result array
+     */
+    public static double[] momentum(ParticleStore particles, double[] result)
+    {
+        double px = 0, py = 0, pz = 0;
+        for(int i = 0; i < particles.n; i++)
+        {
+            px += particles.mass[i]*particles.vx[i];
+            py += particles.mass[i]*particles.vy[i];
+            pz += particles.mass[i]*particles.vz[i];
+        }
+        result[0] = px;
+        result[1] = py;
+        result[2] = pz;
+        return result;
+    }
+
+    /**
+     * Finds the greatest distance of any body from the center of mass of the system, which grows without bound when
+     * bodies escape.
+     *
+     * @param particles: the bodies in the system
+     * @return: the distance in meters
+     */
+    public static double maxRadius(ParticleStore particles)
+    {
+        double total = 0, cx = 0, cy = 0, cz = 0;
+        for(int i = 0; i < particles.n; i++)
+        {
+            total += particles.mass[i];
+            cx += particles.mass[i]*particles.x[i];
+            cy += particles.mass[i]*particles.y[i];
+            cz += particles.mass[i]*particles.z[i];
+        }
+        if(total == 0)
+        {
+            return 0;
+        }
+        cx /= total;
+        cy /= total;
+        cz /= total;
+
+        double max = 0;
+        for(int i = 0; i < particles.n; i++)
+        {
+            double dx = particles.x[i] - cx;
+            double dy = particles.y[i] - cy;
+            double dz = particles.z[i] - cz;
+            max = Math.max(max, dx*dx + dy*dy + dz*dz);
+        }
+        return Math.sqrt(max);
+    }
+}
@@ -0,0 +1,292 @@
+package numericalmethods;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The DirectSum class is a ForceEngine that finds the acceleration of each body by summing the gravitational
+ * acceleration due to every other body in the system. It is exact up to rounding error, but its cost grows with the
+ * square of the number of bodies. The pairwise sums are done by the GravityKernel, so a step creates no objects.
+ *
+ * If a ForkJoinPool is given, blocks of bodies are summed in parallel. The sum for each body always runs over the other
+ * bodies in the same order, so the accelerations are bitwise identical for any number of threads.
+ *
+ * In symmetric mode, each pair of bodies is evaluated only once and equal and opposite contributions are applied to
+ * both bodies, following Newton's third law. This roughly halves the work of a step. When running in parallel, the
+ * rows of pairs are dealt out to one part per thread, each part accumulates into its own buffers, and the buffers are
+ * then added together in a fixed order, so the results are bitwise reproducible for a given number of threads.
+ *
+ * Either mode can use the SIMD VectorKernel instead of the scalar GravityKernel, which evaluates a tile of bodies at
+ * once in the lanes of a vector register. The vector kernel adds the terms of each sum in a different order, so its
+ * results differ from those of the scalar kernel by rounding error, but they are still reproducible in the same way.
+ *
+ * The force between each pair of bodies may be softened (see Softening), which keeps close encounters finite.
+ *
+ */
+public class DirectSum implements ForceEngine
+{
+    //pool is the ForkJoinPool on which blocks of bodies are summed, or null if the engine runs on the calling thread
+    private final ForkJoinPool pool;
+
+    //symmetric is true if each pair of bodies should be evaluated once for both bodies
+    private final boolean symmetric;
+
+    //vector is true if the pairs are evaluated by the VectorKernel, and rsqrt is true if that kernel should find
+    //inverse distances by Newton-Raphson refinement rather than a square root
+    private final boolean vector, rsqrt;
+
+    //softening is the softening of the force between each pair of bodies
+    private final Softening softening;
+
+    //sum is a vector reused to accumulate the acceleration of each body when running on the calling thread
+    private final double[] sum = new double[3];
+
+    //bufferX, bufferY, and bufferZ hold the accelerations accumulated by each part of a parallel symmetric sum
+    private double[][] bufferX, bufferY, bufferZ;
+
+    /**
+     * Creates a direct-sum engine that runs on the calling thread.
+     */
+    public DirectSum()
+    {
+        this(null, false);
+    }
+
+    /**
+     * Creates a direct-sum engine that sums blocks of bodies on the given pool.
+     *
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     */
+    public DirectSum(ForkJoinPool pool)
+    {
+        this(pool, false);
+    }
+
+    /**
+     * Creates a direct-sum engine that sums on the given pool and may evaluate each pair only once.
+     *
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     * @param symmetric: true if each pair should be evaluated once and applied to both bodies
+     */
+    public DirectSum(ForkJoinPool pool, boolean symmetric)
+    {
+        this(pool, symmetric, false, false);
+    }
+
+    /**
+     * Creates a direct-sum engine that may evaluate the pairs with the SIMD VectorKernel.
+     *
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     * @param symmetric: true if each pair should be evaluated once and applied to both bodies
+     * @param vector: true to use the VectorKernel, which requires GravityKernel.isVectorSupported() to be true
+     * @param rsqrt: true if the VectorKernel should find inverse distances by Newton-Raphson refinement
+     */
+    public DirectSum(ForkJoinPool pool, boolean symmetric, boolean vector, boolean rsqrt)
+    {
+        this(pool, symmetric, vector, rsqrt, Softening.NONE);
+    }
+
+    /**
+     * Creates a direct-sum engine that softens the force between each pair of bodies.
+     *
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     * @param symmetric: true if each pair should be evaluated once and applied to both bodies
+     * @param vector: true to use the VectorKernel, which requires GravityKernel.isVectorSupported() to be true
+     * @param rsqrt: true if the VectorKernel should find inverse distances by Newton-Raphson refinement
+     * @param softening: the softening of the force
+     */
+    public DirectSum(ForkJoinPool pool, boolean symmetric, boolean vector, boolean rsqrt, Softening softening)
+    {
+        this.pool = pool;
+        this.symmetric = symmetric;
+        this.vector = vector;
+        this.rsqrt = rsqrt;
+        this.softening = softening;
+    }
+
+    /**
+     * Sums the accelerations caused by the gravitational force of every other mass on each body.
+     *
+     * @param particles: the bodies in the system, whose accelerations are overwritten
+     */
+    public void computeAccelerations(ParticleStore particles)
+    {
+        int n = particles.n;
+
+        if(symmetric)
+        {
+            sumPairs(particles);
+        }
+        else if(pool == null)
+        {
+            sumRange(particles, 0, n, sum);
+        }
+        else
+        {
+            ParallelRange.forEach(pool, n, (from, to) -> sumRange(particles, from, to, new double[3]));
+        }
+    }
+
+    /**
+     * Finds the acceleration of the bodies with indices from through to - 1 due to every other body.
+     *
+     * @param particles: the bodies in the system
+     * @param from: the index of the first body to be accelerated
+     * @param to: one more than the index of the last body to be accelerated
+     * @param sum: a vector used to accumulate the acceleration of each body
+     */
+    private void sumRange(ParticleStore particles, int from, int to, double[] sum)
+    {
+        int n = particles.n;
+
+        for(int i = from; i < to; i++)
+        {
+            sum[0] = 0;
+            sum[1] = 0;
+            sum[2] = 0;
+
+            if(vector)
+            {
+                VectorKernel.accumulate(particles, i, 0, n, rsqrt, softening, sum);
+            }
+            else
+            {
+                GravityKernel.accumulate(particles, i, 0, n, softening, sum);
+            }
+
+            particles.ax[i] = sum[0];
+            particles.ay[i] = sum[1];
+            particles.az[i] = sum[2];
+        }
+    }
+
+    /**
+     * Finds the acceleration of every body by evaluating each pair of bodies once. On the calling thread, the pairs are
+     * accumulated straight into the accelerations of the store. In parallel, each part accumulates into its own
+     * buffers, which are then added together in order of part.
+     *
+     * @param particles: the bodies in the system, whose accelerations are overwritten
+     */
+    private void sumPairs(ParticleStore particles)
+    {
+        int n = particles.n;
+
+        if(pool == null || pool.getParallelism() == 1)
+        {
+            Arrays.fill(particles.ax, 0, n, 0);
+            Arrays.fill(particles.ay, 0, n, 0);
+            Arrays.fill(particles.az, 0, n, 0);
+            sumPairRows(particles, 0, 1, particles.ax, particles.ay, particles.az);
+            return;
+        }
+
+        int parts = pool.getParallelism();
+        if(bufferX == null || bufferX.length != parts || bufferX[0].length < n)
+        {
+            bufferX = new double[parts][n];
+            bufferY = new double[parts][n];
+            bufferZ = new double[parts][n];
+        }
+
+        ParallelRange.forEachPart(pool, parts, (part, end) ->
+        {
+            Arrays.fill(bufferX[part], 0, n, 0);
+            Arrays.fill(bufferY[part], 0, n, 0);
+            Arrays.fill(bufferZ[part], 0, n, 0);
+            sumPairRows(particles, part, parts, bufferX[part], bufferY[part], bufferZ[part]);
+        });
+
+        //The buffers of the parts are added together for each body, always in order of part
+        ParallelRange.forEach(pool, n, (from, to) ->
+        {
+            for(int i = from; i < to; i++)
+            {
+                double axi = 0, ayi = 0, azi = 0;
+                for(int part = 0; part < parts; part++)
+                {
+                    axi += bufferX[part][i];
+                    ayi += bufferY[part][i];
+                    azi += bufferZ[part][i];
+                }
+                particles.ax[i] = axi;
+                particles.ay[i] = ayi;
+                particles.az[i] = azi;
+            }
+        });
+    }
+
+    /**
+     * Evaluates the pairs (i, j) with j greater than i for every row i = part, part + parts, part + 2*parts, and so on.
+     * Dealing the rows out in this way gives every part a similar number of pairs even though later rows are shorter.
+     *
+     * @param particles: the bodies in the system
+     * @param part: the first row evaluated
+     * @param parts: the spacing between the rows evaluated
+     * @param sumX: the array to which the x component of each acceleration is added
+     * @param sumY: the array to which the y component of each acceleration is added
+     * @param sumZ: the array to which the z component of each acceleration is added
+     */
+    private void sumPairRows(ParticleStore particles, int part, int parts, double[] sumX, double[] sumY,
+            double[] sumZ)
+    {
+        if(vector)
+        {
+            for(int i = part; i < particles.n; i += parts)
+            {
+                VectorKernel.accumulatePairs(particles, i, rsqrt, softening, sumX, sumY, sumZ);
+            }
+        }
+        else
+        {
+            sumScalarPairRows(particles, part, parts, sumX, sumY, sumZ);
+        }
+    }
+
+    /**
+     * Evaluates the rows of pairs dealt to one part, as sumPairRows() does, with the scalar kernel.
+     *
+     * @param particles: the bodies in the system
+     * @param part: the first row evaluated
+     * @param parts: the spacing between the rows evaluated
+     * @param sumX: the array to which the x component of each acceleration is added
+     * @param sumY: the array to which the y component of each acceleration is added
+     * @param sumZ: the array to which the z component of each acceleration is added
+     */
+    private void sumScalarPairRows(ParticleStore particles, int part, int parts, double[] sumX, double[] sumY,
+            double[] sumZ)
+    {
+        int n = particles.n;
+
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double[] mass = particles.mass;
+
+        for(int i = part; i < n; i += parts)
+        {
+            double xi = x[i], yi = y[i], zi = z[i];
+            double mi = mass[i];
+            double axi = 0, ayi = 0, azi = 0;
+
+            for(int j = i + 1; j < n; j++)
+            {
+                //dx, dy, and dz hold the position of body j with respect to body i, and factor holds G/(r^3)
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double dz = z[j] - zi;
+                double factor = softening.sharedFactor(dx*dx + dy*dy + dz*dz);
+
+                //Body i is pulled toward body j, and body j is pulled toward body i with an equal and opposite force
+                double factorI = mass[j]*factor;
+                double factorJ = mi*factor;
+                axi += dx*factorI;
+                ayi += dy*factorI;
+                azi += dz*factorI;
+                sumX[j] -= dx*factorJ;
+                sumY[j] -= dy*factorJ;
+                sumZ[j] -= dz*factorJ;
+            }
+
+            sumX[i] += axi;
+            sumY[i] += ayi;
+            sumZ[i] += azi;
+        }
+    }
+}
@@ -0,0 +1,645 @@
+package numericalmethods;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DistributedEngine class is a ForceEngine that spreads the work of each force evaluation over several worker
+ * processes (see DistributedWorker), connected over TCP. The bodies are split into one domain per worker by orthogonal
+ * recursive bisection: the bodies are cut in two along the longest side of their bounding box, at the point that gives
+ * each side a share of the estimated work in proportion to the number of workers it will hold, and each side is cut
+ * again until there is one domain per worker. Each worker builds a Barnes-Hut octree over its own domain and sends the
+ * coordinator the parts of it that the other domains need, their locally essential trees, which the coordinator
+ * passes on. Each worker then finds the accelerations of its own bodies and sends them back.
+ *
+ * The work of a body is estimated as the number of interactions evaluated by its worker at the last evaluation divided
+ * by the number of bodies of the worker. Every rebalanceEvery evaluations, the domains are cut again with these
+ * estimates, so the workers of dense regions get fewer bodies; in between, each body stays with its worker as it
+ * moves. The interaction counts do not depend on timing, so a run gives the same results every time. The domains, the
+ * work of each worker, and the number of evaluations since the last cut are saved in checkpoints, so a resumed run
+ * cuts its domains at the same evaluations, with the same weights, as a run that never stopped.
+ *
+ * With an opening angle of 0, every body is sent to every other worker and the accelerations are those of a direct
+ * sum, up to rounding. DistributedReport checks the results against the single-process engines.
+ *
+ * The workers are either started as processes on this machine, each listening on a free port of the loopback address
+ * and given a random token with which the coordinator must connect, or are already running at given addresses and
+ * expect the token of the run. The integrator and the rest of the simulation stay in the coordinator, which only
+ * sends the positions and masses of each domain at every evaluation.
+ *
+ * The engine spreads the computation of the forces, not the memory of the system: the coordinator holds every body,
+ * sends every domain its bodies at each evaluation, and relays every essential tree, so the number of bodies is still
+ * bounded by the memory of the coordinator, and all of the traffic passes through it.
+ *
+ */
+public class DistributedEngine implements ForceEngine, Closeable
+{
+    //links are the connections to the workers, and processes are the workers started on this machine, if any
+    private final SocketLink[] links;
+    private final Process[] processes;
+
+    //rebalanceEvery is the number of evaluations between cuts of the domains, or 0 to cut them only when the number of
+    //bodies changes
+    private final int rebalanceEvery;
+
+    //domainOf holds the domain of each body, and members lists the bodies of domain d from members[first[d]] through
+    //members[first[d + 1] - 1]
+    private int[] domainOf = new int[0], members = new int[0];
+    private final int[] first;
+
+    //work holds the number of interactions evaluated by each worker at the last evaluation, and weight holds the
+    //estimated work of each body while the domains are cut
+    private final long[] work;
+    private double[] weight = new double[0];
+
+    //evaluations is the number of evaluations since the domains were last cut, and assigned is the number of bodies
+    //when they were cut
+    private long evaluations;
+    private int assigned = -1;
+
+    //imports holds, for each domain, the essential trees sent by the other workers for its box
+    private final ParticleStore[] imports;
+
+    //boxes holds the minimum x, y, and z followed by the maximum x, y, and z of the bodies of each domain
+    private final double[] boxes;
+
+    /**
+     * Creates an engine that starts the given number of worker processes on this machine.
+     *
+     * @param workers: the number of workers
+     * @param theta: the opening angle of the octrees and essential trees
+     * @param softening: the softening of the force
+     * @param threads: the number of threads each worker uses
+     * @param rebalanceEvery: the number of evaluations between cuts of the domains, or 0 for none
+     * @throws UncheckedIOException: if a worker cannot be started or reached
+     */
+    public DistributedEngine(int workers, double theta, Softening softening, int threads, int rebalanceEvery)
+    {
+        this(startWorkers(workers), theta, softening, threads, rebalanceEvery);
+    }
+
+    /**
+     * Creates an engine that connects to workers already running at the given addresses.
+     *
+     * @param addresses: the addresses of the workers, each written as host:port
+     * @param token: the token the workers expect (see DistributedWorker)
+     * @param theta: the opening angle of the octrees and essential trees
+     * @param softening: the softening of the force
+     * @param threads: the number of threads each worker uses
+     * @param rebalanceEvery: the number of evaluations between cuts of the domains, or 0 for none
+     * @throws UncheckedIOException: if a worker cannot be reached
+     */
+    public DistributedEngine(String[] addresses, long token, double theta, Softening softening, int threads,
+            int rebalanceEvery)
+    {
+        this(new Workers(addresses, null, token), theta, softening, threads, rebalanceEvery);
+    }
+
+    //Connects to the given workers and sends each of them the parameters of the run
+    private DistributedEngine(Workers workers, double theta, Softening softening, int threads, int rebalanceEvery)
+    {
+        int count = workers.addresses.length;
+        processes = workers.processes;
+        links = new SocketLink[count];
+        this.rebalanceEvery = rebalanceEvery;
+        first = new int[count + 1];
+        work = new long[count];
+        imports = new ParticleStore[count];
+        boxes = new double[6*count];
+        try
+        {
+            for(int w = 0; w < count; w++)
+            {
+                String address = workers.addresses[w];
+                int colon = address.lastIndexOf(':');
+                links[w] = new SocketLink(SocketChannel.open(new InetSocketAddress(address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1)))));
+                links[w].writeLong(workers.token);
+                links[w].writeDouble(theta);
+                links[w].writeInt(softening.kernel.equals("spline") ? 1 : 0);
+                links[w].writeDouble(softening.length);
+                links[w].writeInt(threads);
+                links[w].flush();
+                try
+                {
+                    links[w].readInt();
+                }
+                catch(EOFException e)
+                {
+                    throw new IOException("the worker at " + address + " refused the token of the run", e);
+                }
+                imports[w] = new ParticleStore(1024);
+            }
+        }
+        catch(IOException | RuntimeException e)
+        {
+            close();
+            throw e instanceof IOException ? new UncheckedIOException("Could not reach a worker: " + e.getMessage(),
+                    (IOException)e) : (RuntimeException)e;
+        }
+    }
+
+    /**
+     * Starts the given number of worker processes on this machine, each with the class path and Java runtime of this
+     * one, listening on the loopback address for a new random token, and reads the port on which each one listens.
+     *
+     * @param count: the number of workers
+     * @return: the addresses of the workers and their processes
+     * @throws UncheckedIOException: if a worker cannot be started
+     */
+    private static Workers startWorkers(int count)
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process[] processes = new Process[count];
+        String[] addresses = new String[count];
+        long token = new SecureRandom().nextLong();
+        try
+        {
+            for(int w = 0; w < count; w++)
+            {
+                //The token is passed in the environment, which unlike the command line is private to the process
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        DistributedWorker.class.getName(), "0", "--once", "--local")
+                        .redirectError(ProcessBuilder.Redirect.INHERIT);
+                builder.environment().put(DistributedWorker.TOKEN_VARIABLE, Long.toString(token));
+                processes[w] = builder.start();
+                BufferedReader output = new BufferedReader(new InputStreamReader(processes[w].getInputStream()));
+                String line = output.readLine();
+                if(line == null || !line.startsWith(DistributedWorker.LISTENING))
+                {
+                    throw new IOException("Worker " + w + " did not start");
+                }
+                addresses[w] = InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                        + line.substring(DistributedWorker.LISTENING.length()).trim();
+            }
+        }
+        catch(IOException e)
+        {
+            for(Process process : processes)
+            {
+                if(process != null)
+                {
+                    process.destroy();
+                }
+            }
+            throw new UncheckedIOException("Could not start a worker: " + e.getMessage(), e);
+        }
+        return new Workers(addresses, processes, token);
+    }
+
+    /**
+     * Finds the acceleration of each body with the workers, cutting the domains again first if they are due.
+     *
+     * @param particles: the bodies in the system, whose accelerations are overwritten
+     * @throws UncheckedIOException: if a worker fails
+     */
+    public void computeAccelerations(ParticleStore particles)
+    {
+        if(particles.n != assigned || (rebalanceEvery > 0 && evaluations == rebalanceEvery))
+        {
+            decompose(particles);
+        }
+        evaluations++;
+
+        try
+        {
+            exchange(particles);
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException("A worker failed: " + e.getMessage(), e);
+        }
+    }
+
+    //Returns the number of interactions evaluated by all of the workers at the last evaluation
+    public long interactionCount(ParticleStore particles)
+    {
+        long total = 0;
+        for(long count : work)
+        {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Runs one evaluation: each worker is sent its bodies, the essential trees of the workers are passed on, and the
+     * accelerations are collected. Every worker is sent its message before any reply is read, so the workers run at
+     * the same time.
+     *
+     * @param particles: the bodies in the system, whose accelerations are overwritten
+     * @throws IOException: if a worker fails
+     */
+    private void exchange(ParticleStore particles) throws IOException
+    {
+        int domains = links.length;
+        findBoxes(particles);
+
+        for(int d = 0; d < domains; d++)
+        {
+            SocketLink link = links[d];
+            link.writeInt(DistributedWorker.STEP);
+            link.writeInt(d);
+            link.writeInt(domains);
+            link.writeDoubles(boxes, 0, boxes.length);
+            link.writeInt(first[d + 1] - first[d]);
+            for(double[] column : new double[][] {particles.x, particles.y, particles.z, particles.mass})
+            {
+                for(int k = first[d]; k < first[d + 1]; k++)
+                {
+                    link.writeDouble(column[members[k]]);
+                }
+            }
+            link.flush();
+            imports[d].n = 0;
+        }
+
+        //The essential trees are gathered in order of sending worker, so each worker always receives them in the same
+        //order
+        for(int d = 0; d < domains; d++)
+        {
+            for(int other = 0; other < domains; other++)
+            {
+                if(other != d)
+                {
+                    readBodies(links[d], imports[other]);
+                }
+            }
+        }
+        for(int d = 0; d < domains; d++)
+        {
+            DistributedWorker.writeBodies(links[d], imports[d], 0, imports[d].n);
+            links[d].flush();
+        }
+
+        for(int d = 0; d < domains; d++)
+        {
+            int from = first[d], count = first[d + 1] - first[d];
+            for(double[] column : new double[][] {particles.ax, particles.ay, particles.az})
+            {
+                for(int k = from; k < from + count; k++)
+                {
+                    column[members[k]] = links[d].readDouble();
+                }
+            }
+            work[d] = links[d].readLong();
+        }
+    }
+
+    /**
+     * Reads a number of bodies and their x, y, and z coordinates and masses, as written by
+     * DistributedWorker.writeBodies(), and appends them to a store.
+     *
+     * @param link: the connection from which the bodies are read
+     * @param bodies: the store to which they are appended
+     * @throws IOException: if the connection fails
+     */
+    private static void readBodies(SocketLink link, ParticleStore bodies) throws IOException
+    {
+        int count = link.readInt();
+        int from = bodies.n;
+        bodies.ensureCapacity(from + count);
+        link.readDoubles(bodies.x, from, count);
+        link.readDoubles(bodies.y, from, count);
+        link.readDoubles(bodies.z, from, count);
+        link.readDoubles(bodies.mass, from, count);
+        bodies.n = from + count;
+    }
+
+    //Finds the box bounding the bodies of each domain; an empty domain has a box whose minimum exceeds its maximum
+    private void findBoxes(ParticleStore particles)
+    {
+        for(int d = 0; d < links.length; d++)
+        {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+            for(int k = first[d]; k < first[d + 1]; k++)
+            {
+                int i = members[k];
+                minX = Math.min(minX, particles.x[i]);
+                minY = Math.min(minY, particles.y[i]);
+                minZ = Math.min(minZ, particles.z[i]);
+                maxX = Math.max(maxX, particles.x[i]);
+                maxY = Math.max(maxY, particles.y[i]);
+                maxZ = Math.max(maxZ, particles.z[i]);
+            }
+            boxes[6*d] = minX;
+            boxes[6*d + 1] = minY;
+            boxes[6*d + 2] = minZ;
+            boxes[6*d + 3] = maxX;
+            boxes[6*d + 4] = maxY;
+            boxes[6*d + 5] = maxZ;
+        }
+    }
+
+    /**
+     * Cuts the bodies into one domain per worker by orthogonal recursive bisection. If the number of bodies has not
+     * changed, each body is weighted by the work of its domain at the last evaluation; otherwise every body has the
+     * same weight.
+     *
+     * @param particles: the bodies in the system
+     */
+    private void decompose(ParticleStore particles)
+    {
+        int n = particles.n;
+        if(weight.length < n)
+        {
+            weight = new double[n];
+        }
+        boolean measured = n == assigned;
+        for(int i = 0; i < n; i++)
+        {
+            int d = measured ? domainOf[i] : 0;
+            weight[i] = measured && work[d] > 0 ? (double)work[d]/(first[d + 1] - first[d]) : 1;
+        }
+
+        if(members.length < n)
+        {
+            members = new int[n];
+            domainOf = new int[n];
+        }
+        for(int i = 0; i < n; i++)
+        {
+            members[i] = i;
+        }
+        bisect(particles, 0, n, 0, links.length);
+        for(int d = 0; d < links.length; d++)
+        {
+            for(int k = first[d]; k < first[d + 1]; k++)
+            {
+                domainOf[members[k]] = d;
+            }
+        }
+        assigned = n;
+        evaluations = 0;
+    }
+
+    /**
+     * Cuts the bodies members[from] through members[to - 1] into the given number of domains.
+     *
+     * @param particles: the bodies in the system
+     * @param from: the position in members of the first body
+     * @param to: one more than the position in members of the last body
+     * @param firstDomain: the index of the first domain
+     * @param domains: the number of domains
+     */
+    private void bisect(ParticleStore particles, int from, int to, int firstDomain, int domains)
+    {
+        if(domains == 1)
+        {
+            first[firstDomain] = from;
+            first[firstDomain + 1] = to;
+            return;
+        }
+
+        //The cut is made across the longest side of the bounding box
+        double[][] axes = {particles.x, particles.y, particles.z};
+        double[] coordinate = particles.x;
+        double low = 0, high = 0, longest = -1, total = 0;
+        for(double[] axis : axes)
+        {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for(int k = from; k < to; k++)
+            {
+                min = Math.min(min, axis[members[k]]);
+                max = Math.max(max, axis[members[k]]);
+            }
+            if(max - min > longest)
+            {
+                longest = max - min;
+                coordinate = axis;
+                low = min;
+                high = max;
+            }
+        }
+        for(int k = from; k < to; k++)
+        {
+            total += weight[members[k]];
+        }
+
+        //The position of the cut is found by bisection, as the lowest at which the weight below it reaches the share
+        //of the lower half of the domains
+        int lower = domains/2;
+        double target = total*lower/domains;
+        for(int iteration = 0; iteration < 64; iteration++)
+        {
+            double middle = 0.5*(low + high);
+            if(middle <= low || middle >= high)
+            {
+                break;
+            }
+            double below = 0;
+            for(int k = from; k < to; k++)
+            {
+                if(coordinate[members[k]] < middle)
+                {
+                    below += weight[members[k]];
+                }
+            }
+            if(below < target)
+            {
+                low = middle;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        //The bodies below the cut are moved to the front of the range, keeping the order of each side stable
+        int cut = partition(coordinate, from, to, high);
+        bisect(particles, from, cut, firstDomain, lower);
+        bisect(particles, cut, to, firstDomain + lower, domains - lower);
+    }
+
+    /**
+     * Moves the bodies of members[from] through members[to - 1] with a coordinate below the given value to the front
+     * of the range, keeping the bodies on each side in their order.
+     *
+     * @return: the position in members of the first body at or above the value
+     */
+    private int partition(double[] coordinate, int from, int to, double value)
+    {
+        int[] above = new int[to - from];
+        int cut = from, count = 0;
+        for(int k = from; k < to; k++)
+        {
+            int i = members[k];
+            if(coordinate[i] < value)
+            {
+                members[cut++] = i;
+            }
+            else
+            {
+                above[count++] = i;
+            }
+        }
+        System.arraycopy(above, 0, members, cut, count);
+        return cut;
+    }
+
+    /**
+     * Writes the domains, the work of each worker at the last evaluation, and the number of evaluations since the
+     * domains were cut.
+     *
+     * @param out: the output to which the state is written
+     * @throws IOException: if the state cannot be written
+     */
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeInt(links.length);
+        out.writeInt(assigned);
+        out.writeLong(evaluations);
+        for(int d = 0; d < links.length; d++)
+        {
+            out.writeLong(work[d]);
+            out.writeInt(first[d + 1]);
+        }
+        for(int k = 0; k < assigned; k++)
+        {
+            out.writeInt(members[k]);
+        }
+    }
+
+    /**
+     * Restores the state written by saveState().
+     *
+     * @param in: the input from which the state is read
+     * @param particles: the bodies restored from the same checkpoint
+     * @throws IOException: if the state cannot be read or was written by a run with a different number of workers
+     */
+    public void loadState(DataInput in, ParticleStore particles) throws IOException
+    {
+        int workers = in.readInt();
+        if(workers != links.length)
+        {
+            throw new IOException("The checkpoint was written with " + workers + " workers, not " + links.length);
+        }
+        int bodies = in.readInt();
+        if(bodies != -1 && bodies != particles.n)
+        {
+            throw new IOException("The domains of the checkpoint hold " + bodies + " bodies, not " + particles.n);
+        }
+        long count = in.readLong();
+        for(int d = 0; d < links.length; d++)
+        {
+            work[d] = in.readLong();
+            first[d + 1] = in.readInt();
+            if(first[d + 1] < first[d] || first[d + 1] > Math.max(bodies, 0))
+            {
+                throw new IOException("The domains of the checkpoint are out of order");
+            }
+        }
+        if(bodies > 0 && members.length < bodies)
+        {
+            members = new int[bodies];
+            domainOf = new int[bodies];
+        }
+        for(int k = 0; k < bodies; k++)
+        {
+            members[k] = in.readInt();
+            if(members[k] < 0 || members[k] >= bodies)
+            {
+                throw new IOException("The domains of the checkpoint hold a body out of range: " + members[k]);
+            }
+        }
+        for(int d = 0; d < links.length; d++)
+        {
+            for(int k = first[d]; k < first[d + 1]; k++)
+            {
+                domainOf[members[k]] = d;
+            }
+        }
+        assigned = bodies;
+        evaluations = count;
+    }
+
+    //Returns the number of bodies of each domain
+    public int[] domainSizes()
+    {
+        int[] sizes = new int[links.length];
+        for(int d = 0; d < sizes.length; d++)
+        {
+            sizes[d] = first[d + 1] - first[d];
+        }
+        return sizes;
+    }
+
+    //Returns the number of interactions evaluated by each worker at the last evaluation
+    public long[] workerInteractions()
+    {
+        return work.clone();
+    }
+
+    /**
+     * Ends the run on every worker and closes the connections. Workers started by this engine exit once their
+     * connection closes; any that have not exited within a few seconds are stopped.
+     */
+    public void close()
+    {
+        for(SocketLink link : links)
+        {
+            if(link != null)
+            {
+                try
+                {
+                    link.writeInt(DistributedWorker.CLOSE);
+                    link.flush();
+                    link.close();
+                }
+                catch(IOException e)
+                {
+                    //A worker that has already gone needs no goodbye
+                }
+            }
+        }
+        if(processes == null)
+        {
+            return;
+        }
+        for(Process process : processes)
+        {
+            try
+            {
+                if(!process.waitFor(5, TimeUnit.SECONDS))
+                {
+                    process.destroy();
+                }
+            }
+            catch(InterruptedException e)
+            {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A Workers object holds the addresses of the workers of a run, the processes started for them, if any, and the
+     * token they expect.
+     */
+    private static class Workers
+    {
+        final String[] addresses;
+        final Process[] processes;
+        final long token;
+
+        Workers(String[] addresses, Process[] processes, long token)
+        {
+            this.addresses = addresses;
+            this.processes = processes;
+            this.token = token;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package numericalmethods;
+
+/**
+ * The DistributedReport class checks the distributed engine, DistributedEngine, against the single-process engines,
+ * with worker processes started on this machine. A seeded Plummer sphere is generated, and the report prints:
+ *     the relative error of each body's acceleration with an opening angle of 0, against the direct sum, which must be
+ *     within TOLERANCE, since every body then reaches every worker
+ *     the relative error with an opening angle of THETA, against the direct sum, beside that of the single-process
+ *     Barnes-Hut engine, which the RMS error of the distributed engine must not exceed by more than a factor of
+ *     ERROR_RATIO
+ *     the number of bodies and interactions of each worker before and after the domains are balanced by work
+ * It exits with a non-zero status if either check fails.
+ *
+ * Usage: DistributedReport [number of bodies] [number of workers] [seed]
+ *
+ */
+public class DistributedReport
+{
+    //TOLERANCE is the largest relative error allowed with an opening angle of 0, which only differs from the direct
+    //sum in the order in which terms are added
+    public static final double TOLERANCE = 1e-10;
+
+    //THETA is the opening angle of the comparison with the Barnes-Hut engine, and ERROR_RATIO is the largest ratio of
+    //the RMS errors of the distributed and single-process engines allowed
+    public static final double THETA = 0.5;
+    public static final double ERROR_RATIO = 2;
+
+    /**
+     * The main method reads the optional arguments, runs the checks, and prints the report.
+     */
+    public static void main(String[] args)
+    {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : AccuracyReport.DEFAULT_BODIES;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        ParticleStore particles = InitialConditions.generate("plummer", n, seed, null);
+        new DirectSum().computeAccelerations(particles);
+        double[][] exact = AccuracyReport.accelerationsOf(particles);
+        new BarnesHut(THETA).computeAccelerations(particles);
+        double[] treeErrors = AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles));
+
+        System.out.println("Distributed report: Plummer sphere of " + n + " bodies, seed " + seed + ", " + workers
+                + " workers");
+        System.out.printf("%-24s%s%n", "engine", "max error\tRMS error");
+        System.out.printf("%-24s%.3e\t%.3e%n", "barneshut, theta " + THETA, AccuracyReport.percentile(treeErrors, 1.0),
+                AccuracyReport.rms(treeErrors));
+
+        boolean failed = false;
+        try(DistributedEngine engine = new DistributedEngine(workers, 0, Softening.NONE, 1, 0))
+        {
+            engine.computeAccelerations(particles);
+            double[] errors = AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles));
+            boolean passed = AccuracyReport.percentile(errors, 1.0) <= TOLERANCE;
+            failed |= !passed;
+            System.out.printf("%-24s%.3e\t%.3e\t%s%n", "distributed, theta 0", AccuracyReport.percentile(errors, 1.0),
+                    AccuracyReport.rms(errors), passed ? "ok" : "FAILED");
+        }
+
+        //The domains are cut by count for the first evaluation and by the work of each worker for the second
+        try(DistributedEngine engine = new DistributedEngine(workers, THETA, Softening.NONE, 1, 1))
+        {
+            engine.computeAccelerations(particles);
+            double[] errors = AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles));
+            boolean passed = AccuracyReport.rms(errors) <= ERROR_RATIO*AccuracyReport.rms(treeErrors);
+            failed |= !passed;
+            System.out.printf("%-24s%.3e\t%.3e\t%s%n", "distributed, theta " + THETA,
+                    AccuracyReport.percentile(errors, 1.0), AccuracyReport.rms(errors), passed ? "ok" : "FAILED");
+
+            System.out.println();
+            printBalance("by count", engine);
+            engine.computeAccelerations(particles);
+            printBalance("by work", engine);
+        }
+
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Prints the bodies and interactions of each worker at the last evaluation, and the ratio of the largest number of
+     * interactions to the mean, which bounds the time of an evaluation against a perfect balance.
+     *
+     * @param name: the name of the way the domains were cut
+     * @param engine: the engine after an evaluation
+     */
+    private static void printBalance(String name, DistributedEngine engine)
+    {
+        int[] sizes = engine.domainSizes();
+        long[] work = engine.workerInteractions();
+        long total = 0, most = 0;
+        StringBuilder line = new StringBuilder();
+        for(int w = 0; w < sizes.length; w++)
+        {
+            total += work[w];
+            most = Math.max(most, work[w]);
+            line.append(w == 0 ? "" : ", ").append(sizes[w]).append(" bodies/").append(work[w]).append(" interactions");
+        }
+        System.out.printf("%-24s%s; imbalance %.3f%n", name, line, total > 0 ? (double)most*sizes.length/total : 1);
+    }
+}
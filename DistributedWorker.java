@@ -0,0 +1,270 @@
+package numericalmethods;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The DistributedWorker class is a worker process of a distributed run (see DistributedEngine). It listens on a TCP
+ * port for the coordinator, which sends it the bodies of its domain at every force evaluation. For each evaluation the
+ * worker:
+ *     builds a Barnes-Hut octree over its own bodies
+ *     sends the coordinator, for the box bounding each other domain, the locally essential tree of that box: the
+ *     bodies and cells of its octree that the bodies of the box need (BarnesHut.exportEssential())
+ *     receives the essential trees of the other domains for its own box, appends them after its own bodies, and
+ *     finds the accelerations of its own bodies with a Barnes-Hut octree over all of them
+ *     sends back the accelerations and the number of interactions it evaluated, which the coordinator uses to balance
+ *     the domains
+ *
+ * A worker started by a coordinator on the same machine only listens on the loopback address, serves that one
+ * coordinator, and exits when it disconnects. A worker started by hand, for a coordinator on another machine, listens
+ * on every address and serves one coordinator after another:
+ *     DistributedWorker [port] [--once] [--local]
+ *
+ * A coordinator must open each connection with the token held by the environment variable TOKEN_VARIABLE of the
+ * worker, to which the worker replies ACCEPTED; other connections are closed unanswered. A worker listening on every
+ * address refuses to start without a token, while one started with --local accepts 0 when none is set. A coordinator
+ * that starts its own workers gives them a random token. The sizes in each message are checked before anything is
+ * allocated for them, so a broken message cannot make the worker allocate without bound, and a connection that fails
+ * or sends a broken message only ends the run of its coordinator, not the worker.
+ *
+ */
+public class DistributedWorker
+{
+    //DEFAULT_PORT is the port on which a worker started without one listens
+    public static final int DEFAULT_PORT = 7077;
+
+    //STEP and CLOSE are the messages the coordinator sends: the bodies of a force evaluation, or the end of the run
+    public static final int STEP = 1;
+    public static final int CLOSE = 2;
+
+    //ACCEPTED is the reply of the worker to a connection with the right token
+    public static final int ACCEPTED = 3;
+
+    //LISTENING is the start of the line printed once the worker is listening, followed by the port
+    public static final String LISTENING = "DistributedWorker listening on port ";
+
+    //TOKEN_VARIABLE is the environment variable holding the token with which a coordinator must open each connection
+    public static final String TOKEN_VARIABLE = "NBODY_WORKER_TOKEN";
+
+    //MAX_DOMAINS is the most domains, MAX_BODIES the most bodies, own and imported, and MAX_THREADS the most threads a
+    //worker accepts from a coordinator
+    public static final int MAX_DOMAINS = 1 << 16;
+    public static final int MAX_BODIES = 1 << 28;
+    public static final int MAX_THREADS = 1 << 12;
+
+    //The class only has static methods and is never instantiated
+    private DistributedWorker()
+    {
+    }
+
+    /**
+     * The main method listens on the given port, or on a free port if it is 0, and serves coordinators.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        boolean once = false, local = false;
+        for(int a = 1; a < args.length; a++)
+        {
+            once |= args[a].equals("--once");
+            local |= args[a].equals("--local");
+        }
+        String variable = System.getenv(TOKEN_VARIABLE);
+        long token = 0;
+        try
+        {
+            if(variable != null && !variable.isBlank())
+            {
+                token = Long.parseLong(variable.trim());
+            }
+            else if(!local)
+            {
+                System.err.println("DistributedWorker: set a secret number in " + TOKEN_VARIABLE
+                        + " before listening on every address, or listen only on the loopback address with --local");
+                System.exit(2);
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            System.err.println("DistributedWorker: " + TOKEN_VARIABLE + " must be a whole number: " + variable);
+            System.exit(2);
+        }
+
+        try(ServerSocketChannel server = ServerSocketChannel.open())
+        {
+            server.bind(local ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                    : new InetSocketAddress(port));
+            System.out.println(LISTENING + ((InetSocketAddress)server.getLocalAddress()).getPort());
+            System.out.flush();
+
+            //A connection without the token is closed and does not count as the one coordinator of a --once worker
+            boolean served = false;
+            while(!once || !served)
+            {
+                try(SocketLink link = new SocketLink(server.accept()))
+                {
+                    if(link.readLong() != token)
+                    {
+                        System.err.println("DistributedWorker: closed a connection with the wrong token");
+                        continue;
+                    }
+                    served = true;
+                    link.writeInt(ACCEPTED);
+                    link.flush();
+                    serve(link);
+                }
+                catch(IOException | RuntimeException e)
+                {
+                    //A failed connection or a broken message ends the run of its coordinator but not the worker
+                    System.err.println("DistributedWorker: ended a run: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves one coordinator until it closes the run. The coordinator first sends the opening angle, the softening
+     * kernel (0 for Plummer, 1 for spline) and length, and the number of threads to use.
+     *
+     * @param link: the connection to the coordinator, whose token has been checked
+     * @throws IOException: if the connection fails or a message is out of bounds
+     */
+    public static void serve(SocketLink link) throws IOException
+    {
+        double theta = link.readDouble();
+        String kernel = link.readInt() == 1 ? "spline" : "plummer";
+        Softening softening = new Softening(kernel, link.readDouble());
+        int threads = checkBounds("threads", link.readInt(), 1, MAX_THREADS);
+
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try
+        {
+            BarnesHut local = new BarnesHut(theta, null, softening);
+            BarnesHut combined = new BarnesHut(theta, pool, softening);
+            ParticleStore bodies = new ParticleStore(1024);
+            ParticleStore essential = new ParticleStore(1024);
+
+            while(link.readInt() == STEP)
+            {
+                step(link, local, combined, bodies, essential);
+            }
+        }
+        finally
+        {
+            if(pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Serves one force evaluation.
+     *
+     * @param link: the connection to the coordinator
+     * @param local: the engine whose octree holds the worker's own bodies
+     * @param combined: the engine that finds the accelerations of the worker's own bodies
+     * @param bodies: the store holding the worker's own bodies followed by the imported ones
+     * @param essential: a store used to collect the essential tree of each other domain
+     * @throws IOException: if the connection fails or a message is out of bounds
+     */
+    private static void step(SocketLink link, BarnesHut local, BarnesHut combined, ParticleStore bodies,
+            ParticleStore essential) throws IOException
+    {
+        int domain = link.readInt();
+        int domains = checkBounds("domains", link.readInt(), 1, MAX_DOMAINS);
+        checkBounds("domain", domain, 0, domains - 1);
+        double[] boxes = new double[6*domains];
+        link.readDoubles(boxes, 0, boxes.length);
+
+        int count = checkBounds("bodies", link.readInt(), 0, MAX_BODIES);
+        bodies.ensureCapacity(count);
+        bodies.n = count;
+        link.readDoubles(bodies.x, 0, count);
+        link.readDoubles(bodies.y, 0, count);
+        link.readDoubles(bodies.z, 0, count);
+        link.readDoubles(bodies.mass, 0, count);
+
+        //An empty domain has nothing to export, and an empty box needs nothing imported
+        if(count > 0)
+        {
+            local.buildTree(bodies);
+        }
+        double[] box = new double[6];
+        for(int other = 0; other < domains; other++)
+        {
+            if(other == domain)
+            {
+                continue;
+            }
+            System.arraycopy(boxes, 6*other, box, 0, 6);
+            essential.n = 0;
+            if(count > 0 && box[0] <= box[3])
+            {
+                local.exportEssential(bodies, box, essential);
+            }
+            writeBodies(link, essential, 0, essential.n);
+        }
+        link.flush();
+
+        int imported = checkBounds("imported bodies", link.readInt(), 0, MAX_BODIES - count);
+        bodies.ensureCapacity(count + imported);
+        link.readDoubles(bodies.x, count, imported);
+        link.readDoubles(bodies.y, count, imported);
+        link.readDoubles(bodies.z, count, imported);
+        link.readDoubles(bodies.mass, count, imported);
+        bodies.n = count + imported;
+
+        long interactions = 0;
+        if(count > 0)
+        {
+            combined.computeAccelerations(bodies, count);
+            interactions = combined.interactionCount(bodies);
+        }
+        link.writeDoubles(bodies.ax, 0, count);
+        link.writeDoubles(bodies.ay, 0, count);
+        link.writeDoubles(bodies.az, 0, count);
+        link.writeLong(interactions);
+        link.flush();
+    }
+
+    /**
+     * Checks that a number sent by the coordinator lies within the given bounds.
+     *
+     * @param name: the name of the number, for the message of the exception
+     * @param value: the number
+     * @param least: the least value allowed
+     * @param most: the greatest value allowed
+     * @return: the number
+     * @throws IOException: if the number is out of bounds
+     */
+    private static int checkBounds(String name, int value, int least, int most) throws IOException
+    {
+        if(value < least || value > most)
+        {
+            throw new IOException("The coordinator sent " + value + " " + name + ", outside " + least + " to " + most);
+        }
+        return value;
+    }
+
+    /**
+     * Queues the number of bodies of a range of a store followed by their x, y, and z coordinates and masses.
+     *
+     * @param link: the connection on which the bodies are sent
+     * @param bodies: the store holding the bodies
+     * @param from: the index of the first body
+     * @param count: the number of bodies
+     * @throws IOException: if the connection fails
+     */
+    public static void writeBodies(SocketLink link, ParticleStore bodies, int from, int count) throws IOException
+    {
+        link.writeInt(count);
+        link.writeDoubles(bodies.x, from, count);
+        link.writeDoubles(bodies.y, from, count);
+        link.writeDoubles(bodies.z, from, count);
+        link.writeDoubles(bodies.mass, from, count);
+    }
+}
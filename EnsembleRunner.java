@@ -0,0 +1,357 @@
+package numericalmethods;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The EnsembleRunner class runs many small simulations (the members of an ensemble) side by side in one JVM. Every
+ * member starts from the system named by a single control file and is identified by a seed. If the control file asks
+ * for random bodies, each member draws its own random system from its seed, with the model and number of bodies of
+ * the control file. Otherwise, each member perturbs the positions and velocities of the input bodies by Gaussian noise
+ * drawn from its seed: every component is multiplied by (1 + s*g), where g is a standard normal number and s is the
+ * relative perturbation.
+ *
+ * The members are run as tasks of a work-stealing ForkJoinPool, one member per task and each on a single thread, so
+ * the cores stay busy however unevenly the members finish, and the JVM starts and warms up only once. Members write no
+ * trajectory; instead one line per member is written to a summary file in CSV format, in the order of the seeds.
+ *
+ * The arguments are:
+ *     EnsembleRunner [control file] --seeds first:last [--perturb-position s] [--perturb-velocity s] [--threads count]
+ *     [--summary file] [--set key=value]
+ *
+ * The exit status is 0 if every member finished, 1 if any member failed, and 2 if the arguments are invalid.
+ *
+ */
+public class EnsembleRunner
+{
+    //USAGE is the message printed when the arguments are invalid
+    public static final String USAGE = "Usage: EnsembleRunner [control file] --seeds first:last"
+            + " [--perturb-position s] [--perturb-velocity s] [--threads count] [--summary file] [--set key=value]";
+
+    //HEADER is the first line of the summary file
+    public static final String HEADER = "member,seed,bodies,merged,steps,energyError,momentumError,maxRadius,"
+            + "wallMillis,status";
+
+    //base holds the system, running conditions, and settings read from the control file
+    private final Nbody base;
+
+    //firstSeed and lastSeed are the seeds of the first and last members
+    private final long firstSeed, lastSeed;
+
+    //positionNoise and velocityNoise are the relative perturbations of the positions and velocities
+    private final double positionNoise, velocityNoise;
+
+    /**
+     * The Member class holds the summary of one member of the ensemble.
+     */
+    private static class Member
+    {
+        long seed;
+        int bodies;
+        int merged;
+        long steps;
+        double energyError;
+        double momentumError;
+        double maxRadius;
+        long wallMillis;
+        String status = "ok";
+    }
+
+    /**
+     * Creates an ensemble whose members start from the system named by the given control file.
+     *
+     * @param controlFile: the control file
+     * @param overrides: settings that replace those of the control file, keyed by setting name
+     * @param firstSeed: the seed of the first member
+     * @param lastSeed: the seed of the last member
+     * @param positionNoise: the relative perturbation of the positions
+     * @param velocityNoise: the relative perturbation of the velocities
+     * @throws IOException: if the control file or input file cannot be read
+     * @throws InputMismatchException: if the control file, input file, or an override is not in the expected format, or
+     * if the members would all be the same, since the input file is not perturbed
+     */
+    public EnsembleRunner(File controlFile, Map<String, String> overrides, long firstSeed, long lastSeed,
+            double positionNoise, double velocityNoise) throws IOException
+    {
+        //Each member runs on a single thread without graphics, since the members themselves run in parallel, and
+        //writes no metrics or checkpoints, which would all go to the same files
+        Map<String, String> memberOverrides = new LinkedHashMap<>(overrides);
+        memberOverrides.put("threads", "1");
+        memberOverrides.put("renderer", "none");
+        memberOverrides.put("metricsFile", "");
+        memberOverrides.put("jmx", "false");
+        memberOverrides.put("checkpointEvery", "0");
+        base = new Nbody(controlFile, memberOverrides);
+
+        //The base only holds the system and settings from which the members are built, each of which creates its own
+        //engine, so its worker threads and any worker processes are stopped at once
+        base.shutdown();
+
+        //Members that perturb an input file by nothing would all run the same simulation
+        if(!base.randomInput && positionNoise == 0 && velocityNoise == 0 && lastSeed > firstSeed)
+        {
+            throw new InputMismatchException("Every member would start from the same bodies of the input file; give "
+                    + "--perturb-position or --perturb-velocity");
+        }
+
+        this.firstSeed = firstSeed;
+        this.lastSeed = lastSeed;
+        this.positionNoise = positionNoise;
+        this.velocityNoise = velocityNoise;
+    }
+
+    /**
+     * Runs every member on a work-stealing pool and writes the summary file.
+     *
+     * @param threads: the number of members run at once
+     * @param summary: the summary file
+     * @return: the number of members that failed
+     * @throws IOException: if the summary file cannot be written
+     */
+    public int run(int threads, File summary) throws IOException
+    {
+        int count = (int)(lastSeed - firstSeed + 1);
+        Member[] members = new Member[count];
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(count);
+            for(int m = 0; m < count; m++)
+            {
+                final int index = m;
+                tasks.add(pool.submit(() -> members[index] = runMember(firstSeed + index)));
+            }
+            for(ForkJoinTask<?> task : tasks)
+            {
+                task.join();
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        int failures = 0;
+        try(BufferedWriter out = new BufferedWriter(new FileWriter(summary)))
+        {
+            out.write(HEADER);
+            out.newLine();
+            for(int m = 0; m < count; m++)
+            {
+                Member member = members[m];
+                if(!member.status.equals("ok"))
+                {
+                    failures++;
+                }
+                out.write(m + "," + member.seed + "," + member.bodies + "," + member.merged + "," + member.steps + ","
+                        + member.energyError + "," + member.momentumError + "," + member.maxRadius + ","
+                        + member.wallMillis + "," + member.status);
+                out.newLine();
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Creates the initial system of the member with the given seed.
+     *
+     * @param seed: the seed of the member
+     * @return: a ParticleStore holding the bodies of the member
+     */
+    public ParticleStore initialBodies(long seed)
+    {
+        if(base.randomInput)
+        {
+            return InitialConditions.generate(base.settings.model, base.settings.bodies, seed, null);
+        }
+
+        Random generator = new Random(seed);
+        ParticleStore source = base.particles;
+        ParticleStore particles = new ParticleStore(source.n);
+        for(int i = 0; i < source.n; i++)
+        {
+            particles.add(source.x[i]*(1 + positionNoise*generator.nextGaussian()),
+                    source.y[i]*(1 + positionNoise*generator.nextGaussian()),
+                    source.z[i]*(1 + positionNoise*generator.nextGaussian()),
+                    source.vx[i]*(1 + velocityNoise*generator.nextGaussian()),
+                    source.vy[i]*(1 + velocityNoise*generator.nextGaussian()),
+                    source.vz[i]*(1 + velocityNoise*generator.nextGaussian()),
+                    source.mass[i]);
+        }
+        return particles;
+    }
+
+    /**
+     * Runs the member with the given seed and summarizes it. Any error is recorded in the summary rather than thrown,
+     * so that one failed member does not stop the others.
+     *
+     * @param seed: the seed of the member
+     * @return: the summary of the member
+     */
+    private Member runMember(long seed)
+    {
+        Member member = new Member();
+        member.seed = seed;
+        long start = System.nanoTime();
+        try
+        {
+            ParticleStore particles = initialBodies(seed);
+            int initialBodies = particles.n;
+            Softening softening = base.settings.createSoftening();
+            double initialEnergy = Diagnostics.energy(particles, softening, null);
+            double[] initialMomentum = Diagnostics.momentum(particles, new double[3]);
+            double momentumScale = 0;
+            for(int i = 0; i < particles.n; i++)
+            {
+                momentumScale += particles.mass[i]*Math.sqrt(particles.vx[i]*particles.vx[i]
+                        + particles.vy[i]*particles.vy[i] + particles.vz[i]*particles.vz[i]);
+            }
+
+            Nbody nbody = new Nbody(particles, base.startTime, base.startStep, base.duration, base.timeStep, base.update,
+                    base.settings, null);
+            try
+            {
+                nbody.quiet = true;
+                nbody.run();
+            }
+            finally
+            {
+                nbody.shutdown();
+            }
+
+            double[] momentum = Diagnostics.momentum(nbody.particles, new double[3]);
+            double dpx = momentum[0] - initialMomentum[0];
+            double dpy = momentum[1] - initialMomentum[1];
+            double dpz = momentum[2] - initialMomentum[2];
+            member.bodies = nbody.particles.n;
+            member.merged = initialBodies - nbody.particles.n;
+            member.steps = nbody.step - base.startStep;
+            member.energyError = (Diagnostics.energy(nbody.particles, softening, null) - initialEnergy)
+                    /Math.abs(initialEnergy);
+            member.momentumError = momentumScale > 0 ? Math.sqrt(dpx*dpx + dpy*dpy + dpz*dpz)/momentumScale : 0;
+            member.maxRadius = Diagnostics.maxRadius(nbody.particles);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            member.status = "\"" + e.toString().replace('"', '\'') + "\"";
+        }
+        member.wallMillis = (System.nanoTime() - start)/1000000;
+        return member;
+    }
+
+    /**
+     * The main method reads the arguments, runs the ensemble, and prints the number of members and the time taken.
+     */
+    public static void main(String[] args)
+    {
+        File controlFile = null;
+        Map<String, String> overrides = new LinkedHashMap<>();
+        long firstSeed = 0, lastSeed = -1;
+        double positionNoise = 0, velocityNoise = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File summary = new File("ensemble.csv");
+
+        try
+        {
+            for(int i = 0; i < args.length; i++)
+            {
+                String arg = args[i];
+                if(!arg.startsWith("--"))
+                {
+                    if(controlFile != null)
+                    {
+                        throw new InputMismatchException("Only one control file may be given");
+                    }
+                    controlFile = new File(arg);
+                    continue;
+                }
+                if(i + 1 == args.length)
+                {
+                    throw new InputMismatchException("Missing value for " + arg);
+                }
+                String value = args[++i];
+
+                switch(arg)
+                {
+                    case "--seeds":
+                        int colon = value.indexOf(':', 1);
+                        firstSeed = Long.parseLong(colon < 0 ? value : value.substring(0, colon));
+                        lastSeed = colon < 0 ? firstSeed : Long.parseLong(value.substring(colon + 1));
+                        break;
+                    case "--perturb-position":
+                        positionNoise = Double.parseDouble(value);
+                        break;
+                    case "--perturb-velocity":
+                        velocityNoise = Double.parseDouble(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "--summary":
+                        summary = new File(value);
+                        break;
+                    case "--set":
+                        int equals = value.indexOf('=');
+                        if(equals <= 0)
+                        {
+                            throw new InputMismatchException("Expected key=value after --set: " + value);
+                        }
+                        overrides.put(value.substring(0, equals), value.substring(equals + 1));
+                        break;
+                    default:
+                        throw new InputMismatchException("Unknown option: " + arg);
+                }
+            }
+            if(controlFile == null)
+            {
+                throw new InputMismatchException("No control file given");
+            }
+            if(lastSeed < firstSeed || lastSeed - firstSeed >= Integer.MAX_VALUE)
+            {
+                throw new InputMismatchException("Expected a range of seeds, for example --seeds 1:1000");
+            }
+            if(threads < 1)
+            {
+                throw new InputMismatchException("--threads must be at least 1");
+            }
+        }
+        catch(NumberFormatException | InputMismatchException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        try
+        {
+            EnsembleRunner ensemble = new EnsembleRunner(controlFile, overrides, firstSeed, lastSeed, positionNoise,
+                    velocityNoise);
+            long start = System.nanoTime();
+            int failures = ensemble.run(threads, summary);
+            double seconds = (System.nanoTime() - start)/1e9;
+            long count = lastSeed - firstSeed + 1;
+            System.out.printf("%d members in %.2f s (%.1f members/s) on %d threads; summary written to %s%n", count,
+                    seconds, count/seconds, threads, summary);
+            if(failures > 0)
+            {
+                System.err.println(failures + " of " + count + " members failed");
+                System.exit(1);
+            }
+        }
+        catch(IOException | InputMismatchException e)
+        {
+            System.err.println("Could not run the ensemble: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
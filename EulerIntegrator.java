@@ -0,0 +1,26 @@
+package numericalmethods;
+
+/**
+ * The EulerIntegrator class is the first-order scheme originally used by the simulation. The accelerations are found
+ * at the start of the step, the velocities are changed by a full kick, and the positions are then changed by a full
+ * drift using the new velocities (the semi-implicit Euler method). It needs one force evaluation per step, but its
+ * error grows with the first power of the time step, so it needs small time steps to keep energy errors bounded.
+ *
+ */
+public class EulerIntegrator implements Integrator
+{
+    /**
+     * Advances the system by one kick followed by one drift.
+     */
+    public void step(ParticleStore particles, ForceEngine engine, double dt)
+    {
+        engine.computeAccelerations(particles);
+        Nbody.kick(particles, dt);
+        Nbody.drift(particles, dt);
+    }
+
+    //The Euler scheme keeps no accelerations between steps
+    public void reset()
+    {
+    }
+}
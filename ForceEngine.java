@@ -0,0 +1,56 @@
+package numericalmethods;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A ForceEngine finds the gravitational acceleration of every body in a system due to all the other bodies. The Nbody
+ * class uses a ForceEngine once per time step, so different methods of finding accelerations can be selected from the
+ * control file without changing the rest of the simulation.
+ *
+ */
+public interface ForceEngine
+{
+    /**
+     * Finds the gravitational acceleration of each body due to all the other bodies.
+     *
+     * @param particles: the bodies in the system; the ax, ay, and az arrays are overwritten with the acceleration of
+     * each body in meters/second^2
+     */
+    void computeAccelerations(ParticleStore particles);
+
+    /**
+     * Returns the number of pair interactions evaluated by the last call to computeAccelerations(), where an interaction
+     * is the force of one body or cell on one body. Engines that sum the force of every other body on every body
+     * evaluate n(n - 1).
+     *
+     * @param particles: the bodies passed to the last call to computeAccelerations()
+     * @return: the number of interactions
+     */
+    default long interactionCount(ParticleStore particles)
+    {
+        return (long)particles.n*(particles.n - 1);
+    }
+
+    /**
+     * Writes any state the engine keeps between evaluations that changes its results, so that a run restored from a
+     * checkpoint continues exactly as it would have.
+     *
+     * @param out: the output to which the state is written
+     * @throws IOException: if the state cannot be written
+     */
+    default void saveState(DataOutput out) throws IOException
+    {
+    }
+
+    /**
+     * Restores the state written by saveState().
+     *
+     * @param in: the input from which the state is read
+     * @param particles: the bodies restored from the same checkpoint
+     * @throws IOException: if the state cannot be read
+     */
+    default void loadState(DataInput in, ParticleStore particles) throws IOException
+    {
+    }
+}
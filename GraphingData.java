@@ -1,3 +1,4 @@
+package numericalmethods;
 import java.awt.*;
 import java.awt.geom.*;
 import javax.swing.*;
@@ -12,10 +13,56 @@ public class GraphingData extends JPanel
     public double [] xdata;
     final int PAD = 20;
     
+    //count is the number of points drawn, frame is the window showing the panel, and point and axis are the shapes
+    //reused to draw each point and axis, so that painting does not allocate a new shape per point
+    private int count;
+    private JFrame frame;
+    private final Ellipse2D.Double point = new Ellipse2D.Double();
+    private final Line2D.Double axis = new Line2D.Double();
+    
     public GraphingData(double[] xdataIn, double[] ydataIn)
     {
         xdata = xdataIn;
         ydata = ydataIn;
+        count = xdata.length;
+    }
+    
+    //Creates a panel that plots the x and y components of the positions of up to n bodies
+    public GraphingData(int n)
+    {
+        this(new double[n], new double[n]);
+        count = 0;
+    }
+    
+    /**
+     * Replaces the plotted points with the x and y components of the given positions and repaints the panel, opening
+     * the window the first time. This must be called on the Swing event dispatch thread.
+     * 
+     * @param x: the x components of the positions
+     * @param y: the y components of the positions
+     * @param n: the number of positions
+     */
+    public void setPoints(double[] x, double[] y, int n)
+    {
+        if(xdata.length < n)
+        {
+            xdata = new double[n];
+            ydata = new double[n];
+        }
+        System.arraycopy(x, 0, xdata, 0, n);
+        System.arraycopy(y, 0, ydata, 0, n);
+        count = n;
+        
+        if(frame == null)
+        {
+            frame = new JFrame();
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.add(this);
+            frame.setSize(400,400);
+            frame.setLocation(200,200);
+            frame.setVisible(true);
+        }
+        repaint();
     }
  
     protected void paintComponent(Graphics g) 
@@ -26,23 +73,25 @@ public class GraphingData extends JPanel
                             RenderingHints.VALUE_ANTIALIAS_ON);
         int w = getWidth();
         int h = getHeight();
-        g2.draw(new Line2D.Double(PAD, PAD, PAD, h-PAD));
-        g2.draw(new Line2D.Double(PAD, h-PAD, w-PAD, h-PAD));
-        double xInc = (double)(w - 2*PAD)/(ydata.length-1);
+        axis.setLine(PAD, PAD, PAD, h-PAD);
+        g2.draw(axis);
+        axis.setLine(PAD, h-PAD, w-PAD, h-PAD);
+        g2.draw(axis);
         double scale = (double)(h - 2*PAD)/getMax();
         g2.setPaint(Color.red);
-        for(int i = 0; i < ydata.length; i++) 
+        for(int i = 0; i < count; i++) 
         {
             double x = w - PAD - scale*xdata[i];
             double y = h - PAD - scale*ydata[i];
-            g2.fill(new Ellipse2D.Double(x-2, y-2, 4, 4));
+            point.setFrame(x-2, y-2, 4, 4);
+            g2.fill(point);
         }
     }
  
     private double getMax() 
     {
         double max = (double)(-Integer.MAX_VALUE);
-        for(int i = 0; i < ydata.length; i++) 
+        for(int i = 0; i < count; i++) 
         {
             if(ydata[i] > max)
             {
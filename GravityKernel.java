@@ -0,0 +1,93 @@
+package numericalmethods;
+
+/**
+ * The GravityKernel class holds the pairwise gravitational kernel shared by the force engines. The kernel works
+ * directly on the arrays of a ParticleStore and on local doubles: the separation of two bodies, the square of their
+ * distance, and the inverse cube of their distance are computed in place, so finding the acceleration of a body does
+ * not create any objects. This keeps the innermost loop of every engine free of garbage no matter how many pairs of
+ * bodies it visits. The softened forms of the kernel are held by Softening.
+ *
+ */
+public final class GravityKernel
+{
+    //The kernel only has static methods and is never instantiated
+    private GravityKernel()
+    {
+    }
+
+    /**
+     * Determines whether the SIMD VectorKernel can be used, which requires the jdk.incubator.vector module to have been
+     * added when the JVM was started. The check does not load any class of the module.
+     *
+     * @return: true if the VectorKernel can be used
+     */
+    public static boolean isVectorSupported()
+    {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    /**
+     * Finds the factor GM/(r^3) by which the separation vector of two bodies is multiplied to obtain the acceleration
+     * of one body due to the other.
+     *
+     * @param mass: the mass in kilograms of the body exerting the force
+     * @param distanceSquared: the square of the distance between the bodies in meters^2
+     * @return: GM/(r^3) in 1/second^2
+     */
+    public static double factor(double mass, double distanceSquared)
+    {
+        return mass*Nbody.GRAVITATIONAL_CONSTANT/(distanceSquared*Math.sqrt(distanceSquared));
+    }
+
+    /**
+     * Finds the factor G/(r^3) shared by both bodies of a pair. Multiplying it by the mass of either body and the
+     * separation vector gives the acceleration of the other body, which lets a pair be evaluated once for both bodies.
+     *
+     * @param distanceSquared: the square of the distance between the bodies in meters^2
+     * @return: G/(r^3) in 1/(kilogram second^2)
+     */
+    public static double sharedFactor(double distanceSquared)
+    {
+        return Nbody.GRAVITATIONAL_CONSTANT/(distanceSquared*Math.sqrt(distanceSquared));
+    }
+
+    /**
+     * Adds the accelerations of body i due to bodies from through to - 1 to the given sum. Body i is skipped if it lies
+     * in that range.
+     *
+     * @param particles: the bodies in the system
+     * @param i: the index of the body being accelerated
+     * @param from: the index of the first body exerting a force
+     * @param to: one more than the index of the last body exerting a force
+     * @param softening: the softening of the force
+     * @param sum: a vector to which the acceleration in meters/second^2 is added
+     */
+    public static void accumulate(ParticleStore particles, int i, int from, int to, Softening softening,
+            double[] sum)
+    {
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double[] mass = particles.mass;
+        double xi = x[i], yi = y[i], zi = z[i];
+        double axi = 0, ayi = 0, azi = 0;
+
+        for(int j = from; j < to; j++)
+        {
+            if(j != i)
+            {
+                //dx, dy, and dz hold the position of body j with respect to body i
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double dz = z[j] - zi;
+                double factor = softening.factor(mass[j], dx*dx + dy*dy + dz*dz);
+
+                axi += dx*factor;
+                ayi += dy*factor;
+                azi += dz*factor;
+            }
+        }
+
+        sum[0] += axi;
+        sum[1] += ayi;
+        sum[2] += azi;
+    }
+}
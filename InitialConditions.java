@@ -0,0 +1,259 @@
+package numericalmethods;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The InitialConditions class draws random systems of any number of bodies from one of several models:
+ *     "uniform": bodies of random mass up to Nbody.MAX_MASS, placed uniformly in a cube of side Nbody.RANDOM_DIMENSION
+ *     and moving with random velocity components of up to Nbody.MAX_VELOCITY/2 (the original random mode)
+ *     "plummer": a Plummer sphere in equilibrium with scale radius PLUMMER_RADIUS, truncated at ten scale radii, with
+ *     velocities drawn from its isotropic distribution function (Aarseth, Henon, and Wielen 1974)
+ *     "disk": a thin disk of radius MODEL_RADIUS with uniform surface density, each body on a circular orbit at the
+ *     speed set by the mass within its radius
+ *     "cold": a uniform sphere of radius MODEL_RADIUS with every body at rest, which collapses under its own gravity
+ * Every body of the plummer, disk, and cold models has the mean mass of the uniform model, Nbody.MAX_MASS/2, and those
+ * systems are moved so that their center of mass is at rest at the origin.
+ *
+ * The bodies are drawn in blocks of BLOCK bodies. Each block draws from its own stream of random numbers, split off a
+ * SplittableRandom seeded with the given seed in order of block, so the blocks can be drawn in parallel without sharing
+ * a generator, and a given seed gives the same system for any number of threads.
+ *
+ */
+public final class InitialConditions
+{
+    //MODELS lists the names of the models
+    public static final String[] MODELS = {"uniform", "plummer", "disk", "cold"};
+
+    //BLOCK is the number of bodies drawn from each stream of random numbers
+    public static final int BLOCK = 4096;
+
+    //MODEL_RADIUS is the radius in meters of the disk and cold models, which fit in the cube of the uniform model
+    public static final double MODEL_RADIUS = Nbody.RANDOM_DIMENSION/2;
+
+    //PLUMMER_RADIUS is the scale radius in meters of the plummer model, which holds half its mass within 1.3 times it
+    public static final double PLUMMER_RADIUS = MODEL_RADIUS/4;
+
+    //DISK_THICKNESS is the thickness of the disk model as a fraction of its radius
+    public static final double DISK_THICKNESS = 0.01;
+
+    //The class only has static methods and is never instantiated
+    private InitialConditions()
+    {
+    }
+
+    /**
+     * Determines whether a model with the given name exists.
+     *
+     * @param model: the name of the model
+     * @return: true if the model exists
+     */
+    public static boolean isModel(String model)
+    {
+        for(String name : MODELS)
+        {
+            if(name.equals(model))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draws a system from the given model.
+     *
+     * @param model: the name of the model, one of MODELS
+     * @param bodies: the number of bodies
+     * @param seed: the seed of the random numbers
+     * @param pool: the ForkJoinPool on which blocks of bodies are drawn, or null to draw them on the calling thread
+     * @return: a ParticleStore holding the bodies
+     */
+    public static ParticleStore generate(String model, int bodies, long seed, ForkJoinPool pool)
+    {
+        if(!isModel(model))
+        {
+            throw new IllegalArgumentException("Unknown model: " + model);
+        }
+        ParticleStore particles = new ParticleStore(bodies);
+        particles.n = bodies;
+
+        //The streams are split off in order of block before any block is drawn, so each block always gets the same one
+        int blocks = (bodies + BLOCK - 1)/BLOCK;
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for(int block = 0; block < blocks; block++)
+        {
+            streams[block] = root.split();
+        }
+
+        ParallelRange.forEach(pool, blocks, (from, to) ->
+        {
+            for(int block = from; block < to; block++)
+            {
+                int first = block*BLOCK;
+                drawBlock(model, particles, first, Math.min(bodies, first + BLOCK), streams[block]);
+            }
+        });
+
+        if(!model.equals("uniform"))
+        {
+            moveToCenterOfMass(particles);
+        }
+        return particles;
+    }
+
+    /**
+     * Draws the bodies with indices from through to - 1 from the given model.
+     *
+     * @param model: the name of the model
+     * @param particles: the store into which the bodies are written
+     * @param from: the index of the first body
+     * @param to: one more than the index of the last body
+     * @param random: the stream of random numbers of the block
+     */
+    private static void drawBlock(String model, ParticleStore particles, int from, int to, SplittableRandom random)
+    {
+        double mass = Nbody.MAX_MASS/2;
+        double totalMass = mass*particles.n;
+
+        for(int i = from; i < to; i++)
+        {
+            switch(model)
+            {
+                case "uniform":
+                    particles.x[i] = (random.nextDouble() - 0.5)*Nbody.RANDOM_DIMENSION;
+                    particles.y[i] = (random.nextDouble() - 0.5)*Nbody.RANDOM_DIMENSION;
+                    particles.z[i] = (random.nextDouble() - 0.5)*Nbody.RANDOM_DIMENSION;
+                    particles.vx[i] = (random.nextDouble() - 0.5)*Nbody.MAX_VELOCITY;
+                    particles.vy[i] = (random.nextDouble() - 0.5)*Nbody.MAX_VELOCITY;
+                    particles.vz[i] = (random.nextDouble() - 0.5)*Nbody.MAX_VELOCITY;
+                    particles.mass[i] = random.nextDouble()*Nbody.MAX_MASS;
+                    continue;
+                case "plummer":
+                    drawPlummer(particles, i, totalMass, random);
+                    break;
+                case "disk":
+                    drawDisk(particles, i, totalMass, random);
+                    break;
+                default:
+                    //The cold model places each body uniformly within the sphere, at rest
+                    double radius = MODEL_RADIUS*Math.cbrt(random.nextDouble());
+                    setDirection(particles.x, particles.y, particles.z, i, radius, random);
+                    particles.vx[i] = 0;
+                    particles.vy[i] = 0;
+                    particles.vz[i] = 0;
+                    break;
+            }
+            particles.mass[i] = mass;
+        }
+    }
+
+    /**
+     * Draws the position and velocity of one body of a Plummer sphere. In units where G, the total mass, and the scale
+     * radius are 1, the radius is drawn by inverting the cumulative mass profile, and the speed is a fraction q of the
+     * local escape speed, sqrt(2)*(1 + r^2)^(-1/4), with q drawn from q^2*(1 - q^2)^(7/2) by rejection.
+     *
+     * @param particles: the store into which the body is written
+     * @param i: the index of the body
+     * @param totalMass: the total mass of the sphere in kilograms
+     * @param random: the stream of random numbers of the block
+     */
+    private static void drawPlummer(ParticleStore particles, int i, double totalMass, SplittableRandom random)
+    {
+        double radius;
+        do
+        {
+            radius = 1/Math.sqrt(Math.pow(random.nextDouble(), -2.0/3) - 1);
+        }
+        while(radius > 10);
+
+        double q, g;
+        do
+        {
+            q = random.nextDouble();
+            g = 0.1*random.nextDouble();
+        }
+        while(g > q*q*Math.pow(1 - q*q, 3.5));
+        double speed = q*Math.sqrt(2)*Math.pow(1 + radius*radius, -0.25);
+
+        setDirection(particles.x, particles.y, particles.z, i, radius*PLUMMER_RADIUS, random);
+        setDirection(particles.vx, particles.vy, particles.vz, i,
+                speed*Math.sqrt(Nbody.GRAVITATIONAL_CONSTANT*totalMass/PLUMMER_RADIUS), random);
+    }
+
+    /**
+     * Draws the position and velocity of one body of a uniform disk in the xy plane, rotating counterclockwise about
+     * the z axis.
+     *
+     * @param particles: the store into which the body is written
+     * @param i: the index of the body
+     * @param totalMass: the total mass of the disk in kilograms
+     * @param random: the stream of random numbers of the block
+     */
+    private static void drawDisk(ParticleStore particles, int i, double totalMass, SplittableRandom random)
+    {
+        double radius = MODEL_RADIUS*Math.sqrt(random.nextDouble());
+        double angle = 2*Math.PI*random.nextDouble();
+        particles.x[i] = radius*Math.cos(angle);
+        particles.y[i] = radius*Math.sin(angle);
+        particles.z[i] = (random.nextDouble() - 0.5)*DISK_THICKNESS*MODEL_RADIUS;
+
+        //The mass within radius r of a uniform disk is M r^2/R^2, which gives a circular speed of sqrt(G M r)/R
+        double speed = Math.sqrt(Nbody.GRAVITATIONAL_CONSTANT*totalMass*radius)/MODEL_RADIUS;
+        particles.vx[i] = -speed*Math.sin(angle);
+        particles.vy[i] = speed*Math.cos(angle);
+        particles.vz[i] = 0;
+    }
+
+    /**
+     * Sets element i of three arrays to a vector of the given length in a direction drawn uniformly from the sphere.
+     *
+     * @param x: the array of x components
+     * @param y: the array of y components
+     * @param z: the array of z components
+     * @param i: the index of the element
+     * @param length: the length of the vector
+     * @param random: the stream of random numbers of the block
+     */
+    private static void setDirection(double[] x, double[] y, double[] z, int i, double length,
+            SplittableRandom random)
+    {
+        double cosine = 2*random.nextDouble() - 1;
+        double sine = Math.sqrt(1 - cosine*cosine);
+        double angle = 2*Math.PI*random.nextDouble();
+        x[i] = length*sine*Math.cos(angle);
+        y[i] = length*sine*Math.sin(angle);
+        z[i] = length*cosine;
+    }
+
+    /**
+     * Moves the system so that its center of mass is at rest at the origin.
+     *
+     * @param particles: the bodies in the system
+     */
+    private static void moveToCenterOfMass(ParticleStore particles)
+    {
+        int n = particles.n;
+        double mass = 0, x = 0, y = 0, z = 0, vx = 0, vy = 0, vz = 0;
+        for(int i = 0; i < n; i++)
+        {
+            double m = particles.mass[i];
+            mass += m;
+            x += m*particles.x[i];
+            y += m*particles.y[i];
+            z += m*particles.z[i];
+            vx += m*particles.vx[i];
+            vy += m*particles.vy[i];
+            vz += m*particles.vz[i];
+        }
+        for(int i = 0; i < n; i++)
+        {
+            particles.x[i] -= x/mass;
+            particles.y[i] -= y/mass;
+            particles.z[i] -= z/mass;
+            particles.vx[i] -= vx/mass;
+            particles.vy[i] -= vy/mass;
+            particles.vz[i] -= vz/mass;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package numericalmethods;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An Integrator advances the positions and velocities of the bodies in a system by one time step, using a ForceEngine
+ * to find their accelerations. The Nbody class uses an Integrator once per time step, so the integration scheme can be
+ * selected from the control file without changing the rest of the simulation.
+ *
+ */
+public interface Integrator
+{
+    /**
+     * Advances the system by one time step.
+     *
+     * @param particles: the bodies in the system
+     * @param engine: the ForceEngine used to find accelerations
+     * @param dt: the length of the time step in seconds
+     */
+    void step(ParticleStore particles, ForceEngine engine, double dt);
+
+    /**
+     * Tells the integrator that the bodies have been changed outside of step(), for example by a collision, so that any
+     * accelerations it has kept from the previous step must be found again.
+     */
+    void reset();
+
+    /**
+     * Returns the number of pair interactions the integrator has evaluated with its own kernel, rather than through the
+     * ForceEngine, since it was created.
+     *
+     * @return: the number of interactions
+     */
+    default long interactionCount()
+    {
+        return 0;
+    }
+
+    /**
+     * Returns the time the integrator has spent finding accelerations with its own kernel, rather than through the
+     * ForceEngine, since it was created.
+     *
+     * @return: the time in nanoseconds
+     */
+    default long forceNanos()
+    {
+        return 0;
+    }
+
+    /**
+     * Writes any state the integrator keeps between steps, beyond the positions, velocities, and accelerations in the
+     * ParticleStore, so that a run restored from a checkpoint continues exactly as it would have.
+     *
+     * @param out: the output to which the state is written
+     * @throws IOException: if the state cannot be written
+     */
+    default void saveState(DataOutput out) throws IOException
+    {
+    }
+
+    /**
+     * Restores the state written by saveState().
+     *
+     * @param in: the input from which the state is read
+     * @param particles: the bodies restored from the same checkpoint
+     * @throws IOException: if the state cannot be read
+     */
+    default void loadState(DataInput in, ParticleStore particles) throws IOException
+    {
+    }
+}
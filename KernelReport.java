@@ -0,0 +1,92 @@
+package numericalmethods;
+
+/**
+ * The KernelReport class cross-checks the SIMD VectorKernel against the scalar GravityKernel. A seeded random system is
+ * generated, the accelerations are found by the scalar direct sum, and then by the direct sum with the vector kernel
+ * in each of its modes. For each mode the report prints the relative error of each body's acceleration against the
+ * scalar sum and the time of one pass after warming up. It exits with a non-zero status if any error exceeds the
+ * tolerance of its mode, so it can be used as a check after changes to the kernels.
+ *
+ * The JVM must be started with --add-modules jdk.incubator.vector.
+ *
+ * Usage: KernelReport [number of bodies] [seed]
+ *
+ */
+public class KernelReport
+{
+    //TOLERANCE is the largest relative error allowed with a square root, which only differs from the scalar kernel in
+    //the order in which terms are added, and RSQRT_TOLERANCE is the largest allowed with Newton-Raphson refinement
+    public static final double TOLERANCE = 1e-12;
+    public static final double RSQRT_TOLERANCE = 1e-9;
+
+    //PASSES is the number of passes timed for each engine, of which the fastest is reported
+    public static final int PASSES = 5;
+
+    /**
+     * The main method reads the optional arguments, compares each mode of the vector kernel with the scalar kernel, and
+     * prints the report.
+     */
+    public static void main(String[] args)
+    {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : AccuracyReport.DEFAULT_BODIES;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        if(!GravityKernel.isVectorSupported())
+        {
+            System.out.println("The vector kernel needs the JVM option --add-modules jdk.incubator.vector.");
+            System.exit(2);
+        }
+
+        ParticleStore particles = AccuracyReport.randomBodies(n, seed);
+        double scalarSeconds = seconds(new DirectSum(), particles);
+        double[][] exact = AccuracyReport.accelerationsOf(particles);
+        double symmetricSeconds = seconds(new DirectSum(null, true), particles);
+
+        System.out.println("Vector kernel report: " + n + " bodies, seed " + seed + ", " + VectorKernel.lanes()
+                + " lanes");
+        System.out.printf("scalar: %.3f s, scalar (symmetric): %.3f s%n", scalarSeconds, symmetricSeconds);
+        System.out.printf("%-24s%s%n", "mode", "time (s)\tspeed-up\tmax error\tRMS error");
+
+        boolean failed = false;
+        for(int mode = 0; mode < 4; mode++)
+        {
+            boolean symmetric = mode >= 2;
+            boolean rsqrt = mode % 2 == 1;
+            double seconds = seconds(new DirectSum(null, symmetric, true, rsqrt), particles);
+            double[] errors = AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles));
+            double maxError = AccuracyReport.percentile(errors, 1.0);
+            boolean passed = maxError <= (rsqrt ? RSQRT_TOLERANCE : TOLERANCE);
+            failed |= !passed;
+
+            String name = "vector" + (symmetric ? " symmetric" : "") + (rsqrt ? " rsqrt" : "");
+            System.out.printf("%-24s%.3f\t\t%.1f\t\t%.3e\t%.3e\t%s%n", name, seconds,
+                    (symmetric ? symmetricSeconds : scalarSeconds)/seconds, maxError, AccuracyReport.rms(errors),
+                    passed ? "ok" : "FAILED");
+        }
+
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Warms an engine up and then times the fastest of PASSES passes over the system.
+     *
+     * @param engine: the engine to be timed
+     * @param particles: the system on which the engine runs, whose accelerations are left as found by the engine
+     * @return: the time of the fastest pass in seconds
+     */
+    public static double seconds(ForceEngine engine, ParticleStore particles)
+    {
+        for(int pass = 0; pass < PASSES; pass++)
+        {
+            engine.computeAccelerations(particles);
+        }
+        long best = Long.MAX_VALUE;
+        for(int pass = 0; pass < PASSES; pass++)
+        {
+            long start = System.nanoTime();
+            engine.computeAccelerations(particles);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best*1e-9;
+    }
+}
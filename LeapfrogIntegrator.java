@@ -0,0 +1,55 @@
+package numericalmethods;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The LeapfrogIntegrator class advances the system with the second-order kick-drift-kick leapfrog scheme. Each step
+ * kicks the velocities by half a step using the accelerations at the start of the step, drifts the positions by a full
+ * step, finds the accelerations at the new positions, and kicks the velocities by the remaining half step. The scheme
+ * is symplectic and time-reversible, so energy errors stay bounded over long runs instead of drifting, and its error
+ * grows with the square of the time step.
+ *
+ * The accelerations found at the end of one step are those needed at the start of the next, so only one force
+ * evaluation is needed per step. They are kept in the ParticleStore between steps; the first step, and the first step
+ * after reset(), finds them again.
+ *
+ */
+public class LeapfrogIntegrator implements Integrator
+{
+    //primed is true if the accelerations in the store belong to the current positions
+    private boolean primed;
+
+    /**
+     * Advances the system by one kick-drift-kick step.
+     */
+    public void step(ParticleStore particles, ForceEngine engine, double dt)
+    {
+        if(!primed)
+        {
+            engine.computeAccelerations(particles);
+            primed = true;
+        }
+        Nbody.kick(particles, 0.5*dt);
+        Nbody.drift(particles, dt);
+        engine.computeAccelerations(particles);
+        Nbody.kick(particles, 0.5*dt);
+    }
+
+    //The accelerations are found again at the start of the next step
+    public void reset()
+    {
+        primed = false;
+    }
+
+    //Saves whether the accelerations in the store belong to the current positions
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeBoolean(primed);
+    }
+
+    public void loadState(DataInput in, ParticleStore particles) throws IOException
+    {
+        primed = in.readBoolean();
+    }
+}
@@ -0,0 +1,259 @@
+package numericalmethods;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The MixedPrecisionSum class is a ForceEngine that sums the force of every other body on each body, as DirectSum does,
+ * with the pairs evaluated in single precision. At the start of each step, the positions and masses are copied into
+ * arrays of floats, which halves the memory read by the inner loop and doubles the number of pairs a vector register
+ * holds. So that the floats keep as many bits as they can:
+ *     positions are taken relative to the center of the box bounding the system, in units of a length scale, the power
+ *     of two just above half the width of the box, so every coordinate lies between -1 and 1
+ *     masses are taken in units of a mass scale, the power of two just above the largest mass
+ * Scaling by a power of two is exact, so the only rounding is that of each value to a float. The terms of each body
+ * are added in single precision over tiles of TILE bodies, and the sums of the tiles are added in double precision, so
+ * the error of the sum does not grow with the number of bodies. The sum is finally multiplied by G times the mass scale
+ * over the square of the length scale, in double precision.
+ *
+ * A float holds about 7 significant digits, so positions are resolved to about 6e-8 of the size of the system. The
+ * relative error of each acceleration is typically 1e-7 to 1e-6, but bodies much closer together than the size of the
+ * system, such as a moon and its planet in a system of planets, lose most of the digits of their separation. Without
+ * softening, bodies that round to the same position give NaN accelerations, just as bodies at the same position do in
+ * double precision, so the check of the simulation for non-finite values catches them rather than the pair silently
+ * exerting no force. PrecisionReport measures the error on a given system.
+ *
+ * With the vector kernel, a tile of bodies is evaluated at once in the lanes of a vector of floats, which holds twice
+ * as many lanes as a vector of doubles. Spline softening is only evaluated by the scalar loop.
+ *
+ */
+public class MixedPrecisionSum implements ForceEngine
+{
+    //TILE is the number of bodies whose terms are added in single precision before the sum is added in double precision
+    public static final int TILE = 64;
+
+    //pool is the ForkJoinPool on which blocks of bodies are summed, or null if the engine runs on the calling thread
+    private final ForkJoinPool pool;
+
+    //vector is true if the pairs are evaluated by the VectorKernel
+    private final boolean vector;
+
+    //softening is the softening of the force between each pair of bodies
+    private final Softening softening;
+
+    //x, y, z, and mass hold the scaled positions and masses of the bodies in single precision
+    private float[] x = new float[0], y = new float[0], z = new float[0], mass = new float[0];
+
+    //lengthScale and massScale are the units of the scaled positions and masses, and softeningSquared and radiusSquared
+    //are the square of the Plummer softening length and of the radius of the spline kernel in units of the length scale
+    private double lengthScale, massScale;
+    private float softeningSquared, radiusSquared;
+
+    //sum is a vector reused to accumulate the acceleration of each body when running on the calling thread
+    private final double[] sum = new double[3];
+
+    /**
+     * Creates a mixed-precision engine.
+     *
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     * @param vector: true to use the VectorKernel, which requires GravityKernel.isVectorSupported() to be true
+     * @param softening: the softening of the force
+     */
+    public MixedPrecisionSum(ForkJoinPool pool, boolean vector, Softening softening)
+    {
+        this.pool = pool;
+        this.vector = vector && !softening.spline;
+        this.softening = softening;
+    }
+
+    /**
+     * Sums the accelerations caused by the gravitational force of every other mass on each body.
+     *
+     * @param particles: the bodies in the system, whose accelerations are overwritten
+     */
+    public void computeAccelerations(ParticleStore particles)
+    {
+        int n = particles.n;
+        scale(particles);
+        double unit = Nbody.GRAVITATIONAL_CONSTANT*massScale/(lengthScale*lengthScale);
+
+        if(pool == null)
+        {
+            sumRange(particles, 0, n, unit, sum);
+        }
+        else
+        {
+            ParallelRange.forEach(pool, n, (from, to) -> sumRange(particles, from, to, unit, new double[3]));
+        }
+    }
+
+    /**
+     * Finds the length and mass scales of the system and copies the scaled positions and masses into the arrays of
+     * floats.
+     *
+     * @param particles: the bodies in the system
+     */
+    private void scale(ParticleStore particles)
+    {
+        int n = particles.n;
+        if(x.length < n)
+        {
+            x = new float[n];
+            y = new float[n];
+            z = new float[n];
+            mass = new float[n];
+        }
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        double maxMass = 0;
+        for(int i = 0; i < n; i++)
+        {
+            minX = Math.min(minX, particles.x[i]);
+            minY = Math.min(minY, particles.y[i]);
+            minZ = Math.min(minZ, particles.z[i]);
+            maxX = Math.max(maxX, particles.x[i]);
+            maxY = Math.max(maxY, particles.y[i]);
+            maxZ = Math.max(maxZ, particles.z[i]);
+            maxMass = Math.max(maxMass, particles.mass[i]);
+        }
+        double originX = (minX + maxX)/2, originY = (minY + maxY)/2, originZ = (minZ + maxZ)/2;
+        lengthScale = powerOfTwoAbove(Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ))/2);
+        massScale = powerOfTwoAbove(maxMass);
+        softeningSquared = (float)(softening.lengthSquared/(lengthScale*lengthScale));
+        radiusSquared = (float)(softening.radiusSquared/(lengthScale*lengthScale));
+
+        if(pool == null)
+        {
+            convert(particles, 0, n, originX, originY, originZ);
+        }
+        else
+        {
+            ParallelRange.forEach(pool, n, (from, to) -> convert(particles, from, to, originX, originY, originZ));
+        }
+    }
+
+    /**
+     * Copies the scaled positions and masses of the bodies with indices from through to - 1 into the arrays of floats.
+     *
+     * @param particles: the bodies in the system
+     * @param from: the index of the first body
+     * @param to: one more than the index of the last body
+     * @param originX: the x coordinate in meters of the origin of the scaled positions
+     * @param originY: the y coordinate in meters of the origin of the scaled positions
+     * @param originZ: the z coordinate in meters of the origin of the scaled positions
+     */
+    private void convert(ParticleStore particles, int from, int to, double originX, double originY, double originZ)
+    {
+        double inverseLength = 1/lengthScale, inverseMass = 1/massScale;
+        for(int i = from; i < to; i++)
+        {
+            x[i] = (float)((particles.x[i] - originX)*inverseLength);
+            y[i] = (float)((particles.y[i] - originY)*inverseLength);
+            z[i] = (float)((particles.z[i] - originZ)*inverseLength);
+            mass[i] = (float)(particles.mass[i]*inverseMass);
+        }
+    }
+
+    //Returns the smallest power of two greater than the given value, or 1 if the value is not positive and finite
+    private static double powerOfTwoAbove(double value)
+    {
+        if(!(value > 0) || Double.isInfinite(value))
+        {
+            return 1;
+        }
+        return Math.scalb(1.0, Math.getExponent(value) + 1);
+    }
+
+    /**
+     * Finds the acceleration of the bodies with indices from through to - 1 due to every other body.
+     *
+     * @param particles: the bodies in the system
+     * @param from: the index of the first body to be accelerated
+     * @param to: one more than the index of the last body to be accelerated
+     * @param unit: the acceleration in meters/second^2 of a sum of 1 in scaled units
+     * @param sum: a vector used to accumulate the acceleration of each body
+     */
+    private void sumRange(ParticleStore particles, int from, int to, double unit, double[] sum)
+    {
+        int n = particles.n;
+
+        for(int i = from; i < to; i++)
+        {
+            sum[0] = 0;
+            sum[1] = 0;
+            sum[2] = 0;
+
+            //The range is split around body i, so that the body itself is never a term of its sum
+            if(vector)
+            {
+                VectorKernel.accumulateMixed(x, y, z, mass, i, 0, i, softeningSquared, sum);
+                VectorKernel.accumulateMixed(x, y, z, mass, i, i + 1, n, softeningSquared, sum);
+            }
+            else
+            {
+                accumulate(i, 0, i, sum);
+                accumulate(i, i + 1, n, sum);
+            }
+
+            particles.ax[i] = unit*sum[0];
+            particles.ay[i] = unit*sum[1];
+            particles.az[i] = unit*sum[2];
+        }
+    }
+
+    /**
+     * Adds the scaled accelerations of body i due to bodies from through to - 1, none of which is body i, to the given
+     * sum.
+     *
+     * @param i: the index of the body being accelerated
+     * @param from: the index of the first body exerting a force
+     * @param to: one more than the index of the last body exerting a force
+     * @param sum: a vector to which the scaled acceleration is added
+     */
+    private void accumulate(int i, int from, int to, double[] sum)
+    {
+        float xi = x[i], yi = y[i], zi = z[i];
+        double axs = 0, ays = 0, azs = 0;
+
+        for(int tile = from; tile < to; tile += TILE)
+        {
+            float axi = 0, ayi = 0, azi = 0;
+            for(int j = tile, end = Math.min(to, tile + TILE); j < end; j++)
+            {
+                //dx, dy, and dz hold the position of body j with respect to body i
+                float dx = x[j] - xi;
+                float dy = y[j] - yi;
+                float dz = z[j] - zi;
+                float factor = mass[j]*inverseCube(dx*dx + dy*dy + dz*dz);
+
+                axi += dx*factor;
+                ayi += dy*factor;
+                azi += dz*factor;
+            }
+            axs += axi;
+            ays += ayi;
+            azs += azi;
+        }
+
+        sum[0] += axs;
+        sum[1] += ays;
+        sum[2] += azs;
+    }
+
+    /**
+     * Finds the softened inverse cube of a scaled distance, 1/(r^3) without softening.
+     *
+     * @param distanceSquared: the square of the scaled distance
+     * @return: the inverse cube, which is infinite for bodies at the same position without softening
+     */
+    private float inverseCube(float distanceSquared)
+    {
+        if(softening.spline && distanceSquared < radiusSquared)
+        {
+            double length = lengthScale;
+            return (float)(softening.sharedFactor(distanceSquared*length*length)*length*length*length
+                    /Nbody.GRAVITATIONAL_CONSTANT);
+        }
+        distanceSquared += softeningSquared;
+        return 1/(distanceSquared*(float)Math.sqrt(distanceSquared));
+    }
+}
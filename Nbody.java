@@ -1,20 +1,26 @@
 package numericalmethods;
-import java.io.BufferedWriter;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Author: Ayush Pancholy
  * Date of creation: 8 May 2018
  * 
  * The Nbody class models the positions and velocities of a number of masses based on Newton's law of universal
- * gravitation. When the main method is run, the user will be prompted for a control file path. The control file
- * contains the output file path, input file path (or the user can specify that random masses should be generated),
- * the duration of the run in seconds, the time step in seconds, and the update step in seconds. The update step
+ * gravitation. When the main method is run, the user will be prompted for a control file path, unless control files
+ * are named on the command line (see CommandLine). The control file contains the output file path, input file path
+ * (or the user can specify that random masses should be generated), the duration of the run in seconds, the time
+ * step in seconds, and the update step in seconds. The update step
  * specifies how often the time value is printed, how often graphics are updated, and how often positions and
  * velocities of each mass are written to the output file. The graphics display a real-time two-dimensional rendering
  * of the system while it is in motion.
@@ -25,7 +31,7 @@ public class Nbody
     //GRAVITATIONAL_CONSTANT is the constant used to find gravitational acceleration
     public static final double GRAVITATIONAL_CONSTANT = 6.674e-11;
     
-    //RANDOM_CONSTANTS is an int value representing the number of bodies in the random N-body simulation
+    //RANDOM_OBJECTS is an int value representing the default number of bodies in the random N-body simulation
     public static final int RANDOM_OBJECTS = 100;
     
     //RANDOM_DIMENSION is a double value representing the side length of the cubical space in which random bodies
@@ -43,6 +49,10 @@ public class Nbody
     //SOLAR_MASS is a double value that represents the number of kilograms in a single solar mass
     public static final double SOLAR_MASS = 1.989e30;
     
+    //MAX_ROLLBACKS is the number of times in a row a run may roll back to the same checkpoint, halving its substeps
+    //each time, before it halts
+    public static final int MAX_ROLLBACKS = 4;
+    
     //PARSEC_CONVERSION is a double value that represents the number of meters in a parsec
     public static final double PARSEC_CONVERSION = 3.086e16;
     
@@ -50,9 +60,9 @@ public class Nbody
     public static final double KILOMETER_CONVERSION = 1e3;
     
     
-    //bodies is an ArrayList that holds Body objects, representing masses in the system and holding velocity, position,
-    //and mass values
-    public ArrayList<Body> bodies;
+    //particles is a ParticleStore that holds the position, velocity, and mass of every body in the system in
+    //contiguous arrays
+    public ParticleStore particles;
     
     //n is an int value representing the number of bodies in the system
     public int n;
@@ -60,6 +70,14 @@ public class Nbody
     //duration is a double that represents the length of the run in seconds
     public double duration;
     
+    //startTime is a double that represents the time in seconds at which the run begins. It is 0 unless the input file
+    //is a binary snapshot, in which case the run continues from the time at which the snapshot was saved.
+    public double startTime;
+    
+    //startStep is the number of time steps taken before the run begins. Like startTime, it is 0 unless the run
+    //continues from a binary snapshot, so that events stay on the schedule of the original run.
+    public long startStep;
+    
     //timeStep is a double that represents the amount by which the time should be incremented each iteration in seconds
     public double timeStep;
     
@@ -67,49 +85,122 @@ public class Nbody
     //and positions/velocities are written to the output file
     public double update;
     
-    //data is an object that is an instance of a graphics class; its constructor accepts the number of bodies as an
-    //argument
-    public GraphingData data;
+    //scheduler decides at which steps the time is printed, frames are written, metrics are reported, and the graphics
+    //are updated
+    public StepScheduler scheduler;
     
-    //out is the BufferedWriter representing the writer used to output data
-    public BufferedWriter out;
+    //renderer draws the bodies on its own thread at each update interval, or is null when the simulation runs
+    //without graphics
+    public AsyncRenderer renderer;
+    
+    //trajectory is the TrajectoryWriter that appends a frame to the output file at each update interval
+    public TrajectoryWriter trajectory;
     
     //output represents the output file itself
     public File output;
     
+    //textInput is the text input file from which the bodies are read once the worker threads exist, or null if they
+    //come from elsewhere
+    public File textInput;
+    
+    //settings holds the optional running conditions listed after the required entries of the control file
+    public Settings settings;
+    
+    //engine is the ForceEngine used to find the gravitational acceleration of each body during every time step
+    public ForceEngine engine;
+    
+    //integrator is the Integrator that advances the positions and velocities of the bodies by each time step
+    public Integrator integrator;
+    
+    //collisions is the CollisionDetector that merges bodies that collide during a time step
+    public CollisionDetector collisions;
+    
+    //checkpoint is the checkpoint from which the run was resumed, or null for a run that starts from its input file
+    public Checkpoint checkpoint;
+    
+    //checkpoints writes checkpoints of the run on a separate thread, or is null if the settings ask for none
+    public CheckpointWriter checkpoints;
+    
+    //metrics measures the phases of each step and the drift of the energy and momentum, or is null if the settings ask
+    //for neither a metrics file nor JMX
+    public SimulationMetrics metrics;
+    
+    //baseline holds the values from which the metrics measure drift, kept from the start of the run through every
+    //checkpoint and resume, or is null if no metrics have been collected
+    public double[] baseline;
+    
+    //pool is the ForkJoinPool of worker threads used by the engine, or null if the simulation runs on one thread
+    public ForkJoinPool pool;
+    
+    //randomInput is true if the bodies were drawn at random rather than read from an input file
+    public boolean randomInput;
+    
+    //time is the current simulation time in seconds, and step is the number of time steps taken so far; both are
+    //updated by run()
+    public double time;
+    public long step;
+    
+    //substeps is the number of substeps into which each time step is divided, which is raised after a rollback until
+    //the next checkpoint; rollbacks is the number of rollbacks since then, and rollbackStep is the step of the
+    //checkpoint to which the run last rolled back
+    public int substeps = 1;
+    public int rollbacks;
+    public long rollbackStep = -1;
+    
+    //quiet is true if progress messages should not be printed, as for the members of an ensemble
+    public boolean quiet;
+    
+    //label is printed before each progress message, so that the messages of simulations running side by side can be
+    //told apart; it is empty for a single simulation
+    public String label = "";
+    
+    //notices holds the messages about the setup of the simulation, such as a missing input file or the seed drawn for
+    //the random bodies, which are printed with the label when the run starts, unless the simulation is quiet
+    public final List<String> notices = new ArrayList<>();
+    
     /**
-     * The constructor creates a new Nbody object by prompting the user for a path to a control file. It then reads the
-     * output file from the given control file and sets instance variables accordingly. The next item read from the
-     * control file is the input file path. If the user specifies that the input file should be random (or if the user
-     * inputs a file that does not exist), bodies of random mass, velocity, and position (within bounds specified by 
-     * constants) are added to the ArrayList of bodies. Otherwise, initial masses, velocities, and positions are added
-     * based on the input file. The instance variable n is updated to represent the number of bodies in the system.
-     * The duration, timeStep, and update instance variables are also set based on the specifications of the control
-     * file. Finally, the data instance variable, representing the graphics class, is initialized based on the number of
-     * bodies in the system. If there is a file i/o error, the exception is caught and an appropriate error message is
-     * printed.
+     * The constructor creates a new Nbody object by prompting the user for a path to a control file and reading it as
+     * described for Nbody(File, Map).
+     * 
+     * @throws IOException: if the control file or input file cannot be read
+     * @throws InputMismatchException: if the control file or input file is not in the expected format
      */
-    public Nbody()
+    public Nbody() throws IOException
+    {
+        this(promptForControlFile(), new LinkedHashMap<>());
+    }
+    
+    /**
+     * The constructor creates a new Nbody object from the given control file. It reads the output file from the
+     * control file and sets instance variables accordingly. The next item read from the control file is the input file
+     * path. The duration, timeStep, and update instance variables are then set based on the specifications of the
+     * control file. Any optional settings that follow, such as the force engine, are read as key/value pairs, and the
+     * given overrides are applied on top of them. If the user specifies that the input file should be random (or if
+     * the user inputs a file that does not exist), the bodies are drawn from the model named by the settings by
+     * InitialConditions, from the seed setting if one is given, once the worker threads have been created. Otherwise,
+     * initial masses, velocities, and positions are added based on the input file. The instance variable n is updated
+     * to represent the number of bodies in the system, and the settings are used to create the ForceEngine and the
+     * Integrator. Finally, unless the settings ask for no renderer or the machine has no display, the renderer
+     * instance variable is initialized with a graphics window sized for the number of bodies in the system.
+     * 
+     * @param contFile: the control file
+     * @param overrides: settings that replace those of the control file, keyed by setting name
+     * @throws IOException: if the control file or input file cannot be read
+     * @throws InputMismatchException: if the control file, input file, or an override is not in the expected format
+     */
+    public Nbody(File contFile, Map<String, String> overrides) throws IOException
     {
         //random represents whether the user has specified that the bodies should have random position, velocity, and mass
         boolean random = false;
         
-        //Prompts the user for the path to the control file and stores the file path as a string
-        System.out.println("Enter the control file path.");
-        Scanner fileNameInput = new Scanner(System.in);
-        String filename = fileNameInput.next();
-        fileNameInput.close();
+        //Creates a Scanner object for the control file
+        Scanner controlFile = new Scanner(contFile);
         
         try
         {
-            //Creates a Scanner object for the control file
-            File contFile = new File(filename);
-            Scanner controlFile = new Scanner(contFile);
-            
             //Extracts output file path from control file and updates instance variables accordingly
             String outFile = controlFile.next();
             output = new File(outFile);
-            out = new BufferedWriter(new FileWriter(output));            
             
             //Determines the file path to the input file (or specification for random objects) and updates the random
             //boolean appropriately
@@ -119,93 +210,328 @@ public class Nbody
                 random = true;
             }
             
-            //If the specified file does not exist, random values will be used
-            File pCode = new File(inFile);
-            if(!random && !pCode.isFile())
+            //Running conditions are extracted from the control file, and instance variables are updated accordingly
+            duration = controlFile.nextDouble();
+            timeStep = controlFile.nextDouble();
+            update = controlFile.nextDouble();
+            
+            //Any remaining entries of the control file are optional settings written as key/value pairs, after which
+            //the overrides are applied
+            settings = new Settings();
+            while(controlFile.hasNext())
             {
-                System.out.println("Input file not found. Using random masses instead.");
-                random = true;
+                String key = controlFile.next();
+                if(!controlFile.hasNext())
+                {
+                    throw new InputMismatchException("Missing value for setting: " + key);
+                }
+                settings.set(key, controlFile.next());
             }
+            for(Map.Entry<String, String> override : overrides.entrySet())
+            {
+                settings.set(override.getKey(), override.getValue());
+            }
+            settings.validate();
             
-            //doubles representing components of position and velocity as well as mass are declared and will be used to
-            //store temporary values for body creation
-            double xPos, yPos, zPos;
-            double xVel, yVel, zVel;
-            double mass;
-            
-            bodies = new ArrayList<Body>();
-            
-            if(!random)
+            if(!settings.resume.isEmpty())
             {
-                //Creates a scanner based on input file
-                Scanner bodyAdder = new Scanner(pCode);
-                
-                while (bodyAdder.hasNextDouble())
+                //A checkpoint holds the complete state of an earlier run, which continues exactly where it stopped
+                checkpoint = Checkpoint.read(new File(settings.resume));
+                if(checkpoint.timeStep != timeStep || !checkpoint.integrator.equals(settings.integrator))
                 {
-                    //Converts all position, velocity and mass values to mks units and adds new bodies with these values
-                    //to the ArrayList
-                    
-                    xPos = PARSEC_CONVERSION * bodyAdder.nextDouble();
-                    yPos = PARSEC_CONVERSION * bodyAdder.nextDouble();
-                    zPos = PARSEC_CONVERSION * bodyAdder.nextDouble();
-                    
-                    xVel = KILOMETER_CONVERSION * bodyAdder.nextDouble();
-                    yVel = KILOMETER_CONVERSION * bodyAdder.nextDouble();
-                    zVel = KILOMETER_CONVERSION * bodyAdder.nextDouble();
-                    
-                    mass = SOLAR_MASS * bodyAdder.nextDouble();
-                    
-                    bodies.add(new Body(xPos, yPos, zPos, xVel, yVel, zVel, mass));
+                    throw new InputMismatchException("Checkpoint " + settings.resume + " was written with time step "
+                            + checkpoint.timeStep + " and integrator " + checkpoint.integrator
+                            + ", which do not match the control file");
                 }
-                
-                bodyAdder.close();
+                particles = checkpoint.particles;
+                startTime = checkpoint.time;
+                startStep = checkpoint.step;
             }
             else
             {
-                for(int i = 0; i < RANDOM_OBJECTS; i++)
+                //If the specified file does not exist, random values will be used
+                File pCode = new File(inFile);
+                if(!random && !pCode.isFile())
                 {
-                    //If using random values, random positions, masses, and velocities are generated and used for body 
-                    //creation
-                    
-                    xPos = (Math.random()*RANDOM_DIMENSION)-(RANDOM_DIMENSION/2);
-                    yPos = (Math.random()*RANDOM_DIMENSION)-(RANDOM_DIMENSION/2);
-                    zPos = (Math.random()*RANDOM_DIMENSION)-(RANDOM_DIMENSION/2);
-                    
-                    xVel = (Math.random()*MAX_VELOCITY)-(MAX_VELOCITY/2);
-                    yVel = (Math.random()*MAX_VELOCITY)-(MAX_VELOCITY/2);
-                    zVel = (Math.random()*MAX_VELOCITY)-(MAX_VELOCITY/2);
-                    
-                    mass = Math.random()*MAX_MASS;
-                    
-                    bodies.add(new Body(xPos, yPos, zPos, xVel, yVel, zVel, mass));
+                    notices.add("Input file not found. Using random masses instead.");
+                    random = true;
                 }
-            }
-            
-            //Running conditions are extracted from the control file, and instance variables are updated accordingly
-            duration = controlFile.nextDouble();
-            timeStep = controlFile.nextDouble();
-            update = controlFile.nextDouble();
             
+                if(!random && BinarySnapshot.isSnapshot(pCode))
+                {
+                    //Binary snapshots are copied in bulk into the ParticleStore, and the run continues from the time of
+                    //the last frame
+                    BinarySnapshot snapshot = BinarySnapshot.readLast(pCode);
+                    particles = snapshot.particles;
+                    startTime = snapshot.time;
+                    startStep = snapshot.step;
+                }
+                else if(!random)
+                {
+                    textInput = pCode;
+                }
+                else if(settings.seed == 0)
+                {
+                    //An unseeded run draws a seed of its own and records it, so the system can be drawn again
+                    settings.seed = new SplittableRandom().nextLong();
+                    notices.add("Drawing random bodies with seed " + settings.seed + ".");
+                }
+            }
+        }
+        catch(InputMismatchException e)
+        {
+            throw e;
+        }
+        catch(NoSuchElementException e)
+        {
+            //A missing or malformed required entry is reported in the same way as any other format error
+            throw new InputMismatchException("Control file " + contFile + " is missing a required entry");
+        }
+        finally
+        {
             controlFile.close();
-            
-            n = bodies.size();
-            
-            //A new graphics object is created based on the number of objects in the system
-            data = new GraphingData(n);
         }
-        catch (IOException | InputMismatchException e)
+        
+        randomInput = random;
+        setUp();
+        
+        if(checkpoint != null)
         {
-            System.out.println("File i/o error. Please check paths/format and try again.");
+            checkpoint.restore(integrator, engine);
+            baseline = checkpoint.baseline;
+            if(trajectory != null)
+            {
+                trajectory.resume(checkpoint.frameCount, checkpoint.trajectoryBytes);
+            }
+        }
+    }
+    
+    /**
+     * The constructor creates a new Nbody object from a system already held in memory, as for the members of an
+     * ensemble. The running conditions are given directly rather than read from a control file.
+     * 
+     * @param particles: the bodies in the system
+     * @param startTime: the time in seconds at which the run begins
+     * @param startStep: the number of time steps taken before the run begins
+     * @param duration: the time in seconds at which the run ends
+     * @param timeStep: the time step in seconds
+     * @param update: the interval in seconds at which frames are written and the graphics are updated
+     * @param settings: the optional running conditions
+     * @param output: the output file, or null to write no frames
+     * @throws IOException: if the metrics file cannot be opened
+     */
+    public Nbody(ParticleStore particles, double startTime, long startStep, double duration, double timeStep,
+            double update, Settings settings, File output) throws IOException
+    {
+        this.particles = particles;
+        this.startTime = startTime;
+        this.startStep = startStep;
+        this.duration = duration;
+        this.timeStep = timeStep;
+        this.update = update;
+        this.settings = settings;
+        this.output = output;
+        setUp();
+    }
+    
+    /**
+     * Creates the worker threads, ForceEngine, Integrator, CollisionDetector, TrajectoryWriter, metrics, and renderer
+     * named by the settings, and loads the bodies if they have not been given.
+     * 
+     * @throws IOException: if the input file cannot be read or the metrics file cannot be opened
+     */
+    private void setUp() throws IOException
+    {
+        //Worker threads are only started if the settings ask for more than one
+        if(settings.workerCount() > 1)
+        {
+            pool = new ForkJoinPool(settings.workerCount());
+        }
+        
+        //Text input files are read and random bodies are drawn once the worker threads exist, so that large systems
+        //are loaded in parallel
+        if(particles == null && textInput != null)
+        {
+            particles = TextLoader.read(textInput, pool);
+        }
+        else if(particles == null)
+        {
+            particles = InitialConditions.generate(settings.model, settings.bodies, settings.seed, pool);
+        }
+        engine = createEngine(settings, pool, notices);
+        integrator = createIntegrator(settings, pool);
+        collisions = new CollisionDetector(settings.collisionRadius);
+        if(output != null)
+        {
+            trajectory = new TrajectoryWriter(output, settings.format.equals("binary"), settings.framesPerFile,
+                    settings.keepFiles);
+        }
+        
+        n = particles.n;
+        
+        //The update interval and any separate cadences for frames and metrics are counted in whole time steps
+        long updateSteps = StepScheduler.toSteps(update, timeStep, "update interval", notices);
+        scheduler = new StepScheduler();
+        scheduler.schedule(StepScheduler.Event.PROGRESS, updateSteps);
+        scheduler.schedule(StepScheduler.Event.RENDER, updateSteps);
+        scheduler.schedule(StepScheduler.Event.SNAPSHOT,
+                settings.snapshotEvery > 0 ? settings.snapshotEvery : updateSteps);
+        
+        if(!settings.metricsFile.isEmpty() || settings.jmx)
+        {
+            metrics = new SimulationMetrics(engine, integrator,
+                    settings.metricsFile.isEmpty() ? null : new File(settings.metricsFile), settings.jmx,
+                    output == null ? "simulation" : output.getName(), pool, settings.createSoftening(),
+                    settings.energyEvery, settings.energyBodies);
+            scheduler.schedule(StepScheduler.Event.METRICS,
+                    settings.metricsEvery > 0 ? settings.metricsEvery : updateSteps);
+        }
+        
+        //Checkpoints are written beside the output file unless the settings name another file
+        if(settings.checkpointEvery > 0 && (output != null || !settings.checkpointFile.isEmpty()))
+        {
+            checkpoints = new CheckpointWriter(settings.checkpointFile.isEmpty()
+                    ? new File(output.getPath() + ".checkpoint") : new File(settings.checkpointFile));
+            scheduler.schedule(StepScheduler.Event.CHECKPOINT, settings.checkpointEvery);
+        }
+        if(settings.onNonFinite.equals("rollback") && checkpoints == null)
+        {
+            notices.add("Rolling back needs checkpoints (checkpointEvery). The run will halt instead if a value "
+                    + "becomes NaN or infinite.");
+        }
+        
+        //A graphics window is only created when one is wanted and can be shown, so batch runs never load Swing
+        if(settings.renderer.equals("swing"))
+        {
+            if(GraphicsEnvironment.isHeadless())
+            {
+                notices.add("No display is available. Running without graphics.");
+            }
+            else
+            {
+                renderer = new AsyncRenderer(new GraphingData(n), settings.renderQueue, n);
+            }
         }
     }
     
     /**
-     * The main method creates a new Nbody object and runs the method run(), which executes its simulation. Any
-     * IOExceptions are handled and an appropriate message is printed.
+     * Prompts the user for the path to a control file.
+     * 
+     * @return: the control file
+     */
+    private static File promptForControlFile()
+    {
+        //Prompts the user for the path to the control file and stores the file path as a string
+        System.out.println("Enter the control file path.");
+        Scanner fileNameInput = new Scanner(System.in);
+        String filename = fileNameInput.next();
+        fileNameInput.close();
+        return new File(filename);
+    }
+    
+    /**
+     * Creates the ForceEngine named by the given settings.
+     * 
+     * @param settings: the settings naming the engine and its parameters
+     * @param pool: the ForkJoinPool on which the engine should run, or null to run on the calling thread
+     * @param notices: a list to which any message about the settings that could not be followed is added
+     * @return: a new ForceEngine
+     */
+    public static ForceEngine createEngine(Settings settings, ForkJoinPool pool, List<String> notices)
+    {
+        if(settings.precision.equals("mixed") && !settings.engine.equals("direct"))
+        {
+            notices.add("Mixed precision is only used by the direct engine. Using double precision instead.");
+        }
+        if(settings.engine.equals("barneshut"))
+        {
+            return new BarnesHut(settings.theta, pool, settings.createSoftening());
+        }
+        if(settings.engine.equals("pm") || settings.engine.equals("p3m"))
+        {
+            return new ParticleMesh(settings.meshSize, settings.engine.equals("p3m"), pool,
+                    settings.createSoftening());
+        }
+        if(settings.engine.equals("distributed"))
+        {
+            String[] hosts = settings.parseHosts();
+            return hosts.length > 0
+                    ? new DistributedEngine(hosts, settings.workerToken, settings.theta, settings.createSoftening(),
+                            settings.workerCount(), settings.rebalanceEvery)
+                    : new DistributedEngine(settings.workers, settings.theta, settings.createSoftening(),
+                            settings.workerCount(), settings.rebalanceEvery);
+        }
+        boolean vector = settings.kernel.equals("vector");
+        if(vector && !GravityKernel.isVectorSupported())
+        {
+            notices.add("The vector kernel needs the JVM option --add-modules jdk.incubator.vector. Using the "
+                    + "scalar kernel instead.");
+            vector = false;
+        }
+        if(settings.precision.equals("mixed"))
+        {
+            return new MixedPrecisionSum(pool, vector, settings.createSoftening());
+        }
+        return new DirectSum(pool, settings.symmetric, vector, settings.rsqrt, settings.createSoftening());
+    }
+    
+    /**
+     * Creates the Integrator named by the given settings.
+     * 
+     * @param settings: the settings naming the integrator
+     * @param pool: the ForkJoinPool on which the block integrator should find accelerations, or null to run on the
+     * calling thread
+     * @return: a new Integrator
+     */
+    public static Integrator createIntegrator(Settings settings, ForkJoinPool pool)
+    {
+        if(settings.integrator.equals("block"))
+        {
+            return new BlockTimestepIntegrator(settings.eta, pool, settings.createSoftening());
+        }
+        if(settings.integrator.equals("leapfrog"))
+        {
+            return new LeapfrogIntegrator();
+        }
+        if(settings.integrator.equals("yoshida"))
+        {
+            return new YoshidaIntegrator();
+        }
+        return new EulerIntegrator();
+    }
+    
+    /**
+     * The main method runs the simulations named by the command-line arguments through CommandLine, exiting with a
+     * non-zero status if any of them fails. With no arguments, it creates a new Nbody object from a control file
+     * named by the user and runs the method run(), which executes its simulation. Any IOExceptions are handled and an
+     * appropriate message is printed.
      */
     public static void main(String[] args)
     {       
-        Nbody nbody = new Nbody();
+        if(args.length > 0)
+        {
+            int status = CommandLine.run(args);
+            if(status != 0)
+            {
+                System.exit(status);
+            }
+            return;
+        }
+        
+        Nbody nbody;
+        try
+        {
+            nbody = new Nbody();
+        }
+        catch(IOException | InputMismatchException e)
+        {
+            System.out.println("File i/o error. Please check paths/format and try again.");
+            System.exit(1);
+            return;
+        }
+        
+        //The exit status is only set once the simulation has been shut down, since System.exit() skips finally blocks
+        int status = 0;
         try
         {
             nbody.run();
@@ -213,183 +539,349 @@ public class Nbody
         catch(IOException e)
         {
             System.out.println("There was an error accessing or writing to the output file. Please check the filename and try again.");
+            status = 1;
+        }
+        catch(ArithmeticException e)
+        {
+            System.out.println("Simulation halted: " + e.getMessage());
+            status = 1;
+        }
+        finally
+        {
+            nbody.shutdown();
+        }
+        if(status != 0)
+        {
+            System.exit(status);
+        }
+    }
+    
+    //Stops the worker threads of the simulation, if it has any, and ends the run on any worker processes
+    public void shutdown()
+    {
+        if(pool != null)
+        {
+            pool.shutdown();
+        }
+        if(engine instanceof DistributedEngine)
+        {
+            ((DistributedEngine)engine).close();
         }
     }
     
     /**
-     * The method run() executes the simulation using a nested for loop, summing the gravitational accelerations of each
-     * mass due to all the other masses, and then using difference equations to change velocities. After looping through
-     * all the masses, the positions of all masses are updated based on the difference equation and current velocity. 
-     * After that, potential collisions are resolved using the conservation of linear momentum. During each update interval,
-     * the current time is printed; the position, velocity, and mass values are written to the output file; and the graphics
-     * are updated.
+     * The method run() executes the simulation using the Integrator, which uses the ForceEngine to find the
+     * gravitational accelerations of each mass due to all the other masses and then uses difference equations to
+     * change the velocities and positions of all masses. Potential collisions
+     * are then found by the CollisionDetector and resolved using the conservation of linear momentum. Every pass
+     * streams through the arrays of the ParticleStore. Between steps, the scheduler decides when the current time is
+     * printed, the metrics, if any, are reported, the position, velocity, and mass values are written to the output
+     * file, and a snapshot is handed to the renderer, if there is one.
      * 
      * @throws IOException: The method can throw an IOException if there are issues accessing or writing to the output file.
      */
     public void run() throws IOException
     {
-        //currentBody represents the body to which gravitational acceleration is being applied by every other body (i.e.
-        //the mass of the outer loop), and otherBody represents the the mass in the inner loop
-        Body currentBody;
-        Body otherBody;
-        
-        /**
-         * distance is the distance in meters between currentBody and otherBody. otherMass is the mass of otherBody.
-         * factor holds the value of GM/(r^3), the value by which each component of position will be multiplied to
-         * obtain acceleration. relativePosition acts as a vector that holds the position of the current object with
-         * respect to the other object. currentPosition and currentVelocity are arrays that act as vectors for the
-         * position and velocity of currentBody, respectively. otherPosition holds the position vector of otherBody.
-         */
-        double distance;
-        double otherMass;
-        double factor;
-        double[] relativePosition;
-        double[] currentPosition;
-        double[] currentVelocity;
-        double[] otherPosition;
-        
-        //velocityAdjustment and positionAdjustment are vectors that hold values by which the velocity and position
-        //of currentBody should be changed.
-        double[] velocityAdjustment = new double[3];
-        double[] positionAdjustment = new double[3];
-        
-        //samePosition is a boolean that indicates whether the two bodies occupy the same position in the rare event
-        //of a collision
-        boolean samePosition = true;
+        //The run ends at the first step whose time is not before the end of the run. The time of each step is found
+        //from the step counter, so no rounding error accumulates.
+        long endStep = startStep + (long)Math.ceil((duration - startTime)/timeStep);
+        step = startStep;
+        time = startTime;
         
-        //position, velocity, and mass are Strings that hold the components of position and velocity vectors of each object
-        //as well as mass. These will be written to the output file.
-        String position;
-        String velocity;
-        String mass;
-        
-        double time = 0;
-        
-        while(time < duration)
+        //The notices of the setup are printed now that the label and quietness of the simulation are known
+        if(!quiet)
         {
-            //Each time the update interval is met, the time is printed and the BufferedWriter is reinitialized in order
-            //to clear the output file
-            if(time % update == 0)
+            for(String notice : notices)
             {
-                System.out.println("Elapsed Time: " + time + " seconds");
-                out = new BufferedWriter(new FileWriter(output));
+                System.out.println(label + notice);
             }
+        }
+        notices.clear();
+        
+        //When metrics are collected, accelerations are found through the timed wrapper of the engine
+        ForceEngine forces = engine;
+        if(metrics != null)
+        {
+            metrics.begin(particles, baseline);
+            baseline = metrics.baseline();
+            forces = metrics.forces;
+        }
+        
+        while(step < endStep)
+        {
+            //The events due at this step are handled once, before the steps up to the next event are taken
+            dispatchEvents();
+            long nextEvent = Math.min(scheduler.nextDue(step), endStep);
             
-            //First loop goes through each body in the List and calculates velocity adjustment by adding the
-            //accelerations caused by gravitational force of each other mass
-            for(int i = 0; i < n; i++)
+            while(step < nextEvent)
             {
-                currentBody = bodies.get(i);
-                
-                //Creates position, velocity, and mass Strings to write to the output file after converting to parsecs,
-                //km/s, and solar masses.
-                position = currentBody.getPosition()[0]/PARSEC_CONVERSION + " " 
-                        + currentBody.getPosition()[1]/PARSEC_CONVERSION + " " 
-                        + currentBody.getPosition()[2]/PARSEC_CONVERSION;
-                velocity = currentBody.getVelocity()[0]/KILOMETER_CONVERSION + " " 
-                        + currentBody.getVelocity()[1]/KILOMETER_CONVERSION + " " 
-                        + currentBody.getVelocity()[2]/KILOMETER_CONVERSION;
-                mass = Double.toString(currentBody.getMass()/SOLAR_MASS);
-                
-                //Each time the update interval is met, the position, velocity, and mass of each object is written to
-                //the output file
-                if (time % update == 0)
+                //The Integrator uses the ForceEngine to find the acceleration of each body due to the gravitational
+                //force of every other mass and changes the velocities and positions accordingly. Velocities are only
+                //changed in separate kicks after each force evaluation, so the engine may work on blocks of bodies in
+                //parallel.
+                long stepStart = System.nanoTime();
+                for(int substep = 0; substep < substeps; substep++)
                 {
-                    out.write(position + "\t" + velocity + "\t" + mass + "\r\n");
-                    out.flush();
+                    integrator.step(particles, forces, timeStep/substeps);
                 }
+                long stepEnd = System.nanoTime();
                 
-                //Inner loop goes through every body that is not currentBody and sums accelerations due to gravity to find
-                //the velocity adjustment for currentBody
-                for(int j = 0; j < n; j++)
+                //A singular force leaves NaN or infinite values, which would spread to every body at the next step.
+                //If the run rolls back to a checkpoint, the events of that step are handled again.
+                if(guardNonFinite())
                 {
-                    if(i != j)
-                    {
-                        //Initializes variables to appropriate values of otherBody
-                        otherBody = bodies.get(j);
-                        otherMass = otherBody.getMass();
-                        distance = currentBody.distanceTo(otherBody);
-                        relativePosition = otherBody.relativePositionFrom(currentBody);
-                        
-                        factor = (otherMass*GRAVITATIONAL_CONSTANT*timeStep)/(distance*distance*distance);
-                        
-                        //The velocity adjustment is incremented by the product of the (MG)/r^3 and the relativePosition
-                        for(int k = 0; k < 3; k++)
-                        {
-                            velocityAdjustment[k] += relativePosition[k]*factor;
-                        }
-                    }
+                    break;
                 }
                 
-                //The velocity of the currentBody is modified based on the summation of velocity adjustments
-                currentBody.addVelocityAdjustment(velocityAdjustment);
-                
-                //The velocity adjustment is cleared
-                for(int p = 0; p < 3; p++)
+                //Potential collisions are resolved, and the bodies absorbed in collisions are removed from the system.
+                //The integrator must then find the accelerations of the merged bodies again.
+                if(collisions.resolve(particles) > 0)
                 {
-                    velocityAdjustment[p] = 0;
+                    integrator.reset();
+                    n = particles.n;
                 }
-            }
-            
-            //After looping through all the masses, the position of each mass is updated according to its velocity and
-            //the difference equation
-            for(int l = 0; l < n; l++)
-            {
-                currentBody = bodies.get(l);
-                currentPosition = currentBody.getPosition();
-                currentVelocity = currentBody.getVelocity();
                 
-                for(int m = 0; m < 3; m++)
+                if(metrics != null)
                 {
-                    positionAdjustment[m] = currentVelocity[m]*timeStep;
+                    metrics.endStep(stepEnd - stepStart, System.nanoTime() - stepEnd);
                 }
                 
-                currentBody.addPositionAdjustment(positionAdjustment);
+                step++;
+                time = startTime + (step - startStep)*timeStep;
             }
-            
-            //Loops through the masses to check for collisions
-            for(int m = 0; m < n; m++)
+        }
+        
+        //A final checkpoint lets the run be extended later by resuming it with a longer duration
+        if(checkpoints != null)
+        {
+            saveCheckpoint();
+        }
+        if(metrics != null)
+        {
+            metrics.report(particles, time, step);
+        }
+        closeOutputs();
+    }
+    
+    /**
+     * Waits for the queued checkpoints to be written and closes the output file, the metrics, and the renderer.
+     * 
+     * @throws IOException: if a checkpoint, the output file, or the metrics file cannot be written
+     */
+    private void closeOutputs() throws IOException
+    {
+        if(checkpoints != null)
+        {
+            checkpoints.close();
+        }
+        if(trajectory != null)
+        {
+            trajectory.close();
+        }
+        if(metrics != null)
+        {
+            metrics.close();
+        }
+        if(renderer != null)
+        {
+            try
             {
-                currentBody = bodies.get(m);
-                currentPosition = currentBody.getPosition();
-                
-                //Updates the graphics on appropriate interval
-                if(time % update == 0)
-                {
-                    data.addPoint(currentPosition);
-                }
-                
-                //Loops through every other body to determine if any other body occupies the same position
-                for(int p = 0; p < n; p++)
-                {
-                    if(m != p)
-                    {
-                        otherBody = bodies.get(p);
-                        otherPosition = otherBody.getPosition();
-                        for(int q = 0; q < 3; q++)
-                        {
-                            if(currentPosition[q] != otherPosition[q])
-                            {
-                                samePosition = false;
-                            }
-                        }
-                        if (samePosition)
-                        {
-                            //Applies conservation of linear momentum in the case of a collision
-                           currentBody.conserveMomentum(otherBody);
-                           samePosition = true;
-                        }
-                    }
-                }
+                renderer.close();
             }
-            
-            //Completes graphics update on appropriate interval
-            if (time % update == 0)
+            catch(InterruptedException e)
             {
-                data.update();
+                Thread.currentThread().interrupt();
             }
-            
-            time += timeStep;
+        }
+    }
+    
+    /**
+     * Handles the events that the scheduler finds due at the current step: a checkpoint is saved, the time is printed,
+     * the metrics of the interval are reported, a frame holding the position, velocity, and mass of each object is
+     * appended to the output file, and a snapshot is handed to the renderer, which drops it if it has fallen behind.
+     * 
+     * @throws IOException: if the output file or metrics file cannot be written
+     */
+    private void dispatchEvents() throws IOException
+    {
+        //The checkpoint is saved before any other event of the step, so that a run resumed from it handles the events
+        //of the step itself exactly as the original run did
+        if(checkpoints != null && scheduler.isDue(StepScheduler.Event.CHECKPOINT, step))
+        {
+            saveCheckpoint();
+        }
+        if(!quiet && scheduler.isDue(StepScheduler.Event.PROGRESS, step))
+        {
+            System.out.println(label + "Elapsed Time: " + time + " seconds");
+        }
+        if(metrics != null && scheduler.isDue(StepScheduler.Event.METRICS, step))
+        {
+            metrics.report(particles, time, step);
+        }
+        
+        long ioStart = System.nanoTime();
+        if(trajectory != null && scheduler.isDue(StepScheduler.Event.SNAPSHOT, step))
+        {
+            trajectory.writeFrame(particles, time, step);
+        }
+        if(renderer != null && scheduler.isDue(StepScheduler.Event.RENDER, step))
+        {
+            renderer.submit(particles);
+        }
+        if(metrics != null)
+        {
+            metrics.addIo(System.nanoTime() - ioStart);
+        }
+    }
+    
+    /**
+     * Checks the bodies for NaN or infinite positions and velocities after a step. If there are any, the run either
+     * halts or, if the settings ask for it and a checkpoint has been written, rolls back to the last checkpoint.
+     * After a rollback, every time step is taken in twice as many substeps as before until the next checkpoint is
+     * saved, so the close encounter that caused the problem is integrated more finely. A run that rolls back
+     * MAX_ROLLBACKS times without reaching a new checkpoint halts, as does a run whose checkpoint is not finite itself
+     * or already has singular forces, as between coincident bodies, which no number of substeps can help.
+     * 
+     * @return: true if the run rolled back, in which case the bodies, step, and time are those of the checkpoint
+     * @throws IOException: if the checkpoint cannot be read or the output file cannot be cut back
+     * @throws ArithmeticException: if the run halts
+     */
+    private boolean guardNonFinite() throws IOException
+    {
+        int body = particles.firstNonFinite();
+        if(body < 0)
+        {
+            return false;
+        }
+        
+        String problem = "Body " + body + " has a NaN or infinite position or velocity after the step from time " + time
+                + " s (step " + step + ")";
+        if(!settings.onNonFinite.equals("rollback") || checkpoints == null)
+        {
+            closeOutputs();
+            throw new ArithmeticException(problem + ". A softening length may keep close encounters finite.");
+        }
+        checkpoints.flush();
+        if(checkpoints.getWrittenCount() == 0 || rollbacks == MAX_ROLLBACKS)
+        {
+            closeOutputs();
+            throw new ArithmeticException(problem + (rollbacks == MAX_ROLLBACKS
+                    ? ", even after " + MAX_ROLLBACKS + " rollbacks" : ", and no checkpoint has been written"));
+        }
+        
+        Checkpoint last = Checkpoint.read(checkpoints.file);
+        if(last.particles.firstNonFinite() >= 0 || last.particles.firstNonFiniteAcceleration() >= 0)
+        {
+            closeOutputs();
+            throw new ArithmeticException(problem + ", and the checkpoint at step " + last.step
+                    + " is not finite either");
+        }
+        
+        //The forces at the checkpoint are found on the bodies of the failed step, which are no longer needed, so that
+        //the accelerations of the checkpoint are kept as they were saved
+        particles.ensureCapacity(last.particles.n);
+        particles.n = last.particles.n;
+        System.arraycopy(last.particles.x, 0, particles.x, 0, particles.n);
+        System.arraycopy(last.particles.y, 0, particles.y, 0, particles.n);
+        System.arraycopy(last.particles.z, 0, particles.z, 0, particles.n);
+        System.arraycopy(last.particles.mass, 0, particles.mass, 0, particles.n);
+        engine.computeAccelerations(particles);
+        body = particles.firstNonFiniteAcceleration();
+        if(body >= 0)
+        {
+            closeOutputs();
+            throw new ArithmeticException(problem + ". The force on body " + body + " is already singular at the"
+                    + " checkpoint at step " + last.step + ", so rolling back cannot help. A softening length may keep"
+                    + " close encounters finite.");
+        }
+        
+        particles = last.particles;
+        n = particles.n;
+        last.restore(integrator, engine);
+        step = last.step;
+        time = last.time;
+        if(trajectory != null)
+        {
+            trajectory.resume(last.frameCount, last.trajectoryBytes);
+        }
+        
+        rollbacks++;
+        substeps *= 2;
+        rollbackStep = step;
+        System.out.println(label + problem + ". Rolled back to step " + step + "; taking " + substeps
+                + " substeps per step.");
+        return true;
+    }
+    
+    /**
+     * Hands a copy of the complete state of the run to the checkpoint writer. Once a checkpoint is saved beyond the
+     * step to which the run last rolled back, the time steps are no longer divided into substeps. A state with a NaN
+     * or infinite value, such as the accelerations of coincident bodies, is never saved, since rolling back to it could
+     * only fail again; the run halts instead.
+     * 
+     * @throws IOException: if an earlier checkpoint could not be written
+     * @throws ArithmeticException: if the state is not finite
+     */
+    private void saveCheckpoint() throws IOException
+    {
+        int body = particles.firstNonFinite();
+        if(body < 0)
+        {
+            body = particles.firstNonFiniteAcceleration();
+        }
+        if(body >= 0)
+        {
+            closeOutputs();
+            throw new ArithmeticException("Body " + body + " has a NaN or infinite position, velocity, or acceleration"
+                    + " at time " + time + " s (step " + step + "), so no checkpoint is saved. A softening length may"
+                    + " keep close encounters finite.");
+        }
+        if(step > rollbackStep)
+        {
+            substeps = 1;
+            rollbacks = 0;
+        }
+        long frames = trajectory == null ? 0 : trajectory.getFrameCount();
+        long bytes = trajectory == null ? 0 : trajectory.getFileLength();
+        checkpoints.submit(particles, integrator, settings.integrator, engine, baseline, time, step, timeStep,
+                settings.seed, frames, bytes);
+    }
+    
+    /**
+     * Changes the velocity of each body based on its acceleration and the difference equation.
+     * 
+     * @param particles: the bodies in the system, whose accelerations have been found by a ForceEngine
+     * @param dt: the length of the kick in seconds
+     */
+    public static void kick(ParticleStore particles, double dt)
+    {
+        double[] vx = particles.vx, vy = particles.vy, vz = particles.vz;
+        double[] ax = particles.ax, ay = particles.ay, az = particles.az;
+        
+        for(int i = 0; i < particles.n; i++)
+        {
+            vx[i] += ax[i]*dt;
+            vy[i] += ay[i]*dt;
+            vz[i] += az[i]*dt;
+        }
+    }
+    
+    /**
+     * Changes the position of each body based on its velocity and the difference equation.
+     * 
+     * @param particles: the bodies in the system
+     * @param dt: the length of the drift in seconds
+     */
+    public static void drift(ParticleStore particles, double dt)
+    {
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double[] vx = particles.vx, vy = particles.vy, vz = particles.vz;
+        
+        for(int l = 0; l < particles.n; l++)
+        {
+            x[l] += vx[l]*dt;
+            y[l] += vy[l]*dt;
+            z[l] += vz[l]*dt;
         }
     }
 }
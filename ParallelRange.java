@@ -0,0 +1,109 @@
+package numericalmethods;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelRange class runs a loop over a range of body indices on a ForkJoinPool. The range is split in half
+ * repeatedly until each block is no larger than a grain size, and the blocks are then run by the worker threads of the
+ * pool. Each block must only write to the elements of the arrays that belong to its own bodies, so the result of the
+ * loop does not depend on how the blocks are scheduled. If no pool is given, the whole range is run on the calling
+ * thread.
+ *
+ */
+public final class ParallelRange
+{
+    //BLOCKS_PER_THREAD is the number of blocks into which the range is split for each thread, so that threads that
+    //finish early can steal work from the others
+    public static final int BLOCKS_PER_THREAD = 8;
+
+    //MIN_GRAIN is the smallest number of bodies in a block
+    public static final int MIN_GRAIN = 16;
+
+    /**
+     * A Block is the body of a loop, run once for each block of indices.
+     */
+    public interface Block
+    {
+        /**
+         * Runs the loop for the bodies with indices from through to - 1.
+         */
+        void run(int from, int to);
+    }
+
+    //The class only has static methods and is never instantiated
+    private ParallelRange()
+    {
+    }
+
+    /**
+     * Runs the given block over the indices 0 through n - 1.
+     *
+     * @param pool: the pool on which the blocks are run, or null to run the whole range on the calling thread
+     * @param n: the number of indices
+     * @param block: the body of the loop
+     */
+    public static void forEach(ForkJoinPool pool, int n, Block block)
+    {
+        if(pool == null || pool.getParallelism() == 1 || n <= MIN_GRAIN)
+        {
+            block.run(0, n);
+            return;
+        }
+        int grain = Math.max(MIN_GRAIN, n/(BLOCKS_PER_THREAD*pool.getParallelism()));
+        pool.invoke(new Task(block, 0, n, grain));
+    }
+
+    /**
+     * Runs the given block once for each of a number of parts, calling block.run(part, part + 1) for parts 0 through
+     * parts - 1. Unlike forEach(), every part is run as its own task, which suits loops that have already been divided
+     * into one part per thread.
+     *
+     * @param pool: the pool on which the parts are run, or null to run every part on the calling thread
+     * @param parts: the number of parts
+     * @param block: the body of the loop
+     */
+    public static void forEachPart(ForkJoinPool pool, int parts, Block block)
+    {
+        if(pool == null || parts == 1)
+        {
+            for(int part = 0; part < parts; part++)
+            {
+                block.run(part, part + 1);
+            }
+            return;
+        }
+        pool.invoke(new Task(block, 0, parts, 1));
+    }
+
+    /**
+     * A Task runs a block over a range of indices, splitting the range in half while it is larger than the grain size.
+     */
+    private static class Task extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Block block;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Task(Block block, int from, int to, int grain)
+        {
+            this.block = block;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        protected void compute()
+        {
+            if(to - from <= grain)
+            {
+                block.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Task(block, from, middle, grain), new Task(block, middle, to, grain));
+        }
+    }
+}
@@ -0,0 +1,868 @@
+package numericalmethods;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ParticleMesh class is a ForceEngine that finds accelerations on a mesh, which suits large systems whose bodies
+ * are spread fairly evenly through space. Every time step, a cubical mesh of meshSize^3 cells is laid over the bounding
+ * box of the bodies and the mass of each body is shared among the eight cells nearest to it (cloud-in-cell
+ * assignment). The gravitational potential of the mesh is found by convolving the mass of each cell with a Green's
+ * function using fast Fourier transforms, the acceleration of each cell is found from differences of the potential,
+ * and the acceleration of each body is interpolated from the same eight cells. A step takes time in proportion to
+ * n + G log G, where G is the number of cells.
+ *
+ * The space is not periodic. The mesh is padded with empty cells to twice its size in each dimension before the
+ * convolution, so that the masses on one side of the mesh do not pull on the bodies on the other side.
+ *
+ * The Green's function is that of a mass smeared over a Gaussian of width SPLIT_CELLS cells, -G erf(r/2s)/r, so the
+ * mesh only carries the long-range part of the force and resolves nothing much smaller than a few cells. In P3M mode,
+ * the short-range remainder, -G erfc(r/2s)/r, is added by summing the pairs of bodies closer than CUTOFF_SPLITS
+ * Gaussian widths directly. Candidate pairs are found with a chaining mesh of cells at least that wide, so each body
+ * only visits the bodies in its own cell and the 26 cells around it. Together the two parts give the full force to
+ * within a fraction of a percent, at a cost that grows with the number of bodies within the cutoff of each body.
+ *
+ * If a ForkJoinPool is given, each worker thread assigns its share of the bodies to a mesh of its own, the meshes are
+ * added in a fixed order, and the transforms, differences, and interpolation are run over blocks of lines, cells, and
+ * bodies in parallel. The results are therefore reproducible for a given number of threads.
+ *
+ * In P3M mode the force may be softened (see Softening). The short-range sum then adds the softened force less the
+ * part carried by the mesh, so the softening applies to the pairs within the cutoff, which should be well beyond the
+ * softening length. The mesh alone already smooths the force over a few cells and is not softened further.
+ *
+ */
+public class ParticleMesh implements ForceEngine
+{
+    //SPLIT_CELLS is the width in cells of the Gaussian that divides the force between the mesh and the direct sum
+    public static final double SPLIT_CELLS = 1.25;
+
+    //CUTOFF_SPLITS is the distance, in Gaussian widths, beyond which the short-range force is neglected; at this
+    //distance it has fallen to about 0.2% of the full force
+    public static final double CUTOFF_SPLITS = 4.5;
+
+    //BLOCK_COLUMNS is the number of neighbouring lines transformed together along the y and x axes, chosen so that a
+    //block of a 256-cell padded mesh fits in the cache
+    private static final int BLOCK_COLUMNS = 64;
+
+    //MARGIN is the number of empty cells left between the bounding box of the bodies and each face of the mesh, so that
+    //the cells used by the assignment and the differences never fall outside the mesh
+    public static final int MARGIN = 4;
+
+    //meshSize is the number of cells along each side of the mesh, a power of two, and shortRange is true in P3M mode
+    public final int meshSize;
+    public final boolean shortRange;
+
+    //paddedSize is the number of cells along each side of the padded mesh on which the convolution is done
+    private final int paddedSize;
+
+    //softening is the softening of the short-range force
+    private final Softening softening;
+
+    //pool is the ForkJoinPool on which the work is shared, or null if the engine runs on the calling thread, and parts
+    //is the number of parts into which the work is divided
+    private final ForkJoinPool pool;
+    private final int parts;
+
+    //greens holds the Fourier transform of the Green's function on the padded mesh for a cell size of 1 meter and a
+    //gravitational constant of 1; it is real because the Green's function is symmetric
+    private final double[] greens;
+
+    //real and imaginary hold the padded mesh during the transforms, indexed (x*paddedSize + y)*paddedSize + z
+    private final double[] real, imaginary;
+
+    //partMass holds the mass assigned to each cell of the mesh by each part, indexed (x*meshSize + y)*meshSize + z
+    private final double[][] partMass;
+
+    //meshX, meshY, and meshZ hold the acceleration of each cell of the mesh in meters/second^2 per meter of cell size
+    private final double[] meshX, meshY, meshZ;
+
+    //lineReal and lineImaginary hold the line being transformed by each part
+    private final double[][] lineReal, lineImaginary;
+
+    //cosine and sine hold the twiddle factors of a transform of paddedSize points, and reversed holds the bit-reversed
+    //order of the points
+    private final double[] cosine, sine;
+    private final int[] reversed;
+
+    //originX, originY, and originZ are the position of the corner of the mesh and cellSize is the side length of a cell
+    //in meters, for the current step
+    private double originX, originY, originZ, cellSize;
+
+    //The chaining mesh of the short-range sum. chainCells is the number of cells along each side, chainSize is their
+    //side length in meters, cellStart holds the position in cellBodies of the first body of each cell (with one extra
+    //element holding the number of bodies), cellBodies holds the bodies sorted by cell, and bodyCell holds the cell of
+    //each body.
+    private int chainCells;
+    private double chainSize;
+    private int[] cellStart = new int[1], cellBodies = new int[0], bodyCell = new int[0];
+
+    //interactions is the number of interactions evaluated by the last call to computeAccelerations(), and
+    //blockInteractions collects the counts of the blocks of bodies that sum the short-range force in parallel
+    private long interactions;
+    private final LongAdder blockInteractions = new LongAdder();
+
+    /**
+     * Creates a particle-mesh engine that runs on the calling thread.
+     *
+     * @param meshSize: the number of cells along each side of the mesh, a power of two of at least 16
+     * @param shortRange: true to add the short-range force by direct summation (P3M), or false for the mesh alone (PM)
+     */
+    public ParticleMesh(int meshSize, boolean shortRange)
+    {
+        this(meshSize, shortRange, null);
+    }
+
+    /**
+     * Creates a particle-mesh engine that shares its work among the threads of the given pool.
+     *
+     * @param meshSize: the number of cells along each side of the mesh, a power of two of at least 16
+     * @param shortRange: true to add the short-range force by direct summation (P3M), or false for the mesh alone (PM)
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     */
+    public ParticleMesh(int meshSize, boolean shortRange, ForkJoinPool pool)
+    {
+        this(meshSize, shortRange, pool, Softening.NONE);
+    }
+
+    /**
+     * Creates a particle-mesh engine that softens the short-range force of nearby bodies.
+     *
+     * @param meshSize: the number of cells along each side of the mesh, a power of two of at least 16
+     * @param shortRange: true to add the short-range force by direct summation (P3M), or false for the mesh alone (PM)
+     * @param pool: the ForkJoinPool to use, or null to run on the calling thread
+     * @param softening: the softening of the force, which only affects the short-range sum
+     */
+    public ParticleMesh(int meshSize, boolean shortRange, ForkJoinPool pool, Softening softening)
+    {
+        if(meshSize < 16 || Integer.bitCount(meshSize) != 1)
+        {
+            throw new IllegalArgumentException("The mesh size must be a power of two of at least 16: " + meshSize);
+        }
+        this.meshSize = meshSize;
+        this.shortRange = shortRange;
+        this.pool = pool;
+        this.softening = softening;
+        parts = pool == null ? 1 : pool.getParallelism();
+        paddedSize = 2*meshSize;
+
+        int padded = paddedSize*paddedSize*paddedSize;
+        real = new double[padded];
+        imaginary = new double[padded];
+        greens = new double[padded];
+        partMass = new double[parts][meshSize*meshSize*meshSize];
+        meshX = new double[meshSize*meshSize*meshSize];
+        meshY = new double[meshSize*meshSize*meshSize];
+        meshZ = new double[meshSize*meshSize*meshSize];
+        lineReal = new double[parts][paddedSize];
+        lineImaginary = new double[parts][paddedSize];
+
+        cosine = new double[paddedSize/2];
+        sine = new double[paddedSize/2];
+        for(int k = 0; k < paddedSize/2; k++)
+        {
+            cosine[k] = Math.cos(2*Math.PI*k/paddedSize);
+            sine[k] = Math.sin(2*Math.PI*k/paddedSize);
+        }
+        reversed = new int[paddedSize];
+        int bits = Integer.numberOfTrailingZeros(paddedSize);
+        for(int k = 0; k < paddedSize; k++)
+        {
+            reversed[k] = Integer.reverse(k) >>> (32 - bits);
+        }
+
+        transformGreens();
+    }
+
+    /**
+     * Assigns the bodies to the mesh, finds the long-range acceleration of each body from the mesh, and in P3M mode adds
+     * the short-range acceleration due to nearby bodies.
+     *
+     * @param particles: the bodies in the system, whose accelerations are overwritten
+     */
+    public void computeAccelerations(ParticleStore particles)
+    {
+        int n = particles.n;
+        interactions = n;
+        if(n == 0)
+        {
+            return;
+        }
+
+        placeMesh(particles);
+        if(pool == null)
+        {
+            assignMass(particles, 0);
+            gatherMass(0, paddedSize);
+        }
+        else
+        {
+            ParallelRange.forEachPart(pool, parts, (part, end) -> assignMass(particles, part));
+            ParallelRange.forEach(pool, paddedSize, this::gatherMass);
+        }
+
+        //The potential is the inverse transform of the product of the transforms of the mass and the Green's function
+        transform(true);
+        int padded = real.length;
+        if(pool == null)
+        {
+            multiplyGreens(0, padded);
+        }
+        else
+        {
+            ParallelRange.forEach(pool, padded, this::multiplyGreens);
+        }
+        transform(false);
+
+        if(pool == null)
+        {
+            differentiate(MARGIN/2, meshSize - MARGIN/2);
+            interpolate(particles, 0, n);
+        }
+        else
+        {
+            ParallelRange.forEach(pool, meshSize - MARGIN, (from, to) -> differentiate(from + MARGIN/2, to + MARGIN/2));
+            ParallelRange.forEach(pool, n, (from, to) -> interpolate(particles, from, to));
+        }
+
+        if(shortRange)
+        {
+            buildChains(particles);
+            if(pool == null)
+            {
+                interactions += sumShortRange(particles, 0, n);
+            }
+            else
+            {
+                ParallelRange.forEach(pool, n, (from, to) -> blockInteractions.add(sumShortRange(particles, from, to)));
+                interactions += blockInteractions.sumThenReset();
+            }
+        }
+    }
+
+    //Returns the number of interactions evaluated by the last call to computeAccelerations(): one with the mesh for
+    //each body, and one for each pair of bodies summed by the short-range force
+    public long interactionCount(ParticleStore particles)
+    {
+        return interactions;
+    }
+
+    /**
+     * Lays the mesh over the bounding box of the bodies, leaving MARGIN empty cells on every side.
+     *
+     * @param particles: the bodies in the system
+     */
+    private void placeMesh(ParticleStore particles)
+    {
+        int n = particles.n;
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < n; i++)
+        {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            minZ = Math.min(minZ, z[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+            maxZ = Math.max(maxZ, z[i]);
+        }
+        double size = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+
+        //The bodies are kept slightly inside the last cell of the margin so that rounding cannot push one past it
+        cellSize = size > 0 ? size*(1 + 1e-9)/(meshSize - 2*MARGIN) : 1;
+        originX = minX - MARGIN*cellSize;
+        originY = minY - MARGIN*cellSize;
+        originZ = minZ - MARGIN*cellSize;
+    }
+
+    /**
+     * Shares the mass of one part of the bodies among the eight cells nearest to each body.
+     *
+     * @param particles: the bodies in the system
+     * @param part: the part of the bodies to be assigned, whose own mesh is overwritten
+     */
+    private void assignMass(ParticleStore particles, int part)
+    {
+        int n = particles.n;
+        double[] cells = partMass[part];
+        Arrays.fill(cells, 0);
+        int m = meshSize;
+
+        for(int i = (int)((long)n*part/parts), end = (int)((long)n*(part + 1)/parts); i < end; i++)
+        {
+            //The mesh coordinates are measured from the center of the first cell, so that a body at the center of a
+            //cell gives it all of its mass
+            double u = (particles.x[i] - originX)/cellSize - 0.5;
+            double v = (particles.y[i] - originY)/cellSize - 0.5;
+            double w = (particles.z[i] - originZ)/cellSize - 0.5;
+            int cx = (int)Math.floor(u), cy = (int)Math.floor(v), cz = (int)Math.floor(w);
+            double fx = u - cx, fy = v - cy, fz = w - cz;
+            double mass = particles.mass[i];
+
+            int cell = (cx*m + cy)*m + cz;
+            cells[cell] += mass*(1 - fx)*(1 - fy)*(1 - fz);
+            cells[cell + 1] += mass*(1 - fx)*(1 - fy)*fz;
+            cells[cell + m] += mass*(1 - fx)*fy*(1 - fz);
+            cells[cell + m + 1] += mass*(1 - fx)*fy*fz;
+            cells[cell + m*m] += mass*fx*(1 - fy)*(1 - fz);
+            cells[cell + m*m + 1] += mass*fx*(1 - fy)*fz;
+            cells[cell + m*m + m] += mass*fx*fy*(1 - fz);
+            cells[cell + m*m + m + 1] += mass*fx*fy*fz;
+        }
+    }
+
+    /**
+     * Adds the meshes of the parts into the padded mesh, in order of part, for the planes of the padded mesh with x
+     * indices from through to - 1. The padding and the imaginary parts are cleared.
+     *
+     * @param from: the first plane
+     * @param to: one more than the last plane
+     */
+    private void gatherMass(int from, int to)
+    {
+        int m = meshSize, p = paddedSize;
+        for(int ix = from; ix < to; ix++)
+        {
+            Arrays.fill(real, ix*p*p, (ix + 1)*p*p, 0);
+            Arrays.fill(imaginary, ix*p*p, (ix + 1)*p*p, 0);
+            if(ix >= m)
+            {
+                continue;
+            }
+            for(int iy = 0; iy < m; iy++)
+            {
+                for(int iz = 0; iz < m; iz++)
+                {
+                    double mass = 0;
+                    for(int part = 0; part < parts; part++)
+                    {
+                        mass += partMass[part][(ix*m + iy)*m + iz];
+                    }
+                    real[(ix*p + iy)*p + iz] = mass;
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies the transform of the mass by the transform of the Green's function for the elements from through to -
+     * 1 of the padded mesh. The Green's function is scaled to the current cell size, and the scaling of the inverse
+     * transform is folded in.
+     *
+     * @param from: the first element
+     * @param to: one more than the last element
+     */
+    private void multiplyGreens(int from, int to)
+    {
+        double scale = Nbody.GRAVITATIONAL_CONSTANT/(cellSize*real.length);
+        for(int k = from; k < to; k++)
+        {
+            double factor = greens[k]*scale;
+            real[k] *= factor;
+            imaginary[k] *= factor;
+        }
+    }
+
+    /**
+     * Finds the acceleration of the cells of the mesh with x indices from through to - 1 from fourth-order central
+     * differences of the potential, which the inverse transform has left in the first meshSize^3 cells of the padded
+     * mesh. The cells within MARGIN/2 of a face of the mesh are skipped, since no body uses them.
+     *
+     * @param from: the first plane
+     * @param to: one more than the last plane
+     */
+    private void differentiate(int from, int to)
+    {
+        int m = meshSize, p = paddedSize;
+        int first = MARGIN/2, last = m - MARGIN/2;
+        for(int ix = from; ix < to; ix++)
+        {
+            for(int iy = first; iy < last; iy++)
+            {
+                for(int iz = first; iz < last; iz++)
+                {
+                    int k = (ix*p + iy)*p + iz;
+                    int cell = (ix*m + iy)*m + iz;
+                    meshX[cell] = difference(k, p*p);
+                    meshY[cell] = difference(k, p);
+                    meshZ[cell] = difference(k, 1);
+                }
+            }
+        }
+    }
+
+    //Returns minus the derivative of the potential at element k of the padded mesh along the axis with the given
+    //stride, per meter of cell size
+    private double difference(int k, int stride)
+    {
+        return (8*(real[k - stride] - real[k + stride]) - (real[k - 2*stride] - real[k + 2*stride]))/12;
+    }
+
+    /**
+     * Interpolates the acceleration of the bodies with indices from through to - 1 from the eight cells nearest to
+     * each body, with the same weights with which their mass was assigned.
+     *
+     * @param particles: the bodies in the system, whose accelerations are overwritten
+     * @param from: the index of the first body
+     * @param to: one more than the index of the last body
+     */
+    private void interpolate(ParticleStore particles, int from, int to)
+    {
+        int m = meshSize;
+        double scale = 1/cellSize;
+        for(int i = from; i < to; i++)
+        {
+            double u = (particles.x[i] - originX)/cellSize - 0.5;
+            double v = (particles.y[i] - originY)/cellSize - 0.5;
+            double w = (particles.z[i] - originZ)/cellSize - 0.5;
+            int cx = (int)Math.floor(u), cy = (int)Math.floor(v), cz = (int)Math.floor(w);
+            double fx = u - cx, fy = v - cy, fz = w - cz;
+
+            double ax = 0, ay = 0, az = 0;
+            for(int corner = 0; corner < 8; corner++)
+            {
+                int dx = corner >> 2, dy = (corner >> 1) & 1, dz = corner & 1;
+                double weight = (dx == 0 ? 1 - fx : fx)*(dy == 0 ? 1 - fy : fy)*(dz == 0 ? 1 - fz : fz);
+                int cell = ((cx + dx)*m + cy + dy)*m + cz + dz;
+                ax += weight*meshX[cell];
+                ay += weight*meshY[cell];
+                az += weight*meshZ[cell];
+            }
+            particles.ax[i] = ax*scale;
+            particles.ay[i] = ay*scale;
+            particles.az[i] = az*scale;
+        }
+    }
+
+    /**
+     * Sorts the bodies into the cells of the chaining mesh, whose cells are at least as wide as the cutoff of the
+     * short-range force.
+     *
+     * @param particles: the bodies in the system
+     */
+    private void buildChains(ParticleStore particles)
+    {
+        int n = particles.n;
+        double cutoff = CUTOFF_SPLITS*SPLIT_CELLS*cellSize;
+        chainCells = Math.max(1, (int)(meshSize*cellSize/cutoff));
+        chainSize = meshSize*cellSize/chainCells;
+
+        int cells = chainCells*chainCells*chainCells;
+        if(cellStart.length != cells + 1)
+        {
+            cellStart = new int[cells + 1];
+        }
+        if(cellBodies.length < n)
+        {
+            cellBodies = new int[n];
+            bodyCell = new int[n];
+        }
+
+        //The bodies are sorted by counting the bodies in each cell, so that the bodies of a cell stay in order of index
+        Arrays.fill(cellStart, 0);
+        for(int i = 0; i < n; i++)
+        {
+            int cell = (chainIndex(particles.x[i] - originX)*chainCells + chainIndex(particles.y[i] - originY))
+                    *chainCells + chainIndex(particles.z[i] - originZ);
+            bodyCell[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for(int cell = 0; cell < cells; cell++)
+        {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        for(int i = 0; i < n; i++)
+        {
+            cellBodies[cellStart[bodyCell[i]]++] = i;
+        }
+
+        //Filling the cells moved each start to the start of the next cell, so the starts are moved back
+        for(int cell = cells; cell > 0; cell--)
+        {
+            cellStart[cell] = cellStart[cell - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    //Returns the index along one axis of the chaining cell holding a body at the given distance from the mesh corner
+    private int chainIndex(double offset)
+    {
+        return Math.min(chainCells - 1, (int)(offset/chainSize));
+    }
+
+    /**
+     * Adds the short-range acceleration of the bodies with indices from through to - 1 due to every body within the
+     * cutoff, found in the body's own cell of the chaining mesh and the cells around it.
+     *
+     * @param particles: the bodies in the system, whose accelerations have been found from the mesh
+     * @param from: the index of the first body
+     * @param to: one more than the index of the last body
+     * @return: the number of pairs summed
+     */
+    private long sumShortRange(ParticleStore particles, int from, int to)
+    {
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double[] mass = particles.mass;
+        double split = SPLIT_CELLS*cellSize;
+        double cutoffSquared = CUTOFF_SPLITS*split*CUTOFF_SPLITS*split;
+        boolean softened = softening.isSoftened();
+        double meshFactor = Nbody.GRAVITATIONAL_CONSTANT/(8*split*split*split);
+        int c = chainCells;
+        long count = 0;
+
+        for(int i = from; i < to; i++)
+        {
+            double xi = x[i], yi = y[i], zi = z[i];
+            int cell = bodyCell[i];
+            int cx = cell/(c*c), cy = (cell/c)%c, cz = cell%c;
+            double ax = 0, ay = 0, az = 0;
+
+            for(int nx = Math.max(0, cx - 1); nx <= Math.min(c - 1, cx + 1); nx++)
+            {
+                for(int ny = Math.max(0, cy - 1); ny <= Math.min(c - 1, cy + 1); ny++)
+                {
+                    for(int nz = Math.max(0, cz - 1); nz <= Math.min(c - 1, cz + 1); nz++)
+                    {
+                        int neighbour = (nx*c + ny)*c + nz;
+                        for(int k = cellStart[neighbour], end = cellStart[neighbour + 1]; k < end; k++)
+                        {
+                            int j = cellBodies[k];
+                            double dx = x[j] - xi;
+                            double dy = y[j] - yi;
+                            double dz = z[j] - zi;
+                            double distanceSquared = dx*dx + dy*dy + dz*dz;
+                            if(j == i || distanceSquared >= cutoffSquared)
+                            {
+                                continue;
+                            }
+
+                            //The full force is scaled by the fraction of it that the mesh leaves out. A softened
+                            //force instead has the part carried by the mesh taken away, which stays finite as the
+                            //bodies meet.
+                            double s = Math.sqrt(distanceSquared)/(2*split);
+                            double factor = softened
+                                    ? softening.factor(mass[j], distanceSquared)
+                                            - mass[j]*meshFactor*meshShare(s)
+                                    : GravityKernel.factor(mass[j], distanceSquared)
+                                            *(erfc(s) + 2/Math.sqrt(Math.PI)*s*Math.exp(-s*s));
+                            ax += dx*factor;
+                            ay += dy*factor;
+                            az += dz*factor;
+                            count++;
+                        }
+                    }
+                }
+            }
+
+            particles.ax[i] += ax;
+            particles.ay[i] += ay;
+            particles.az[i] += az;
+        }
+        return count;
+    }
+
+    /**
+     * Fills the padded mesh with the long-range Green's function for a cell size of 1 meter and a gravitational
+     * constant of 1, -erf(r/2s)/r, and keeps its transform. Distances are measured to the nearest image across the
+     * padded mesh, so that the convolution of the mass with it gives the potential of an isolated system.
+     */
+    private void transformGreens()
+    {
+        int p = paddedSize;
+        double split = SPLIT_CELLS;
+        for(int ix = 0; ix < p; ix++)
+        {
+            double dx = Math.min(ix, p - ix);
+            for(int iy = 0; iy < p; iy++)
+            {
+                double dy = Math.min(iy, p - iy);
+                for(int iz = 0; iz < p; iz++)
+                {
+                    double dz = Math.min(iz, p - iz);
+                    double r = Math.sqrt(dx*dx + dy*dy + dz*dz);
+                    int k = (ix*p + iy)*p + iz;
+
+                    //At r = 0 the limit of erf(r/2s)/r is 1/(s*sqrt(pi))
+                    real[k] = r > 0 ? -(1 - erfc(r/(2*split)))/r : -1/(split*Math.sqrt(Math.PI));
+                    imaginary[k] = 0;
+                }
+            }
+        }
+
+        //Every line holds part of the Green's function, so the transform is taken over the whole padded mesh
+        transformAll(true);
+
+        //Assigning the mass and interpolating the accelerations each smooth the force by the cloud-in-cell window, whose
+        //transform is sinc^2 along each axis, so the Green's function is divided by the square of that transform
+        for(int ix = 0; ix < p; ix++)
+        {
+            double wx = sinc(Math.PI*Math.min(ix, p - ix)/p);
+            for(int iy = 0; iy < p; iy++)
+            {
+                double wy = sinc(Math.PI*Math.min(iy, p - iy)/p);
+                for(int iz = 0; iz < p; iz++)
+                {
+                    double wz = sinc(Math.PI*Math.min(iz, p - iz)/p);
+                    double window = wx*wx*wy*wy*wz*wz;
+                    int k = (ix*p + iy)*p + iz;
+                    greens[k] = real[k]/(window*window);
+                }
+            }
+        }
+    }
+
+    //Returns sin(x)/x, or 1 at x = 0
+    private static double sinc(double x)
+    {
+        return x > 0 ? Math.sin(x)/x : 1;
+    }
+
+    /**
+     * Transforms the padded mesh in all three dimensions. Only the first meshSize^3 cells hold mass, and only they are
+     * needed from the potential, so the lines that are known to be empty or are not needed are skipped: the forward
+     * transform runs along z, y, and then x, and the inverse transform along x, y, and then z.
+     *
+     * @param forward: true for the forward transform, or false for the inverse transform without its scaling
+     */
+    private void transform(boolean forward)
+    {
+        int m = meshSize;
+        if(forward)
+        {
+            transformRows(true, m, m);
+            transformColumns(true, m);
+            transformPlanes(true);
+        }
+        else
+        {
+            transformPlanes(false);
+            transformColumns(false, m);
+            transformRows(false, m, m);
+        }
+    }
+
+    /**
+     * Transforms the whole padded mesh in all three dimensions.
+     *
+     * @param forward: true for the forward transform, or false for the inverse transform without its scaling
+     */
+    private void transformAll(boolean forward)
+    {
+        int p = paddedSize;
+        transformRows(forward, p, p);
+        transformColumns(forward, p);
+        transformPlanes(forward);
+    }
+
+    /**
+     * Transforms the lines along z whose x index is below planes and whose y index is below rows. The points of a line
+     * are contiguous, so each line is copied into the line buffers of a part in bit-reversed order and transformed
+     * there.
+     *
+     * @param forward: true for the forward transform, or false for the inverse transform
+     * @param planes: the number of x indices whose lines are transformed
+     * @param rows: the number of y indices whose lines are transformed
+     */
+    private void transformRows(boolean forward, int planes, int rows)
+    {
+        if(pool == null)
+        {
+            transformRows(forward, planes, rows, 0, 1);
+        }
+        else
+        {
+            ParallelRange.forEachPart(pool, parts, (part, end) -> transformRows(forward, planes, rows, part, parts));
+        }
+    }
+
+    /**
+     * Transforms the lines along z numbered part, part + parts, part + 2*parts, and so on, where line x*rows + y is the
+     * line at the given x and y indices, using the line buffers of the given part.
+     */
+    private void transformRows(boolean forward, int planes, int rows, int part, int parts)
+    {
+        int p = paddedSize;
+        double[] lineRe = lineReal[part], lineIm = lineImaginary[part];
+        for(int line = part; line < planes*rows; line += parts)
+        {
+            int start = ((line/rows)*p + line%rows)*p;
+            for(int k = 0; k < p; k++)
+            {
+                lineRe[reversed[k]] = real[start + k];
+                lineIm[reversed[k]] = imaginary[start + k];
+            }
+            butterflies(lineRe, lineIm, 0, 1, 0, 1, forward);
+            System.arraycopy(lineRe, 0, real, start, p);
+            System.arraycopy(lineIm, 0, imaginary, start, p);
+        }
+    }
+
+    /**
+     * Transforms the lines along y of the planes whose x index is below planes. Each plane is transformed in place,
+     * with every butterfly applied to a whole row of z values at once.
+     *
+     * @param forward: true for the forward transform, or false for the inverse transform
+     * @param planes: the number of x indices whose lines are transformed
+     */
+    private void transformColumns(boolean forward, int planes)
+    {
+        int p = paddedSize;
+        if(pool == null)
+        {
+            for(int ix = 0; ix < planes; ix++)
+            {
+                transformInPlace(forward, ix*p*p, p, 0, p);
+            }
+        }
+        else
+        {
+            ParallelRange.forEach(pool, planes, (from, to) ->
+            {
+                for(int ix = from; ix < to; ix++)
+                {
+                    transformInPlace(forward, ix*p*p, p, 0, p);
+                }
+            });
+        }
+    }
+
+    /**
+     * Transforms every line along x in place, with every butterfly applied to a block of contiguous (y, z) elements of
+     * two planes at once.
+     *
+     * @param forward: true for the forward transform, or false for the inverse transform
+     */
+    private void transformPlanes(boolean forward)
+    {
+        int p = paddedSize;
+        if(pool == null)
+        {
+            transformInPlace(forward, 0, p*p, 0, p*p);
+        }
+        else
+        {
+            ParallelRange.forEach(pool, p*p, (from, to) -> transformInPlace(forward, 0, p*p, from, to));
+        }
+    }
+
+    /**
+     * Transforms in place the lines of paddedSize points base + k*stride + c, for each c from through to - 1. The
+     * elements of a line are far apart, but the elements of neighbouring lines are contiguous, so the lines are taken in
+     * blocks of BLOCK_COLUMNS and every step of the transform is applied to a whole block at once.
+     *
+     * @param forward: true for the forward transform, or false for the inverse transform
+     * @param base: the index of the first point of the first line
+     * @param stride: the distance between consecutive points of a line
+     * @param from: the offset of the first line from base
+     * @param to: one more than the offset of the last line from base
+     */
+    private void transformInPlace(boolean forward, int base, int stride, int from, int to)
+    {
+        int p = paddedSize;
+        for(int first = from; first < to; first += BLOCK_COLUMNS)
+        {
+            int last = Math.min(to, first + BLOCK_COLUMNS);
+
+            //The points are put into bit-reversed order by swapping blocks of elements
+            for(int k = 0; k < p; k++)
+            {
+                int r = reversed[k];
+                if(r > k)
+                {
+                    int a = base + k*stride, b = base + r*stride;
+                    for(int c = first; c < last; c++)
+                    {
+                        double swap = real[a + c];
+                        real[a + c] = real[b + c];
+                        real[b + c] = swap;
+                        swap = imaginary[a + c];
+                        imaginary[a + c] = imaginary[b + c];
+                        imaginary[b + c] = swap;
+                    }
+                }
+            }
+            butterflies(real, imaginary, base, stride, first, last, forward);
+        }
+    }
+
+    /**
+     * Applies the steps of the radix-2 Cooley-Tukey algorithm to lines of paddedSize complex points that are already in
+     * bit-reversed order. Point k of line c is element base + k*stride + c, for each c from through to - 1.
+     *
+     * @param re: the real parts of the points
+     * @param im: the imaginary parts of the points
+     * @param base: the index of the first point of the first line
+     * @param stride: the distance between consecutive points of a line
+     * @param from: the offset of the first line from base
+     * @param to: one more than the offset of the last line from base
+     * @param forward: true for the forward transform, exp(-2 pi i jk/N), or false for the inverse, exp(+2 pi i jk/N)
+     */
+    private void butterflies(double[] re, double[] im, int base, int stride, int from, int to, boolean forward)
+    {
+        int p = paddedSize;
+        double sign = forward ? -1 : 1;
+        for(int length = 2; length <= p; length <<= 1)
+        {
+            int half = length >> 1;
+            int step = p/length;
+            for(int start = 0; start < p; start += length)
+            {
+                for(int k = 0; k < half; k++)
+                {
+                    double wr = cosine[k*step], wi = sign*sine[k*step];
+                    int a = base + (start + k)*stride, b = a + half*stride;
+                    for(int c = from; c < to; c++)
+                    {
+                        double tr = re[b + c]*wr - im[b + c]*wi;
+                        double ti = re[b + c]*wi + im[b + c]*wr;
+                        re[b + c] = re[a + c] - tr;
+                        im[b + c] = im[a + c] - ti;
+                        re[a + c] += tr;
+                        im[a + c] += ti;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the share of the force at distance r that is carried by the mesh, in the form f(x)/(x^3) for x = r/2w,
+     * where w is the width of the Gaussian and f(x) = erf(x) - 2/sqrt(pi)*x*exp(-x^2). Multiplying it by GM/(8 w^3)
+     * gives the factor of the mesh force. Below x = 1 the series of f is summed instead, since f falls as x^3 and would
+     * be lost to cancellation.
+     *
+     * @param x: the distance divided by twice the width of the Gaussian, at least 0
+     * @return: f(x)/(x^3)
+     */
+    public static double meshShare(double x)
+    {
+        if(x >= 1)
+        {
+            return (1 - erfc(x) - 2/Math.sqrt(Math.PI)*x*Math.exp(-x*x))/(x*x*x);
+        }
+
+        //f(x) is 4/sqrt(pi) times the integral of t^2 exp(-t^2) from 0 to x, a series of terms
+        //(-1)^k x^(2k+3)/((2k+3) k!)
+        double sum = 0, term = 1;
+        for(int k = 0; k < 16; k++)
+        {
+            sum += term/(2*k + 3);
+            term *= -x*x/(k + 1);
+        }
+        return 4/Math.sqrt(Math.PI)*sum;
+    }
+
+    /**
+     * Finds the complementary error function, erfc(x) = 1 - erf(x), for x of at least 0 with a relative error below
+     * 1.2e-7, using the Chebyshev fit of Numerical Recipes.
+     *
+     * @param x: the argument, at least 0
+     * @return: erfc(x)
+     */
+    public static double erfc(double x)
+    {
+        double t = 1/(1 + 0.5*x);
+        return t*Math.exp(-x*x - 1.26551223 + t*(1.00002368 + t*(0.37409196 + t*(0.09678418 + t*(-0.18628806
+                + t*(0.27886807 + t*(-1.13520398 + t*(1.48851587 + t*(-0.82215223 + t*0.17087277)))))))));
+    }
+}
@@ -0,0 +1,256 @@
+package numericalmethods;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ParticleStore class holds the state of every body in a system as a structure of arrays. Rather than keeping one
+ * Body object per mass, each with its own position and velocity arrays, the components of position, velocity, and
+ * acceleration and the mass of every body are kept in separate contiguous arrays of doubles. Body i is described by
+ * element i of each array. The force, drift, and collision passes of the simulation stream through these arrays, which
+ * keeps the data they need close together in memory.
+ *
+ * Body objects are still used to create, inspect, and modify individual bodies. getBody() returns a Body holding a
+ * copy of the state of one body, and setBody() writes the state of a Body back into the store.
+ *
+ */
+public class ParticleStore
+{
+    //x, y, and z hold the components of the position of each body in meters
+    public double[] x, y, z;
+
+    //vx, vy, and vz hold the components of the velocity of each body in meters/second
+    public double[] vx, vy, vz;
+
+    //ax, ay, and az hold the components of the acceleration of each body in meters/second^2, as last found by a
+    //ForceEngine
+    public double[] ax, ay, az;
+
+    //mass holds the mass of each body in kilograms
+    public double[] mass;
+
+    //n is the number of bodies in the store; elements at or beyond n are unused capacity
+    public int n;
+
+    /**
+     * Creates an empty store with room for the given number of bodies.
+     *
+     * @param capacity: the number of bodies that can be added before the arrays must grow
+     */
+    public ParticleStore(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        vz = new double[capacity];
+        ax = new double[capacity];
+        ay = new double[capacity];
+        az = new double[capacity];
+        mass = new double[capacity];
+    }
+
+    /**
+     * Creates a store holding the state of each of the given bodies, in order.
+     *
+     * @param bodies: the bodies to be copied into the store
+     * @return: the new store
+     */
+    public static ParticleStore fromBodies(List<Body> bodies)
+    {
+        ParticleStore store = new ParticleStore(bodies.size());
+        for(Body body : bodies)
+        {
+            store.add(body);
+        }
+        return store;
+    }
+
+    //Returns the number of bodies the store can hold without growing
+    public int capacity()
+    {
+        return x.length;
+    }
+
+    /**
+     * Adds a body with the given position, velocity, and mass, growing the arrays if they are full.
+     *
+     * @return: the index of the new body
+     */
+    public int add(double xPos, double yPos, double zPos, double xVel, double yVel, double zVel, double m)
+    {
+        if(n == x.length)
+        {
+            ensureCapacity(2*n);
+        }
+        x[n] = xPos;
+        y[n] = yPos;
+        z[n] = zPos;
+        vx[n] = xVel;
+        vy[n] = yVel;
+        vz[n] = zVel;
+        mass[n] = m;
+        return n++;
+    }
+
+    /**
+     * Adds a copy of the state of the given body.
+     *
+     * @param body: the body to be added
+     * @return: the index of the new body
+     */
+    public int add(Body body)
+    {
+        double[] position = body.getPosition();
+        double[] velocity = body.getVelocity();
+        return add(position[0], position[1], position[2], velocity[0], velocity[1], velocity[2], body.getMass());
+    }
+
+    /**
+     * Returns a new Body holding a copy of the position, velocity, and mass of the body with the given index. Changes to
+     * the returned Body do not affect the store until it is passed to setBody().
+     *
+     * @param i: the index of the body
+     * @return: a Body with the state of body i
+     */
+    public Body getBody(int i)
+    {
+        return new Body(x[i], y[i], z[i], vx[i], vy[i], vz[i], mass[i]);
+    }
+
+    /**
+     * Overwrites the position, velocity, and mass of the body with the given index with those of the given Body.
+     *
+     * @param i: the index of the body
+     * @param body: the Body whose state should be stored
+     */
+    public void setBody(int i, Body body)
+    {
+        double[] position = body.getPosition();
+        double[] velocity = body.getVelocity();
+        x[i] = position[0];
+        y[i] = position[1];
+        z[i] = position[2];
+        vx[i] = velocity[0];
+        vy[i] = velocity[1];
+        vz[i] = velocity[2];
+        mass[i] = body.getMass();
+    }
+
+    /**
+     * Removes the marked bodies from the store, moving the remaining bodies down so that they stay in their original
+     * order.
+     *
+     * @param remove: an array in which element i is true if body i should be removed
+     * @return: the number of bodies removed
+     */
+    public int compact(boolean[] remove)
+    {
+        int kept = 0;
+        for(int i = 0; i < n; i++)
+        {
+            if(remove[i])
+            {
+                continue;
+            }
+            if(kept != i)
+            {
+                x[kept] = x[i];
+                y[kept] = y[i];
+                z[kept] = z[i];
+                vx[kept] = vx[i];
+                vy[kept] = vy[i];
+                vz[kept] = vz[i];
+                ax[kept] = ax[i];
+                ay[kept] = ay[i];
+                az[kept] = az[i];
+                mass[kept] = mass[i];
+            }
+            kept++;
+        }
+        int removed = n - kept;
+        n = kept;
+        return removed;
+    }
+
+    /**
+     * Finds the first body whose position or velocity is NaN or infinite, as left by a singular force. Multiplying a
+     * finite value by 0 gives 0 and any other value gives NaN, so the bodies are checked with a single sum and only
+     * searched one by one if the sum is NaN.
+     *
+     * @return: the index of the first such body, or -1 if every value is finite
+     */
+    public int firstNonFinite()
+    {
+        double check = 0;
+        for(int i = 0; i < n; i++)
+        {
+            check += x[i]*0 + y[i]*0 + z[i]*0 + vx[i]*0 + vy[i]*0 + vz[i]*0;
+        }
+        if(check == 0)
+        {
+            return -1;
+        }
+        for(int i = 0; i < n; i++)
+        {
+            if(!Double.isFinite(x[i]) || !Double.isFinite(y[i]) || !Double.isFinite(z[i]) || !Double.isFinite(vx[i])
+                    || !Double.isFinite(vy[i]) || !Double.isFinite(vz[i]))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first body whose acceleration is NaN or infinite, as found by an engine for coincident bodies. The
+     * bodies are checked in the same way as by firstNonFinite().
+     *
+     * @return: the index of the first such body, or -1 if every acceleration is finite
+     */
+    public int firstNonFiniteAcceleration()
+    {
+        double check = 0;
+        for(int i = 0; i < n; i++)
+        {
+            check += ax[i]*0 + ay[i]*0 + az[i]*0;
+        }
+        if(check == 0)
+        {
+            return -1;
+        }
+        for(int i = 0; i < n; i++)
+        {
+            if(!Double.isFinite(ax[i]) || !Double.isFinite(ay[i]) || !Double.isFinite(az[i]))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Grows the arrays so that they can hold at least the given number of bodies.
+     *
+     * @param capacity: the minimum number of bodies the store should be able to hold
+     */
+    public void ensureCapacity(int capacity)
+    {
+        if(capacity <= x.length)
+        {
+            return;
+        }
+        capacity = Math.max(capacity, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        vz = Arrays.copyOf(vz, capacity);
+        ax = Arrays.copyOf(ax, capacity);
+        ay = Arrays.copyOf(ay, capacity);
+        az = Arrays.copyOf(az, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+    }
+}
@@ -0,0 +1,74 @@
+package numericalmethods;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The PrecisionReport class compares the accelerations found by the mixed-precision engine, MixedPrecisionSum, with
+ * those found by the double-precision direct sum, so the precision can be chosen for a given kind of system. The
+ * system is either read from an input file or generated at random as AccuracyReport does. For the scalar loop and, if
+ * the JVM was started with --add-modules jdk.incubator.vector, for the vector kernel, the report prints the time of one
+ * pass after warming up and the relative error of each body's acceleration against the scalar double-precision sum.
+ *
+ * Usage: PrecisionReport [input file | number of bodies] [seed]
+ *
+ */
+public class PrecisionReport
+{
+    /**
+     * The main method reads the optional arguments, compares the precisions, and prints the report.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        String system = args.length > 0 ? args[0] : Integer.toString(AccuracyReport.DEFAULT_BODIES);
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        ParticleStore particles;
+        if(system.matches("\\d+"))
+        {
+            particles = AccuracyReport.randomBodies(Integer.parseInt(system), seed);
+            system = particles.n + " random bodies, seed " + seed;
+        }
+        else
+        {
+            particles = TextLoader.read(new File(system), null);
+            system = particles.n + " bodies from " + system;
+        }
+
+        double doubleSeconds = KernelReport.seconds(new DirectSum(), particles);
+        double[][] exact = AccuracyReport.accelerationsOf(particles);
+
+        System.out.println("Precision report: " + system);
+        System.out.printf("double: %.3f s%n", doubleSeconds);
+        System.out.printf("%-24s%s%n", "mode",
+                "time (s)\tspeed-up\tmedian error\t99th percentile\tmax error\tRMS error");
+        report("mixed", new MixedPrecisionSum(null, false, Softening.NONE), particles, exact, doubleSeconds);
+        if(GravityKernel.isVectorSupported())
+        {
+            report("vector", new DirectSum(null, false, true, false), particles, exact, doubleSeconds);
+            report("vector mixed", new MixedPrecisionSum(null, true, Softening.NONE), particles, exact, doubleSeconds);
+        }
+        else
+        {
+            System.out.println("The vector kernel needs the JVM option --add-modules jdk.incubator.vector.");
+        }
+    }
+
+    /**
+     * Times an engine and prints one line of the report.
+     *
+     * @param name: the name of the mode
+     * @param engine: the engine to be timed
+     * @param particles: the system on which the engine runs
+     * @param exact: the accelerations found by the double-precision direct sum
+     * @param doubleSeconds: the time in seconds of the double-precision direct sum
+     */
+    private static void report(String name, ForceEngine engine, ParticleStore particles, double[][] exact,
+            double doubleSeconds)
+    {
+        double seconds = KernelReport.seconds(engine, particles);
+        double[] errors = AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles));
+        System.out.printf("%-24s%.3f\t\t%.1f\t\t%.3e\t%.3e\t%.3e\t%.3e%n", name, seconds, doubleSeconds/seconds,
+                AccuracyReport.percentile(errors, 0.5), AccuracyReport.percentile(errors, 0.99),
+                AccuracyReport.percentile(errors, 1.0), AccuracyReport.rms(errors));
+    }
+}
@@ -0,0 +1,509 @@
+package numericalmethods;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+
+/**
+ * The Settings class holds the optional running conditions of a simulation. A control file may list any number of
+ * optional settings after its five required entries, each written as a key followed by a value (for example,
+ * "engine barneshut" or "theta 0.5"). Settings that are not listed keep their default values, so existing control
+ * files behave exactly as before.
+ *
+ */
+public class Settings
+{
+    //ENGINES holds the names of the force engines, as they are written in the engine setting
+    public static final String[] ENGINES = {"direct", "barneshut", "pm", "p3m", "distributed"};
+
+    //engine is a String naming the force engine used to find gravitational accelerations. "direct" sums the force of
+    //every other body exactly, "barneshut" approximates distant groups of bodies using an octree, "pm" finds the
+    //long-range force on a mesh with fast Fourier transforms, "p3m" adds the short-range force of nearby bodies to it,
+    //and "distributed" splits the bodies among worker processes that each run the Barnes-Hut engine on their share.
+    public String engine = "direct";
+
+    //theta is the opening angle used by the Barnes-Hut engine. A cell of the octree is treated as a single mass when
+    //its side length divided by its distance from a body is less than theta. Smaller values are more accurate and slower.
+    public double theta = 0.5;
+
+    //meshSize is the number of cells along each side of the mesh of the "pm" and "p3m" engines, a power of two. Finer
+    //meshes resolve the long-range force on smaller scales and leave fewer pairs to the short-range sum.
+    public int meshSize = 64;
+
+    //workers is the number of worker processes started on this machine by the "distributed" engine, and workerHosts is
+    //a comma-separated list of host:port addresses of workers already running (see DistributedWorker), used in place
+    //of starting any if it is not empty
+    public int workers = 2;
+    public String workerHosts = "";
+
+    //workerToken is the token with which the "distributed" engine opens its connections to the workers of workerHosts,
+    //which must match the environment variable DistributedWorker.TOKEN_VARIABLE of each worker
+    public long workerToken = 0;
+
+    //rebalanceEvery is the number of force evaluations after which the "distributed" engine divides the bodies among
+    //the workers again, by the work each did, or 0 to divide them only when the number of bodies changes
+    public int rebalanceEvery = 10;
+
+    //threads is the number of worker threads used to find accelerations. A value of 1 runs the whole simulation on
+    //the main thread, and a value of 0 uses one thread per available processor.
+    public int threads = 1;
+
+    //symmetric is true if the direct-sum engine should evaluate each pair of bodies once and apply equal and opposite
+    //contributions to both, following Newton's third law
+    public boolean symmetric = false;
+
+    //kernel names how the direct-sum engine evaluates pairs of bodies: "scalar" (one pair at a time) or "vector" (a tile
+    //of pairs at once with the SIMD Vector API, falling back to "scalar" if the JVM was started without it)
+    public String kernel = "scalar";
+
+    //rsqrt is true if the vector kernel should find inverse distances by Newton-Raphson refinement of a first guess
+    //rather than by a square root and a division
+    public boolean rsqrt = false;
+
+    //precision names the precision in which the direct-sum engine evaluates pairs of bodies: "double" or "mixed"
+    //(positions and masses copied to floats relative to the center of the system, with each body's sum finished in
+    //double precision; see MixedPrecisionSum)
+    public String precision = "double";
+
+    //framesPerFile is the number of frames written to each output file before a new file is started. A value of 0
+    //writes every frame to the output file named in the control file.
+    public int framesPerFile = 0;
+
+    //keepFiles is the number of the most recent output files that are kept when framesPerFile is used; older files are
+    //deleted. A value of 0 keeps every file.
+    public int keepFiles = 0;
+
+    //format is the format of the output file: "text" writes the format of the input file, while "binary" writes
+    //frames of a BinarySnapshot, which store every value exactly and can be reloaded in milliseconds
+    public String format = "text";
+
+    //collisionRadius is the distance in meters at or below which two bodies collide and merge. A value of 0 only merges
+    //bodies that occupy exactly the same position.
+    public double collisionRadius = 0;
+
+    //integrator names the scheme used to advance the system by each time step: "euler" (the original first-order
+    //scheme), "leapfrog" (second-order kick-drift-kick), "yoshida" (fourth-order symplectic), or "block" (fourth-order
+    //Hermite with individual power-of-two time steps for each body)
+    public String integrator = "euler";
+
+    //eta is the accuracy parameter of the block integrator, which chooses each body's time step in proportion to the
+    //square root of eta. Smaller values are more accurate and slower.
+    public double eta = 0.02;
+
+    //softening is the softening length in meters, which keeps the force between close bodies finite, or 0 for none,
+    //and softeningKernel names its form: "plummer" (r^2 + e^2 in place of r^2) or "spline" (the cubic spline kernel,
+    //exactly Newtonian beyond 2.8 softening lengths)
+    public double softening = 0;
+    public String softeningKernel = "plummer";
+
+    //onNonFinite names what happens when a position or velocity becomes NaN or infinite: "halt" stops the run with an
+    //error, and "rollback" returns to the last checkpoint and takes the steps from there in smaller substeps
+    public String onNonFinite = "halt";
+
+    //seed is the seed from which random bodies are drawn, so that a random system can be reproduced. A value of 0
+    //draws a different system each run.
+    public long seed = 0;
+
+    //model names the system from which random bodies are drawn: "uniform" (a cube of bodies of random mass and
+    //velocity), "plummer" (a Plummer sphere in equilibrium), "disk" (a rotating disk), or "cold" (a sphere at rest), and
+    //bodies is the number of random bodies drawn
+    public String model = "uniform";
+    public int bodies = Nbody.RANDOM_OBJECTS;
+
+    //metricsFile is the path of the file to which a line of metrics is appended at each metrics interval, or an empty
+    //String to write no metrics file
+    public String metricsFile = "";
+
+    //snapshotEvery and metricsEvery are the numbers of time steps between frames written to the output file and
+    //between reports of the metrics, or 0 to use the update interval of the control file
+    public long snapshotEvery = 0;
+    public long metricsEvery = 0;
+
+    //energyEvery is the least number of time steps between measurements of the energy drift in the metrics, or 0 to
+    //measure it at every report, and energyBodies is the largest number of bodies for which it is measured, or 0 to
+    //never measure it. The energy is summed over every pair of bodies, so it is left out for large systems.
+    public long energyEvery = 0;
+    public int energyBodies = 20000;
+
+    //checkpointFile is the path of the checkpoint file, or an empty String to use the output file name followed by
+    //".checkpoint"; checkpointEvery is the number of time steps between checkpoints, or 0 to write none
+    public String checkpointFile = "";
+    public long checkpointEvery = 0;
+
+    //resume is the path of a checkpoint from which the run continues, or an empty String to start from the input file
+    public String resume = "";
+
+    //jmx is true if the metrics of the run should be published through JMX
+    public boolean jmx = false;
+
+    //renderer names how the bodies are drawn while the simulation runs: "swing" (a window drawn on its own thread) or
+    //"none" (no window, for headless batch runs)
+    public String renderer = "swing";
+
+    //renderQueue is the number of snapshots that may wait to be drawn before new snapshots are dropped
+    public int renderQueue = 2;
+
+    /**
+     * Updates the setting named by the given key with the given value.
+     *
+     * @param key: the name of the setting as it appears in the control file
+     * @param value: the value of the setting as it appears in the control file
+     * @throws InputMismatchException: if the key is not recognized or the value is not valid for the key
+     */
+    public void set(String key, String value)
+    {
+        switch(key.toLowerCase())
+        {
+            case "engine":
+                engine = value.toLowerCase();
+                if(!Arrays.asList(ENGINES).contains(engine))
+                {
+                    throw new InputMismatchException("Unknown engine: " + value);
+                }
+                break;
+            case "theta":
+                theta = parseDouble(key, value);
+                if(theta < 0)
+                {
+                    throw new InputMismatchException("theta must not be negative: " + value);
+                }
+                break;
+            case "workers":
+                workers = parseInt(key, value);
+                if(workers < 1)
+                {
+                    throw new InputMismatchException("workers must be at least 1: " + value);
+                }
+                break;
+            case "workerhosts":
+                workerHosts = value.trim();
+                for(String address : parseHosts())
+                {
+                    if(!address.matches("[^:]+:\\d+"))
+                    {
+                        throw new InputMismatchException("Worker addresses must be host:port: " + value);
+                    }
+                }
+                break;
+            case "workertoken":
+                workerToken = parseLong(key, value);
+                break;
+            case "rebalanceevery":
+                rebalanceEvery = parseInt(key, value);
+                if(rebalanceEvery < 0)
+                {
+                    throw new InputMismatchException("rebalanceEvery must not be negative: " + value);
+                }
+                break;
+            case "meshsize":
+                meshSize = parseInt(key, value);
+                if(meshSize < 16 || Integer.bitCount(meshSize) != 1)
+                {
+                    throw new InputMismatchException("meshSize must be a power of two of at least 16: " + value);
+                }
+                break;
+            case "threads":
+                threads = parseInt(key, value);
+                if(threads < 0)
+                {
+                    throw new InputMismatchException("threads must not be negative: " + value);
+                }
+                break;
+            case "symmetric":
+                symmetric = parseBoolean(key, value);
+                break;
+            case "kernel":
+                kernel = value.toLowerCase();
+                if(!kernel.equals("scalar") && !kernel.equals("vector"))
+                {
+                    throw new InputMismatchException("Unknown kernel: " + value);
+                }
+                break;
+            case "rsqrt":
+                rsqrt = parseBoolean(key, value);
+                break;
+            case "precision":
+                precision = value.toLowerCase();
+                if(!precision.equals("double") && !precision.equals("mixed"))
+                {
+                    throw new InputMismatchException("Unknown precision: " + value);
+                }
+                break;
+            case "framesperfile":
+                framesPerFile = parseInt(key, value);
+                if(framesPerFile < 0)
+                {
+                    throw new InputMismatchException("framesPerFile must not be negative: " + value);
+                }
+                break;
+            case "keepfiles":
+                keepFiles = parseInt(key, value);
+                if(keepFiles < 0)
+                {
+                    throw new InputMismatchException("keepFiles must not be negative: " + value);
+                }
+                break;
+            case "format":
+                format = value.toLowerCase();
+                if(!format.equals("text") && !format.equals("binary"))
+                {
+                    throw new InputMismatchException("Unknown format: " + value);
+                }
+                break;
+            case "collisionradius":
+                collisionRadius = parseDouble(key, value);
+                if(collisionRadius < 0)
+                {
+                    throw new InputMismatchException("collisionRadius must not be negative: " + value);
+                }
+                break;
+            case "integrator":
+                integrator = value.toLowerCase();
+                if(!integrator.equals("euler") && !integrator.equals("leapfrog") && !integrator.equals("yoshida")
+                        && !integrator.equals("block"))
+                {
+                    throw new InputMismatchException("Unknown integrator: " + value);
+                }
+                break;
+            case "eta":
+                eta = parseDouble(key, value);
+                if(eta <= 0)
+                {
+                    throw new InputMismatchException("eta must be positive: " + value);
+                }
+                break;
+            case "softening":
+                softening = parseDouble(key, value);
+                if(!(softening >= 0) || Double.isInfinite(softening))
+                {
+                    throw new InputMismatchException("softening must be finite and not negative: " + value);
+                }
+                break;
+            case "softeningkernel":
+                softeningKernel = value.toLowerCase();
+                if(!softeningKernel.equals("plummer") && !softeningKernel.equals("spline"))
+                {
+                    throw new InputMismatchException("Unknown softening kernel: " + value);
+                }
+                break;
+            case "onnonfinite":
+                onNonFinite = value.toLowerCase();
+                if(!onNonFinite.equals("halt") && !onNonFinite.equals("rollback"))
+                {
+                    throw new InputMismatchException("Unknown action for non-finite values: " + value);
+                }
+                break;
+            case "seed":
+                seed = parseLong(key, value);
+                break;
+            case "model":
+                model = value.toLowerCase();
+                if(!InitialConditions.isModel(model))
+                {
+                    throw new InputMismatchException("Unknown model: " + value);
+                }
+                break;
+            case "bodies":
+                bodies = parseInt(key, value);
+                if(bodies < 1)
+                {
+                    throw new InputMismatchException("bodies must be at least 1: " + value);
+                }
+                break;
+            case "metricsfile":
+                metricsFile = value;
+                break;
+            case "snapshotevery":
+                snapshotEvery = parseLong(key, value);
+                if(snapshotEvery < 0)
+                {
+                    throw new InputMismatchException("snapshotEvery must not be negative: " + value);
+                }
+                break;
+            case "metricsevery":
+                metricsEvery = parseLong(key, value);
+                if(metricsEvery < 0)
+                {
+                    throw new InputMismatchException("metricsEvery must not be negative: " + value);
+                }
+                break;
+            case "energyevery":
+                energyEvery = parseLong(key, value);
+                if(energyEvery < 0)
+                {
+                    throw new InputMismatchException("energyEvery must not be negative: " + value);
+                }
+                break;
+            case "energybodies":
+                energyBodies = parseInt(key, value);
+                if(energyBodies < 0)
+                {
+                    throw new InputMismatchException("energyBodies must not be negative: " + value);
+                }
+                break;
+            case "checkpointfile":
+                checkpointFile = value;
+                break;
+            case "checkpointevery":
+                checkpointEvery = parseLong(key, value);
+                if(checkpointEvery < 0)
+                {
+                    throw new InputMismatchException("checkpointEvery must not be negative: " + value);
+                }
+                break;
+            case "resume":
+                resume = value;
+                break;
+            case "jmx":
+                jmx = parseBoolean(key, value);
+                break;
+            case "renderer":
+                renderer = value.toLowerCase();
+                if(!renderer.equals("swing") && !renderer.equals("none"))
+                {
+                    throw new InputMismatchException("Unknown renderer: " + value);
+                }
+                break;
+            case "renderqueue":
+                renderQueue = parseInt(key, value);
+                if(renderQueue < 1)
+                {
+                    throw new InputMismatchException("renderQueue must be at least 1: " + value);
+                }
+                break;
+            default:
+                throw new InputMismatchException("Unknown setting: " + key);
+        }
+    }
+
+    /**
+     * Checks the settings that depend on one another, once every setting has been read.
+     *
+     * @throws InputMismatchException: if two settings cannot be used together
+     */
+    public void validate()
+    {
+        //The block integrator finds accelerations and jerks with its own direct sum, so no other engine would be used
+        if(integrator.equals("block") && !engine.equals("direct"))
+        {
+            throw new InputMismatchException("The block integrator finds accelerations with its own direct sum and "
+                    + "cannot use engine " + engine + "; use engine direct or another integrator");
+        }
+    }
+
+    /**
+     * Returns the addresses in the workerHosts setting.
+     *
+     * @return: the host:port address of each worker, or an empty array if the workers are started on this machine
+     */
+    public String[] parseHosts()
+    {
+        return workerHosts.isEmpty() ? new String[0] : workerHosts.split("\\s*,\\s*");
+    }
+
+    /**
+     * Returns the number of worker threads to use, replacing 0 with the number of available processors.
+     *
+     * @return: the number of worker threads
+     */
+    public int workerCount()
+    {
+        return threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    /**
+     * Returns the softening named by the softening and softeningKernel settings.
+     *
+     * @return: the softening of the force
+     */
+    public Softening createSoftening()
+    {
+        return softening == 0 ? Softening.NONE : new Softening(softeningKernel, softening);
+    }
+
+    /**
+     * Parses an int value for the given setting.
+     *
+     * @param key: the name of the setting, used in the error message
+     * @param value: the text to be parsed
+     * @return: the parsed int value
+     * @throws InputMismatchException: if the value is not an integer
+     */
+    private static int parseInt(String key, String value)
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch(NumberFormatException e)
+        {
+            throw new InputMismatchException("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    /**
+     * Parses a long value for the given setting.
+     *
+     * @param key: the name of the setting, used in the error message
+     * @param value: the text to be parsed
+     * @return: the parsed long value
+     * @throws InputMismatchException: if the value is not an integer
+     */
+    private static long parseLong(String key, String value)
+    {
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch(NumberFormatException e)
+        {
+            throw new InputMismatchException("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    /**
+     * Parses a boolean value for the given setting.
+     *
+     * @param key: the name of the setting, used in the error message
+     * @param value: the text to be parsed, either "true" or "false"
+     * @return: the parsed boolean value
+     * @throws InputMismatchException: if the value is neither "true" nor "false"
+     */
+    private static boolean parseBoolean(String key, String value)
+    {
+        if(value.equalsIgnoreCase("true"))
+        {
+            return true;
+        }
+        if(value.equalsIgnoreCase("false"))
+        {
+            return false;
+        }
+        throw new InputMismatchException("Invalid value for " + key + ": " + value);
+    }
+
+    /**
+     * Parses a double value for the given setting. NaN and infinite values are rejected, since every setting that
+     * takes a double needs a finite one and the range checks of the settings would let NaN through.
+     *
+     * @param key: the name of the setting, used in the error message
+     * @param value: the text to be parsed
+     * @return: the parsed double value
+     * @throws InputMismatchException: if the value is not a finite number
+     */
+    private static double parseDouble(String key, String value)
+    {
+        double parsed;
+        try
+        {
+            parsed = Double.parseDouble(value);
+        }
+        catch(NumberFormatException e)
+        {
+            throw new InputMismatchException("Invalid value for " + key + ": " + value);
+        }
+        if(!Double.isFinite(parsed))
+        {
+            throw new InputMismatchException("Invalid value for " + key + ", which must be finite: " + value);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,360 @@
+package numericalmethods;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The SimulationMetrics class measures where the time of each step goes and whether the run is still physically
+ * valid. The wall time of each step is split into four phases: finding accelerations (force), the rest of the
+ * integrator's work (drift), finding and merging collisions (collision), and writing frames and handing them to the
+ * renderer (io). The number of pair interactions evaluated is counted as well. At each report the total momentum of
+ * the system, and the total energy when it is measured, are compared with their values at the start of the run; a
+ * steady growth in either means the time step is too long, and a sudden jump means the run has blown up. These
+ * starting values are saved in checkpoints, so the drift of a resumed run is still measured from the start of the run
+ * rather than from the checkpoint.
+ *
+ * Each report summarizes the steps since the previous one. It is appended as a line of a metrics file in CSV format,
+ * and published through JMX as the attributes of an MBean named "numericalmethods:type=Simulation,name=[name]", so
+ * that slow steps and blow-ups can be watched and alarmed on while the run continues.
+ *
+ * The energy is summed over every pair of bodies, so each measurement takes time in proportion to the square of the
+ * number of bodies, which would soon outweigh the steps of the tree and mesh engines. It is spread over the worker
+ * threads of the simulation, and is only measured for systems of at most energyBodies bodies, at most once every
+ * energyEvery steps. The energy drift of a report that does not measure it is left empty in the metrics file.
+ *
+ */
+public class SimulationMetrics implements SimulationMetricsMBean
+{
+    //HEADER is the first line of the metrics file
+    public static final String HEADER = "step,time,bodies,steps,stepMillis,maxStepMillis,forceMillis,driftMillis,"
+            + "collisionMillis,ioMillis,pairInteractionsPerSecond,energyDrift,momentumDrift";
+
+    //BASELINE_VALUES is the number of values returned by baseline()
+    public static final int BASELINE_VALUES = 5;
+
+    //NEXT_ID numbers the simulations of a JVM, so that each MBean has its own name
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    //forces is the TimedEngine through which the integrator finds accelerations
+    public final TimedEngine forces;
+
+    //integrator is the Integrator of the simulation, whose own interactions are counted too
+    private final Integrator integrator;
+
+    //pool is the ForkJoinPool on which the energy is found, or null to find it on the calling thread
+    private final ForkJoinPool pool;
+
+    //softening is the softening of the force, with which the potential energy is found
+    private final Softening softening;
+
+    //energyEvery is the least number of steps between measurements of the energy, or 0 to measure it at every report,
+    //and energyBodies is the largest number of bodies for which it is measured, or 0 to never measure it
+    private final long energyEvery;
+    private final int energyBodies;
+
+    //measuringEnergy is true if the initial energy was measured, and nextEnergyStep is the first step at which the
+    //energy may be measured again
+    private boolean measuringEnergy;
+    private long nextEnergyStep;
+
+    //out writes the metrics file, or is null if there is none, and name is the name of the MBean, or null if the
+    //metrics are not published through JMX
+    private BufferedWriter out;
+    private ObjectName name;
+
+    //initialEnergy, initialMomentum, and momentumScale describe the system at the start of the run
+    private double initialEnergy;
+    private final double[] initialMomentum = new double[3];
+    private double momentumScale;
+    private final double[] momentum = new double[3];
+
+    //The following values accumulate over the steps since the last report. Times are in nanoseconds.
+    private long steps;
+    private long stepNanos, maxStepNanos, integrateNanos, collisionNanos, ioNanos, stepIoNanos;
+    private long forceNanosAtReport, interactionsAtReport;
+
+    //The following values are published by the last report; they are read by JMX on other threads
+    private volatile long step;
+    private volatile double time;
+    private volatile int bodies;
+    private volatile double stepMillis, maxStepMillis, forceMillis, driftMillis, collisionMillis, ioMillis;
+    private volatile double pairInteractionsPerSecond;
+    private volatile double energyDrift, momentumDrift;
+
+    /**
+     * Creates the metrics of a simulation.
+     *
+     * @param engine: the ForceEngine of the simulation, which is wrapped to time the force phase
+     * @param integrator: the Integrator of the simulation
+     * @param file: the metrics file, or null to write none
+     * @param jmx: true to publish the metrics through JMX
+     * @param label: a name for the simulation, used in the name of the MBean
+     * @param pool: the ForkJoinPool on which the energy is found, or null to find it on the calling thread
+     * @param softening: the softening of the force, with which the potential energy is found
+     * @param energyEvery: the least number of steps between measurements of the energy, or 0 to measure it at every
+     * report
+     * @param energyBodies: the largest number of bodies for which the energy is measured, or 0 to never measure it
+     * @throws IOException: if the metrics file cannot be opened
+     */
+    public SimulationMetrics(ForceEngine engine, Integrator integrator, File file, boolean jmx, String label,
+            ForkJoinPool pool, Softening softening, long energyEvery, int energyBodies) throws IOException
+    {
+        forces = new TimedEngine(engine);
+        this.integrator = integrator;
+        this.pool = pool;
+        this.softening = softening;
+        this.energyEvery = energyEvery;
+        this.energyBodies = energyBodies;
+
+        if(file != null)
+        {
+            out = new BufferedWriter(new FileWriter(file));
+            out.write(HEADER);
+            out.newLine();
+        }
+        if(jmx)
+        {
+            try
+            {
+                name = new ObjectName("numericalmethods:type=Simulation,name="
+                        + ObjectName.quote(label + "#" + NEXT_ID.incrementAndGet()));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+            catch(JMException e)
+            {
+                throw new IOException("Could not publish metrics through JMX: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Records the momentum of the system at the start of the run, and its energy if the system is small enough,
+     * against which drift is measured. A run resumed from a checkpoint passes the values saved in the checkpoint
+     * instead, so drift is still measured from the start of the run; an energy that was not measured then is measured
+     * now.
+     *
+     * @param particles: the bodies in the system
+     * @param baseline: the values returned by baseline() at the start of the run, or null to measure them now
+     */
+    public void begin(ParticleStore particles, double[] baseline)
+    {
+        measuringEnergy = particles.n <= energyBodies;
+        nextEnergyStep = Long.MIN_VALUE;
+        energyDrift = Double.NaN;
+        if(measuringEnergy)
+        {
+            initialEnergy = baseline != null && !Double.isNaN(baseline[0]) ? baseline[0]
+                    : Diagnostics.energy(particles, softening, pool);
+        }
+        else
+        {
+            initialEnergy = Double.NaN;
+        }
+        if(baseline != null)
+        {
+            System.arraycopy(baseline, 1, initialMomentum, 0, 3);
+            momentumScale = baseline[4];
+        }
+        else
+        {
+            Diagnostics.momentum(particles, initialMomentum);
+            momentumScale = 0;
+            for(int i = 0; i < particles.n; i++)
+            {
+                momentumScale += particles.mass[i]*Math.sqrt(particles.vx[i]*particles.vx[i]
+                        + particles.vy[i]*particles.vy[i] + particles.vz[i]*particles.vz[i]);
+            }
+        }
+        forceNanosAtReport = forces.nanos + integrator.forceNanos();
+        interactionsAtReport = forces.interactions + integrator.interactionCount();
+    }
+
+    /**
+     * Returns the values against which drift is measured, to be saved in checkpoints.
+     *
+     * @return: the initial energy, or NaN if it was not measured, the x, y, and z components of the initial momentum,
+     * and the sum of the magnitudes of the initial momenta of the bodies
+     */
+    public double[] baseline()
+    {
+        return new double[] {initialEnergy, initialMomentum[0], initialMomentum[1], initialMomentum[2], momentumScale};
+    }
+
+    //Adds time spent writing a frame or handing it to the renderer to the current step
+    public void addIo(long nanos)
+    {
+        stepIoNanos += nanos;
+    }
+
+    /**
+     * Records the phases of a step that has just finished.
+     *
+     * @param integrate: the time spent in the integrator in nanoseconds, including the force phase
+     * @param collision: the time spent finding and merging collisions in nanoseconds
+     */
+    public void endStep(long integrate, long collision)
+    {
+        long total = integrate + collision + stepIoNanos;
+        steps++;
+        stepNanos += total;
+        maxStepNanos = Math.max(maxStepNanos, total);
+        integrateNanos += integrate;
+        collisionNanos += collision;
+        ioNanos += stepIoNanos;
+        stepIoNanos = 0;
+    }
+
+    /**
+     * Summarizes the steps since the last report, measures the drift of the energy and momentum, and publishes the
+     * results.
+     *
+     * @param particles: the bodies in the system
+     * @param time: the simulation time in seconds
+     * @param step: the number of time steps taken
+     * @throws IOException: if the metrics file cannot be written
+     */
+    public void report(ParticleStore particles, double time, long step) throws IOException
+    {
+        //An integrator that finds accelerations with its own kernel reports the time it spends doing so
+        long forceNanos = forces.nanos + integrator.forceNanos() - forceNanosAtReport;
+        long interactions = forces.interactions + integrator.interactionCount() - interactionsAtReport;
+        forceNanosAtReport += forceNanos;
+        interactionsAtReport += interactions;
+
+        double perStep = steps > 0 ? 1e-6/steps : 0;
+        this.step = step;
+        this.time = time;
+        bodies = particles.n;
+        stepMillis = stepNanos*perStep;
+        maxStepMillis = maxStepNanos*1e-6;
+        forceMillis = forceNanos*perStep;
+        driftMillis = (integrateNanos - forceNanos)*perStep;
+        collisionMillis = collisionNanos*perStep;
+        ioMillis = ioNanos*perStep;
+
+        pairInteractionsPerSecond = forceNanos > 0 ? interactions*1e9/forceNanos : 0;
+
+        boolean measureEnergy = measuringEnergy && particles.n <= energyBodies && step >= nextEnergyStep;
+        if(measureEnergy)
+        {
+            energyDrift = (Diagnostics.energy(particles, softening, pool) - initialEnergy)/Math.abs(initialEnergy);
+            nextEnergyStep = step + energyEvery;
+        }
+        Diagnostics.momentum(particles, momentum);
+        double dpx = momentum[0] - initialMomentum[0];
+        double dpy = momentum[1] - initialMomentum[1];
+        double dpz = momentum[2] - initialMomentum[2];
+        momentumDrift = momentumScale > 0 ? Math.sqrt(dpx*dpx + dpy*dpy + dpz*dpz)/momentumScale : 0;
+
+        if(out != null)
+        {
+            out.write(step + "," + time + "," + bodies + "," + steps + "," + stepMillis + "," + maxStepMillis + ","
+                    + forceMillis + "," + driftMillis + "," + collisionMillis + "," + ioMillis + ","
+                    + pairInteractionsPerSecond + "," + (measureEnergy ? Double.toString(energyDrift) : "") + ","
+                    + momentumDrift);
+            out.newLine();
+            out.flush();
+        }
+
+        steps = 0;
+        stepNanos = 0;
+        maxStepNanos = 0;
+        integrateNanos = 0;
+        collisionNanos = 0;
+        ioNanos = 0;
+    }
+
+    /**
+     * Closes the metrics file and withdraws the MBean.
+     *
+     * @throws IOException: if the metrics file cannot be closed
+     */
+    public void close() throws IOException
+    {
+        if(out != null)
+        {
+            out.close();
+            out = null;
+        }
+        if(name != null)
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try
+            {
+                server.unregisterMBean(name);
+            }
+            catch(JMException e)
+            {
+                //The MBean has already been withdrawn
+            }
+            name = null;
+        }
+    }
+
+    public long getStep()
+    {
+        return step;
+    }
+
+    public double getTime()
+    {
+        return time;
+    }
+
+    public int getBodies()
+    {
+        return bodies;
+    }
+
+    public double getStepMillis()
+    {
+        return stepMillis;
+    }
+
+    public double getMaxStepMillis()
+    {
+        return maxStepMillis;
+    }
+
+    public double getForceMillis()
+    {
+        return forceMillis;
+    }
+
+    public double getDriftMillis()
+    {
+        return driftMillis;
+    }
+
+    public double getCollisionMillis()
+    {
+        return collisionMillis;
+    }
+
+    public double getIoMillis()
+    {
+        return ioMillis;
+    }
+
+    public double getPairInteractionsPerSecond()
+    {
+        return pairInteractionsPerSecond;
+    }
+
+    public double getEnergyDrift()
+    {
+        return energyDrift;
+    }
+
+    public double getMomentumDrift()
+    {
+        return momentumDrift;
+    }
+}
@@ -0,0 +1,46 @@
+package numericalmethods;
+
+/**
+ * The SimulationMetricsMBean interface lists the attributes of a running simulation that are published through JMX.
+ * Every value describes the most recent metrics interval, except where noted.
+ *
+ */
+public interface SimulationMetricsMBean
+{
+    //Returns the number of time steps taken so far
+    long getStep();
+
+    //Returns the current simulation time in seconds
+    double getTime();
+
+    //Returns the number of bodies in the system
+    int getBodies();
+
+    //Returns the mean wall time of a step in milliseconds, including every phase
+    double getStepMillis();
+
+    //Returns the longest wall time of a single step in milliseconds
+    double getMaxStepMillis();
+
+    //Returns the mean wall time per step spent finding accelerations, in milliseconds
+    double getForceMillis();
+
+    //Returns the mean wall time per step spent in the rest of the integrator, such as kicks and drifts, in milliseconds
+    double getDriftMillis();
+
+    //Returns the mean wall time per step spent finding and merging collisions, in milliseconds
+    double getCollisionMillis();
+
+    //Returns the mean wall time per step spent writing frames and handing them to the renderer, in milliseconds
+    double getIoMillis();
+
+    //Returns the number of pair interactions evaluated per second of force time
+    double getPairInteractionsPerSecond();
+
+    //Returns the change in total energy since the start of the run, relative to the initial energy, as of the last time
+    //it was measured, or NaN if it has not been measured
+    double getEnergyDrift();
+
+    //Returns the change in total momentum since the start of the run, relative to the initial sum of |m v|
+    double getMomentumDrift();
+}
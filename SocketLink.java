@@ -0,0 +1,166 @@
+package numericalmethods;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The SocketLink class carries the messages of a distributed run between the coordinator and one worker over a TCP
+ * connection. Values are written in little-endian order, as in the binary snapshot format, into a direct buffer that is
+ * sent when it fills or when flush() is called, and are read from a second buffer refilled from the socket as needed,
+ * so sending a column of a million doubles takes a handful of system calls.
+ *
+ */
+public class SocketLink implements Closeable
+{
+    //BUFFER_BYTES is the size in bytes of each of the buffers
+    public static final int BUFFER_BYTES = 1 << 20;
+
+    //channel is the connection, and in and out are the buffers of values read and waiting to be sent
+    private final SocketChannel channel;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Creates a link over a connected channel. Nagle's algorithm is turned off, since every message is flushed whole.
+     *
+     * @param channel: the connected channel, in blocking mode
+     * @throws IOException: if the channel cannot be set up
+     */
+    public SocketLink(SocketChannel channel) throws IOException
+    {
+        this.channel = channel;
+        channel.socket().setTcpNoDelay(true);
+        in.flip();
+    }
+
+    //Queues an int to be sent
+    public void writeInt(int value) throws IOException
+    {
+        room(4);
+        out.putInt(value);
+    }
+
+    //Queues a long to be sent
+    public void writeLong(long value) throws IOException
+    {
+        room(8);
+        out.putLong(value);
+    }
+
+    //Queues a double to be sent
+    public void writeDouble(double value) throws IOException
+    {
+        room(8);
+        out.putDouble(value);
+    }
+
+    /**
+     * Queues count elements of an array of doubles to be sent.
+     *
+     * @param values: the array
+     * @param from: the index of the first element
+     * @param count: the number of elements
+     * @throws IOException: if the buffer fills and cannot be sent
+     */
+    public void writeDoubles(double[] values, int from, int count) throws IOException
+    {
+        while(count > 0)
+        {
+            room(8);
+            int chunk = Math.min(count, out.remaining()/8);
+            out.asDoubleBuffer().put(values, from, chunk);
+            out.position(out.position() + 8*chunk);
+            from += chunk;
+            count -= chunk;
+        }
+    }
+
+    //Sends every value queued so far
+    public void flush() throws IOException
+    {
+        out.flip();
+        while(out.hasRemaining())
+        {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    //Reads an int
+    public int readInt() throws IOException
+    {
+        fill(4);
+        return in.getInt();
+    }
+
+    //Reads a long
+    public long readLong() throws IOException
+    {
+        fill(8);
+        return in.getLong();
+    }
+
+    //Reads a double
+    public double readDouble() throws IOException
+    {
+        fill(8);
+        return in.getDouble();
+    }
+
+    /**
+     * Reads count doubles into an array.
+     *
+     * @param values: the array
+     * @param from: the index at which the first value is stored
+     * @param count: the number of values
+     * @throws IOException: if the connection fails or is closed before all of the values arrive
+     */
+    public void readDoubles(double[] values, int from, int count) throws IOException
+    {
+        while(count > 0)
+        {
+            fill(8);
+            int chunk = Math.min(count, in.remaining()/8);
+            in.asDoubleBuffer().get(values, from, chunk);
+            in.position(in.position() + 8*chunk);
+            from += chunk;
+            count -= chunk;
+        }
+    }
+
+    //Closes the connection
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    //Sends the queued values if fewer than the given number of bytes are free
+    private void room(int bytes) throws IOException
+    {
+        if(out.remaining() < bytes)
+        {
+            flush();
+        }
+    }
+
+    //Reads from the socket until at least the given number of bytes are waiting
+    private void fill(int bytes) throws IOException
+    {
+        if(in.remaining() >= bytes)
+        {
+            return;
+        }
+        in.compact();
+        while(in.position() < bytes)
+        {
+            if(channel.read(in) < 0)
+            {
+                throw new EOFException("The connection was closed");
+            }
+        }
+        in.flip();
+    }
+}
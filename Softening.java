@@ -0,0 +1,183 @@
+package numericalmethods;
+
+/**
+ * The Softening class holds the softened form of the pairwise gravitational kernel. Without softening, the acceleration
+ * of two bodies grows without bound as they approach, so a close encounter gives a huge velocity kick in a single step
+ * and bodies at the same position give infinite or NaN accelerations. Softening replaces the point masses by small
+ * smooth ones, so the force rises to a maximum and falls back to zero at zero separation:
+ *     "plummer" replaces r^2 by r^2 + e^2 everywhere, where e is the softening length
+ *     "spline" uses the cubic spline kernel of Monaghan and Lattanzio (1985), as in GADGET-2. The mass is spread over a
+ *     sphere of radius h = SPLINE_RATIO*e, beyond which the force is exactly Newtonian, and the potential at zero
+ *     separation is -Gm/e, the same as that of Plummer softening with length e.
+ *
+ * Every factor is a plain function of the squared distance, so the kernel creates no objects. Without softening, the
+ * factors are bitwise the same as those of the Newtonian kernel of GravityKernel.
+ *
+ */
+public final class Softening
+{
+    //NONE is the unsoftened Newtonian kernel
+    public static final Softening NONE = new Softening("plummer", 0);
+
+    //SPLINE_RATIO is the radius of the spline kernel divided by the Plummer-equivalent softening length
+    public static final double SPLINE_RATIO = 2.8;
+
+    //kernel is the name of the kernel, "plummer" or "spline", and length is the Plummer-equivalent softening length in
+    //meters, 0 for none
+    public final String kernel;
+    public final double length;
+
+    //plummer and spline are true for the kernel in use; both are false without softening
+    final boolean plummer, spline;
+
+    //lengthSquared is the square of the softening length, radius and radiusSquared are the radius of the spline kernel
+    //and its square, and inverseCube is G/(h^3) for the spline kernel
+    final double lengthSquared, radius, radiusSquared, inverseCube;
+
+    /**
+     * Creates a softened kernel.
+     *
+     * @param kernel: the name of the kernel, "plummer" or "spline"
+     * @param length: the Plummer-equivalent softening length in meters, or 0 for no softening
+     */
+    public Softening(String kernel, double length)
+    {
+        if(!kernel.equals("plummer") && !kernel.equals("spline"))
+        {
+            throw new IllegalArgumentException("Unknown softening kernel: " + kernel);
+        }
+        if(!(length >= 0) || Double.isInfinite(length))
+        {
+            throw new IllegalArgumentException("The softening length must be finite and not negative: " + length);
+        }
+        this.kernel = kernel;
+        this.length = length;
+        plummer = length > 0 && kernel.equals("plummer");
+        spline = length > 0 && kernel.equals("spline");
+        lengthSquared = plummer ? length*length : 0;
+        radius = SPLINE_RATIO*length;
+        radiusSquared = spline ? radius*radius : 0;
+        inverseCube = spline ? Nbody.GRAVITATIONAL_CONSTANT/(radius*radius*radius) : 0;
+    }
+
+    //Returns true if the kernel is softened
+    public boolean isSoftened()
+    {
+        return plummer || spline;
+    }
+
+    /**
+     * Finds the factor by which the separation vector of two bodies is multiplied to obtain the acceleration of one
+     * body due to the other, GM/(r^3) without softening.
+     *
+     * @param mass: the mass in kilograms of the body exerting the force
+     * @param distanceSquared: the square of the distance between the bodies in meters^2
+     * @return: the factor in 1/second^2
+     */
+    public double factor(double mass, double distanceSquared)
+    {
+        if(plummer)
+        {
+            return GravityKernel.factor(mass, distanceSquared + lengthSquared);
+        }
+        if(distanceSquared < radiusSquared)
+        {
+            return mass*splineFactor(distanceSquared);
+        }
+        return GravityKernel.factor(mass, distanceSquared);
+    }
+
+    /**
+     * Finds the factor shared by both bodies of a pair, G/(r^3) without softening. Multiplying it by the mass of either
+     * body and the separation vector gives the acceleration of the other body.
+     *
+     * @param distanceSquared: the square of the distance between the bodies in meters^2
+     * @return: the factor in 1/(kilogram second^2)
+     */
+    public double sharedFactor(double distanceSquared)
+    {
+        if(plummer)
+        {
+            return GravityKernel.sharedFactor(distanceSquared + lengthSquared);
+        }
+        if(distanceSquared < radiusSquared)
+        {
+            return splineFactor(distanceSquared);
+        }
+        return GravityKernel.sharedFactor(distanceSquared);
+    }
+
+    /**
+     * Finds the rate at which the factor of a pair falls as the bodies separate, which gives the jerk of a body: with
+     * acceleration f*dr, the jerk is f*(dv - rate*(dr.dv)*dr). Without softening the rate is 3/(r^2).
+     *
+     * @param distanceSquared: the square of the distance between the bodies in meters^2
+     * @return: the rate in 1/meters^2
+     */
+    public double jerkRate(double distanceSquared)
+    {
+        if(plummer)
+        {
+            return 3/(distanceSquared + lengthSquared);
+        }
+        if(distanceSquared < radiusSquared)
+        {
+            //With the factor written as C(u)/(h^3) for u = r/h, the rate is -C'(u)/(u C(u) h^2)
+            double u = Math.sqrt(distanceSquared)/radius;
+            double slope = u < 0.5 ? 96*u - 76.8 : -48/u + 76.8 - 32*u + 0.2/(u*u*u*u*u);
+            return -slope/(splineShape(u)*radiusSquared);
+        }
+        return 3/distanceSquared;
+    }
+
+    /**
+     * Finds the inverse distance used for the potential energy of a pair, which is -G m1 m2 times it. Without softening
+     * it is 1/r.
+     *
+     * @param distanceSquared: the square of the distance between the bodies in meters^2
+     * @return: the inverse distance in 1/meters
+     */
+    public double inverseDistance(double distanceSquared)
+    {
+        if(plummer)
+        {
+            return 1/Math.sqrt(distanceSquared + lengthSquared);
+        }
+        if(distanceSquared < radiusSquared)
+        {
+            double u = Math.sqrt(distanceSquared)/radius;
+            double u2 = u*u;
+            double well = u < 0.5
+                    ? 2.8 - u2*(16.0/3 + u2*(6.4*u - 9.6))
+                    : 3.2 - 1/(15*u) - u2*(32.0/3 + u*(-16 + u*(9.6 - 32.0/15*u)));
+            return well/radius;
+        }
+        return 1/Math.sqrt(distanceSquared);
+    }
+
+    /**
+     * Finds G/(r^3) for the spline kernel within its radius.
+     *
+     * @param distanceSquared: the square of the distance between the bodies in meters^2, less than radiusSquared
+     * @return: the factor in 1/(kilogram second^2)
+     */
+    private double splineFactor(double distanceSquared)
+    {
+        return inverseCube*splineShape(Math.sqrt(distanceSquared)/radius);
+    }
+
+    /**
+     * Finds the shape C(u) of the spline force for u = r/h less than 1, which tends to 1/(u^3) as u approaches 1.
+     *
+     * @param u: the distance divided by the radius of the kernel
+     * @return: C(u)
+     */
+    static double splineShape(double u)
+    {
+        if(u < 0.5)
+        {
+            return 32.0/3 + u*u*(32*u - 38.4);
+        }
+        return 64.0/3 - 48*u + 38.4*u*u - 32.0/3*u*u*u - 1/(15*u*u*u);
+    }
+}
@@ -0,0 +1,103 @@
+package numericalmethods;
+import java.util.List;
+
+/**
+ * The StepScheduler class decides at which time steps the output and diagnostic events of a run happen. Each kind of
+ * event has its own cadence, a whole number of time steps, and is due whenever the step counter is a multiple of it.
+ * Because the decision is made on the integer step counter rather than on the accumulated simulation time, events
+ * keep firing exactly on schedule however long the run is, and the schedule survives restarting from a snapshot.
+ *
+ * The run loop asks the scheduler for the next step at which any event is due and then takes every step up to it
+ * without checking for events at all.
+ *
+ */
+public class StepScheduler
+{
+    /**
+     * The Event enum lists the kinds of events that can be scheduled.
+     */
+    public enum Event
+    {
+        //PROGRESS prints the elapsed time, SNAPSHOT writes a frame to the output file, METRICS reports the metrics of
+        //the run, RENDER hands the bodies to the renderer, and CHECKPOINT saves the state of the run
+        PROGRESS, SNAPSHOT, METRICS, RENDER, CHECKPOINT
+    }
+
+    //every holds the cadence of each kind of event in time steps, or 0 for an event that never happens
+    private final long[] every = new long[Event.values().length];
+
+    /**
+     * Sets the cadence of a kind of event.
+     *
+     * @param event: the kind of event
+     * @param steps: the number of time steps between events, or 0 for an event that never happens
+     */
+    public void schedule(Event event, long steps)
+    {
+        if(steps < 0)
+        {
+            throw new IllegalArgumentException("The cadence of " + event + " must not be negative: " + steps);
+        }
+        every[event.ordinal()] = steps;
+    }
+
+    //Returns the cadence of a kind of event in time steps, or 0 for an event that never happens
+    public long cadence(Event event)
+    {
+        return every[event.ordinal()];
+    }
+
+    /**
+     * Determines whether an event is due at the given step.
+     *
+     * @param event: the kind of event
+     * @param step: the step counter
+     * @return: true if the step is a multiple of the cadence of the event
+     */
+    public boolean isDue(Event event, long step)
+    {
+        long steps = every[event.ordinal()];
+        return steps > 0 && step % steps == 0;
+    }
+
+    /**
+     * Finds the first step after the given one at which any event is due.
+     *
+     * @param step: the step counter
+     * @return: the next step at which an event is due, or Long.MAX_VALUE if no event is ever due
+     */
+    public long nextDue(long step)
+    {
+        long next = Long.MAX_VALUE;
+        for(long steps : every)
+        {
+            if(steps > 0)
+            {
+                next = Math.min(next, (Math.floorDiv(step, steps) + 1)*steps);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Converts an interval in seconds to a whole number of time steps, rounding to the nearest step. An interval that
+     * is not a multiple of the time step is reported, since events then happen at slightly different times than asked.
+     *
+     * @param interval: the interval in seconds
+     * @param timeStep: the time step in seconds
+     * @param name: the name of the interval, used in the report
+     * @param notices: the list to which the report is added, for the caller to print
+     * @return: the number of time steps, at least 1
+     */
+    public static long toSteps(double interval, double timeStep, String name, List<String> notices)
+    {
+        double ratio = interval/timeStep;
+        long steps = Math.max(1, Math.round(ratio));
+        if(Math.abs(ratio - steps) > 1e-9*ratio)
+        {
+            notices.add("The " + name + " of " + interval + " seconds is not a multiple of the time step. Using "
+                    + steps + " steps (" + steps*timeStep + " seconds) instead.");
+        }
+        return steps;
+    }
+}
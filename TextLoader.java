@@ -0,0 +1,647 @@
+package numericalmethods;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.InputMismatchException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The TextLoader class reads the bodies of a text input file, one body per line of seven numbers: the position in
+ * parsecs, the velocity in km/s, and the mass in solar masses. Blank lines and lines beginning with "#" are ignored,
+ * except that a header line beginning with "# frame" discards the bodies read before it, so an output file holding
+ * several frames gives the bodies of its last frame.
+ *
+ * The file is split into chunks of about CHUNK_BYTES, each ending at the end of a line, and is read in two passes, both
+ * run in parallel over the chunks:
+ *     the first pass counts the lines and bodies of each chunk and finds its last frame header, which gives the exact
+ *     number of bodies, so the ParticleStore is allocated once at its final size, and the index of the first body of
+ *     each chunk
+ *     the second pass parses the bodies of each chunk straight into the arrays of the ParticleStore
+ * In each pass a chunk is read with positional reads into a direct buffer, which is dropped once the chunk is done, so
+ * at most one chunk per thread is held in memory. The file is never memory-found, for the reason given in
+ * BinarySnapshot: an output file may be read back as input and later truncated or replaced by the same run.
+ * Numbers are parsed from the bytes of the buffer without creating any strings. A number of up to 19 significant
+ * digits is converted exactly by multiplying its digits by a power of ten, either in double precision when both are
+ * exact or by the 128-bit method of Eisel and Lemire (Lemire 2021), which gives the correctly rounded double. The rare
+ * numbers that neither can decide, and words such as NaN and Infinity, are passed to Double.parseDouble(), so every
+ * value is bitwise the same as with a Scanner.
+ *
+ */
+public final class TextLoader
+{
+    //CHUNK_BYTES is the size in bytes of the chunks into which the file is split
+    public static final int CHUNK_BYTES = 1 << 22;
+
+    //MIN_EXPONENT and MAX_EXPONENT are the smallest and largest powers of ten held in the table of the Eisel-Lemire
+    //method; the digits of any number outside them give zero or infinity
+    private static final int MIN_EXPONENT = -342;
+    private static final int MAX_EXPONENT = 308;
+
+    //POWERS_HIGH and POWERS_LOW hold the high and low 64 bits of 10^e for e from MIN_EXPONENT to MAX_EXPONENT, scaled
+    //by a power of two so that the top bit is set and rounded down to 128 bits
+    private static final long[] POWERS_HIGH = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+    private static final long[] POWERS_LOW = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+    //FRAME_HEADER is the start of the header line of a frame
+    private static final byte[] FRAME_HEADER = "# frame".getBytes(StandardCharsets.US_ASCII);
+
+    //EXACT_POWERS holds the powers of ten that are exact in double precision
+    private static final double[] EXACT_POWERS = new double[23];
+
+    static
+    {
+        for(int e = MIN_EXPONENT; e <= MAX_EXPONENT; e++)
+        {
+            BigInteger power = BigInteger.TEN.pow(Math.abs(e));
+            int bits = power.bitLength();
+            BigInteger scaled;
+            if(e < 0)
+            {
+                scaled = BigInteger.ONE.shiftLeft(bits + 127).divide(power);
+            }
+            else if(bits > 128)
+            {
+                scaled = power.shiftRight(bits - 128);
+            }
+            else
+            {
+                scaled = power.shiftLeft(128 - bits);
+            }
+            POWERS_HIGH[e - MIN_EXPONENT] = scaled.shiftRight(64).longValue();
+            POWERS_LOW[e - MIN_EXPONENT] = scaled.longValue();
+        }
+        EXACT_POWERS[0] = 1;
+        for(int e = 1; e < EXACT_POWERS.length; e++)
+        {
+            EXACT_POWERS[e] = EXACT_POWERS[e - 1]*10;
+        }
+    }
+
+    //The class only has static methods and is never instantiated
+    private TextLoader()
+    {
+    }
+
+    /**
+     * Reads the bodies of a text input file, converting all position, velocity and mass values to mks units. If the
+     * file is an output file holding several frames, the bodies of the last frame are returned.
+     *
+     * @param file: the input file
+     * @param pool: the ForkJoinPool on which the chunks are read, or null to read them on the calling thread
+     * @return: a ParticleStore holding the bodies
+     * @throws IOException: if the file cannot be read
+     * @throws InputMismatchException: if the file is not in the format of an input file
+     */
+    public static ParticleStore read(File file, ForkJoinPool pool) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            return read(file, channel, pool);
+        }
+        catch(UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads the bodies of a text input file through a channel that is open for the whole of both passes.
+     *
+     * @param file: the input file, named in errors
+     * @param channel: a channel opened for reading on the file
+     * @param pool: the ForkJoinPool on which the chunks are read, or null to read them on the calling thread
+     * @return: a ParticleStore holding the bodies
+     * @throws IOException: if the file cannot be read
+     * @throws UncheckedIOException: if a chunk cannot be read on a worker thread
+     */
+    private static ParticleStore read(File file, FileChannel channel, ForkJoinPool pool) throws IOException
+    {
+        Chunk[] chunks = split(channel);
+
+        ParallelRange.forEachPart(pool, chunks.length, (from, to) ->
+        {
+            for(int c = from; c < to; c++)
+            {
+                chunks[c].load(channel);
+                chunks[c].scan();
+                chunks[c].unload();
+            }
+        });
+
+        //Only the chunks from the one holding the last frame header onwards hold bodies of the last frame
+        int first = 0;
+        for(int c = 0; c < chunks.length; c++)
+        {
+            if(chunks[c].frameStart >= 0)
+            {
+                first = c;
+            }
+        }
+        long lines = 0, bodies = 0;
+        for(int c = 0; c < chunks.length; c++)
+        {
+            chunks[c].firstLine = lines + 1;
+            lines += chunks[c].lines;
+            if(c >= first)
+            {
+                chunks[c].firstBody = (int)bodies;
+                bodies += chunks[c].bodies;
+                if(bodies > Integer.MAX_VALUE - 8)
+                {
+                    throw new InputMismatchException("Input file " + file + " holds too many bodies");
+                }
+            }
+        }
+
+        ParticleStore particles = new ParticleStore((int)bodies);
+        particles.n = (int)bodies;
+        int firstChunk = first;
+        ParallelRange.forEachPart(pool, chunks.length - first, (from, to) ->
+        {
+            for(int c = from; c < to; c++)
+            {
+                chunks[firstChunk + c].load(channel);
+                chunks[firstChunk + c].parse(particles);
+                chunks[firstChunk + c].unload();
+            }
+        });
+
+        //Errors are thrown here rather than on the worker threads, so the first bad line of the file is reported
+        for(Chunk chunk : chunks)
+        {
+            if(chunk.error != null)
+            {
+                throw new InputMismatchException(chunk.error);
+            }
+        }
+        return particles;
+    }
+
+    /**
+     * Splits a file into chunks of about CHUNK_BYTES, moving the end of each chunk forward to the end of a line.
+     *
+     * @param channel: a channel opened for reading on the file
+     * @return: the chunks, none of them empty
+     * @throws IOException: if the file cannot be read
+     */
+    private static Chunk[] split(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        int count = (int)((size + CHUNK_BYTES - 1)/CHUNK_BYTES);
+        Chunk[] chunks = new Chunk[count];
+        int found = 0;
+        long start = 0;
+        ByteBuffer probe = ByteBuffer.allocate(256);
+        for(int c = 1; c <= count && start < size; c++)
+        {
+            long end = Math.max(start, lineStart(channel, (long)c*CHUNK_BYTES, size, probe));
+            if(end > start)
+            {
+                if(end - start > Integer.MAX_VALUE)
+                {
+                    throw new InputMismatchException("Input file holds a line too long to be read");
+                }
+                chunks[found++] = new Chunk(start, (int)(end - start));
+                start = end;
+            }
+        }
+        Chunk[] result = new Chunk[found];
+        System.arraycopy(chunks, 0, result, 0, found);
+        return result;
+    }
+
+    /**
+     * Finds the start of the first line that begins at or after the given position.
+     *
+     * @param channel: a channel opened for reading on the file
+     * @param position: the position in bytes
+     * @param size: the size of the file in bytes
+     * @param probe: a buffer into which the bytes before the next line are read
+     * @return: the position of the start of the line, or the size of the file if there is none
+     * @throws IOException: if the file cannot be read
+     */
+    private static long lineStart(FileChannel channel, long position, long size, ByteBuffer probe) throws IOException
+    {
+        //A line begins at the position if the byte before it ends a line
+        long search = position - 1;
+        while(search < size)
+        {
+            probe.clear();
+            int read = channel.read(probe, search);
+            if(read <= 0)
+            {
+                break;
+            }
+            for(int i = 0; i < read; i++)
+            {
+                if(probe.get(i) == '\n')
+                {
+                    return search + i + 1;
+                }
+            }
+            search += read;
+        }
+        return size;
+    }
+
+    /**
+     * Parses a number from the bytes from through to - 1 of a buffer.
+     *
+     * @param buffer: the buffer holding the number
+     * @param from: the position of the first byte of the number
+     * @param to: one more than the position of the last byte of the number
+     * @return: the correctly rounded value of the number
+     * @throws NumberFormatException: if the bytes are not a number
+     */
+    static double parseNumber(ByteBuffer buffer, int from, int to)
+    {
+        int p = from;
+        boolean negative = false;
+        if(p < to && (buffer.get(p) == '-' || buffer.get(p) == '+'))
+        {
+            negative = buffer.get(p) == '-';
+            p++;
+        }
+
+        //The significant digits are gathered into an integer and the decimal point is moved into the exponent, so the
+        //value is digits*10^exponent. Leading zeros are not significant digits.
+        long digits = 0;
+        int significant = 0, exponent = 0;
+        boolean any = false, point = false;
+        for(; p < to; p++)
+        {
+            int b = buffer.get(p);
+            if(b >= '0' && b <= '9')
+            {
+                any = true;
+                if(significant < 19)
+                {
+                    digits = 10*digits + (b - '0');
+                    significant += digits != 0 ? 1 : 0;
+                    exponent -= point ? 1 : 0;
+                }
+                else
+                {
+                    //Too many digits to hold; the slow path parses the number
+                    return fallback(buffer, from, to);
+                }
+            }
+            else if(b == '.' && !point)
+            {
+                point = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if(p < to && any && (buffer.get(p) == 'e' || buffer.get(p) == 'E'))
+        {
+            p++;
+            boolean negativeExponent = false;
+            if(p < to && (buffer.get(p) == '-' || buffer.get(p) == '+'))
+            {
+                negativeExponent = buffer.get(p) == '-';
+                p++;
+            }
+            int start = p, power = 0;
+            for(; p < to && buffer.get(p) >= '0' && buffer.get(p) <= '9'; p++)
+            {
+                power = Math.min(10*power + (buffer.get(p) - '0'), 100000);
+            }
+            if(p == start)
+            {
+                return fallback(buffer, from, to);
+            }
+            exponent += negativeExponent ? -power : power;
+        }
+        if(!any || p < to)
+        {
+            return fallback(buffer, from, to);
+        }
+
+        double value;
+        if(digits == 0)
+        {
+            value = 0;
+        }
+        else if(digits > 0 && digits < 1L << 53 && exponent >= -22 && exponent <= 22)
+        {
+            //Both the digits and the power of ten are exact, so one correctly rounded operation gives the value
+            value = exponent < 0 ? digits/EXACT_POWERS[-exponent] : digits*EXACT_POWERS[exponent];
+        }
+        else
+        {
+            long bits = eiselLemire(digits, exponent);
+            if(bits < 0)
+            {
+                return fallback(buffer, from, to);
+            }
+            value = Double.longBitsToDouble(bits);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Converts digits*10^exponent to the nearest double by the method of Eisel and Lemire, multiplying the digits by a
+     * 128-bit approximation of the power of ten.
+     *
+     * @param digits: the significant digits, not 0, read as an unsigned integer
+     * @param exponent: the power of ten
+     * @return: the bits of the double, or -1 if the result cannot be decided or is zero, subnormal, or infinite
+     */
+    private static long eiselLemire(long digits, int exponent)
+    {
+        if(exponent < MIN_EXPONENT || exponent > MAX_EXPONENT)
+        {
+            return -1;
+        }
+        int shift = Long.numberOfLeadingZeros(digits);
+        digits <<= shift;
+
+        //217706/2^16 is log2(10), which gives the binary exponent of the power of ten
+        long binaryExponent = ((217706L*exponent) >> 16) + 64 + 1023 - shift;
+
+        int index = exponent - MIN_EXPONENT;
+        long high = unsignedMultiplyHigh(digits, POWERS_HIGH[index]);
+        long low = digits*POWERS_HIGH[index];
+
+        //If the truncated product lies just below a rounding boundary, the low 64 bits of the power are added in
+        if((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + digits, digits) < 0)
+        {
+            long wideHigh = unsignedMultiplyHigh(digits, POWERS_LOW[index]);
+            long wideLow = digits*POWERS_LOW[index];
+            long mergedHigh = high, mergedLow = low + wideHigh;
+            if(Long.compareUnsigned(mergedLow, low) < 0)
+            {
+                mergedHigh++;
+            }
+            if((mergedHigh & 0x1FF) == 0x1FF && mergedLow == -1 && Long.compareUnsigned(wideLow + digits, digits) < 0)
+            {
+                return -1;
+            }
+            high = mergedHigh;
+            low = mergedLow;
+        }
+
+        //The product is cut to 54 bits, then rounded to 53 bits, half to even
+        long top = high >>> 63;
+        long mantissa = high >>> (top + 9);
+        binaryExponent -= 1 ^ top;
+        if(low == 0 && (high & 0x1FF) == 0 && (mantissa & 3) == 1)
+        {
+            return -1;
+        }
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if(mantissa >>> 53 > 0)
+        {
+            mantissa >>>= 1;
+            binaryExponent++;
+        }
+        if(binaryExponent <= 0 || binaryExponent >= 0x7FF)
+        {
+            return -1;
+        }
+        return binaryExponent << 52 | mantissa & 0x000FFFFFFFFFFFFFL;
+    }
+
+    //Returns the high 64 bits of the 128-bit product of two unsigned longs
+    private static long unsignedMultiplyHigh(long a, long b)
+    {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    /**
+     * Parses a number with Double.parseDouble(), for the numbers the fast path does not handle.
+     *
+     * @param buffer: the buffer holding the number
+     * @param from: the position of the first byte of the number
+     * @param to: one more than the position of the last byte of the number
+     * @return: the value of the number
+     * @throws NumberFormatException: if the bytes are not a number
+     */
+    private static double fallback(ByteBuffer buffer, int from, int to)
+    {
+        return Double.parseDouble(text(buffer, from, to));
+    }
+
+    //Returns the bytes from through to - 1 of a buffer as a string
+    private static String text(ByteBuffer buffer, int from, int to)
+    {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //Returns true for the bytes that separate numbers
+    private static boolean isBlank(int b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * A Chunk is a part of the file made up of whole lines.
+     */
+    private static final class Chunk
+    {
+        //start is the position of the chunk in the file, and length is its size in bytes
+        final long start;
+        final int length;
+
+        //buffer holds the bytes of the chunk while it is loaded, and is null otherwise
+        ByteBuffer buffer;
+
+        //lines is the number of lines that begin in the chunk, and bodies is the number of body lines in it that
+        //follow its last frame header
+        int lines, bodies;
+
+        //frameStart is the position in the chunk of the line after its last frame header, or -1 if it has none, and
+        //frameLines is the number of lines before that position
+        int frameStart = -1, frameLines;
+
+        //firstLine is the line number of the first line of the chunk, counting from 1, and firstBody is the index of
+        //the body on the first body line to be parsed
+        long firstLine;
+        int firstBody;
+
+        //error describes the first line of the chunk that could not be parsed, or is null if there is none
+        String error;
+
+        Chunk(long start, int length)
+        {
+            this.start = start;
+            this.length = length;
+        }
+
+        /**
+         * Reads the bytes of the chunk into a new direct buffer.
+         *
+         * @param channel: a channel opened for reading on the file
+         * @throws UncheckedIOException: if the chunk cannot be read, since this runs on the threads of the pool
+         */
+        void load(FileChannel channel)
+        {
+            buffer = ByteBuffer.allocateDirect(length);
+            try
+            {
+                BinarySnapshot.readFully(channel, buffer, start);
+            }
+            catch(IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            buffer.flip();
+        }
+
+        //Drops the bytes of the chunk, so only the chunks being read are held in memory
+        void unload()
+        {
+            buffer = null;
+        }
+
+        //Counts the lines and bodies of the chunk and finds its last frame header
+        void scan()
+        {
+            int limit = buffer.limit();
+            for(int p = 0; p < limit; )
+            {
+                int end = lineEnd(p);
+                lines++;
+                int kind = kind(p, end);
+                if(kind == 'b')
+                {
+                    bodies++;
+                }
+                else if(kind == 'f')
+                {
+                    bodies = 0;
+                    frameStart = end + 1;
+                    frameLines = lines;
+                }
+                p = end + 1;
+            }
+        }
+
+        /**
+         * Parses the body lines of the chunk that follow its last frame header into the ParticleStore. Parsing stops at
+         * the first line that is not a frame header, a comment, blank, or seven numbers, which is recorded in error.
+         *
+         * @param particles: the store, already of its final size
+         */
+        void parse(ParticleStore particles)
+        {
+            int limit = buffer.limit();
+            int i = firstBody;
+            long line = firstLine + (frameStart >= 0 ? frameLines : 0);
+            double[] values = new double[BinarySnapshot.COLUMNS];
+            for(int p = Math.max(frameStart, 0); p < limit; line++)
+            {
+                int end = lineEnd(p);
+                if(kind(p, end) == 'b')
+                {
+                    if(!parseLine(p, end, values))
+                    {
+                        error = "Unexpected line " + line + " in input file: " + text(buffer, p, end).trim();
+                        return;
+                    }
+                    particles.x[i] = Nbody.PARSEC_CONVERSION * values[0];
+                    particles.y[i] = Nbody.PARSEC_CONVERSION * values[1];
+                    particles.z[i] = Nbody.PARSEC_CONVERSION * values[2];
+                    particles.vx[i] = Nbody.KILOMETER_CONVERSION * values[3];
+                    particles.vy[i] = Nbody.KILOMETER_CONVERSION * values[4];
+                    particles.vz[i] = Nbody.KILOMETER_CONVERSION * values[5];
+                    particles.mass[i] = Nbody.SOLAR_MASS * values[6];
+                    i++;
+                }
+                p = end + 1;
+            }
+        }
+
+        //Returns the position of the newline that ends the line beginning at p, or the limit if there is none
+        private int lineEnd(int p)
+        {
+            int limit = buffer.limit();
+            while(p < limit && buffer.get(p) != '\n')
+            {
+                p++;
+            }
+            return p;
+        }
+
+        //Returns 'b' for a body line, 'f' for a frame header, or ' ' for a blank line or any other comment
+        private int kind(int p, int end)
+        {
+            while(p < end && isBlank(buffer.get(p)))
+            {
+                p++;
+            }
+            if(p == end)
+            {
+                return ' ';
+            }
+            if(buffer.get(p) != '#')
+            {
+                return 'b';
+            }
+            if(end - p < FRAME_HEADER.length)
+            {
+                return ' ';
+            }
+            for(int k = 1; k < FRAME_HEADER.length; k++)
+            {
+                if(buffer.get(p + k) != FRAME_HEADER[k])
+                {
+                    return ' ';
+                }
+            }
+            return 'f';
+        }
+
+        /**
+         * Parses the numbers of a body line.
+         *
+         * @param p: the position of the start of the line
+         * @param end: the position of the end of the line
+         * @param values: the array into which the seven numbers are written
+         * @return: true if the line holds exactly seven numbers
+         */
+        private boolean parseLine(int p, int end, double[] values)
+        {
+            int column = 0;
+            while(true)
+            {
+                while(p < end && isBlank(buffer.get(p)))
+                {
+                    p++;
+                }
+                if(p == end)
+                {
+                    return column == values.length;
+                }
+                int start = p;
+                while(p < end && !isBlank(buffer.get(p)))
+                {
+                    p++;
+                }
+                if(column == values.length)
+                {
+                    return false;
+                }
+                try
+                {
+                    values[column++] = parseNumber(buffer, start, p);
+                }
+                catch(NumberFormatException e)
+                {
+                    return false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package numericalmethods;
+
+/**
+ * The TimedEngine class wraps another ForceEngine and records how long it spends finding accelerations and how many
+ * pair interactions it evaluates. The Nbody class passes a TimedEngine to the Integrator when metrics are collected, so
+ * that the time spent in the force phase of each step can be told apart from the rest of the integrator's work.
+ *
+ */
+public class TimedEngine implements ForceEngine
+{
+    //engine is the ForceEngine that finds the accelerations
+    public final ForceEngine engine;
+
+    //nanos is the total time spent finding accelerations in nanoseconds, and interactions is the total number of pair
+    //interactions evaluated
+    public long nanos;
+    public long interactions;
+
+    /**
+     * Creates a TimedEngine that wraps the given engine.
+     *
+     * @param engine: the ForceEngine that finds the accelerations
+     */
+    public TimedEngine(ForceEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    public void computeAccelerations(ParticleStore particles)
+    {
+        long start = System.nanoTime();
+        engine.computeAccelerations(particles);
+        nanos += System.nanoTime() - start;
+        interactions += engine.interactionCount(particles);
+    }
+
+    public long interactionCount(ParticleStore particles)
+    {
+        return engine.interactionCount(particles);
+    }
+}
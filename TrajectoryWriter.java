@@ -0,0 +1,270 @@
+package numericalmethods;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The TrajectoryWriter class appends snapshots (or frames) of a system to an output file as a simulation runs, so that
+ * the whole time series is kept rather than only the latest positions. Each frame begins with a header line of the form
+ * "# frame [number] time [seconds] bodies [count]", followed by one line per body in the format of the input file.
+ * Lines are collected in a large buffer and the file is flushed once per frame.
+ *
+ * In binary format, each frame is instead appended as a frame of a BinarySnapshot file, which stores every value
+ * exactly and can be read back in milliseconds. The text format remains available as an export option.
+ *
+ * Optionally, the trajectory can be rotated across several files. When framesPerFile is greater than 0, a new file is
+ * started after that many frames; the files are named after the output file with a sequence number before the
+ * extension (output.0.txt, output.1.txt, and so on). When keepFiles is also greater than 0, only that many of the most
+ * recent files are kept and older ones are deleted, which bounds the disk space used by long runs.
+ *
+ */
+public class TrajectoryWriter
+{
+    //BUFFER_SIZE is the size in characters of the buffer in which a frame is collected before it is written
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    //output is the output file named in the control file
+    private final File output;
+
+    //binary is true if frames are written in the binary snapshot format rather than as text
+    private final boolean binary;
+
+    //framesPerFile is the number of frames written to each file before a new one is started, or 0 to use one file
+    private final int framesPerFile;
+
+    //keepFiles is the number of the most recent files that are kept, or 0 to keep every file
+    private final int keepFiles;
+
+    //out is the writer for the current file in text format, channel is the channel for the current file in binary
+    //format, fileIndex is the sequence number of the current file, and framesInFile is the number of frames written to
+    //it so far
+    private BufferedWriter out;
+    private FileChannel channel;
+
+    //buffer is the buffer through which binary frames are copied to the file, created with the first binary frame
+    private ByteBuffer buffer;
+    private int fileIndex = -1;
+    private int framesInFile;
+
+    //frameCount is the number of frames written so far
+    private long frameCount;
+
+    /**
+     * Creates a writer that appends every frame to the given output file, which is cleared when the first frame is
+     * written.
+     *
+     * @param output: the output file
+     */
+    public TrajectoryWriter(File output)
+    {
+        this(output, false, 0, 0);
+    }
+
+    /**
+     * Creates a writer that rotates the trajectory across several files.
+     *
+     * @param output: the output file, used as the base name of the rotated files
+     * @param binary: true to write frames in the binary snapshot format, or false to write text
+     * @param framesPerFile: the number of frames in each file, or 0 to write every frame to the output file itself
+     * @param keepFiles: the number of most recent files to keep, or 0 to keep every file
+     */
+    public TrajectoryWriter(File output, boolean binary, int framesPerFile, int keepFiles)
+    {
+        this.output = output;
+        this.binary = binary;
+        this.framesPerFile = framesPerFile;
+        this.keepFiles = keepFiles;
+    }
+
+    /**
+     * Appends a frame holding the position, velocity, and mass of every body and flushes the file. In text format the
+     * values are converted to parsecs, km/s, and solar masses.
+     *
+     * @param particles: the bodies in the system
+     * @param time: the simulation time of the frame in seconds
+     * @param step: the number of time steps taken before the frame
+     * @throws IOException: if the file cannot be opened or written
+     */
+    public void writeFrame(ParticleStore particles, double time, long step) throws IOException
+    {
+        if(fileIndex < 0 || (framesPerFile > 0 && framesInFile == framesPerFile))
+        {
+            nextFile();
+        }
+
+        if(binary)
+        {
+            if(buffer == null)
+            {
+                buffer = BinarySnapshot.createBuffer();
+            }
+            BinarySnapshot.append(channel, buffer, particles, time, step);
+            framesInFile++;
+            frameCount++;
+            return;
+        }
+
+        out.write("# frame " + frameCount + " time " + time + " bodies " + particles.n + "\r\n");
+        for(int i = 0; i < particles.n; i++)
+        {
+            out.write(Double.toString(particles.x[i]/Nbody.PARSEC_CONVERSION));
+            out.write(' ');
+            out.write(Double.toString(particles.y[i]/Nbody.PARSEC_CONVERSION));
+            out.write(' ');
+            out.write(Double.toString(particles.z[i]/Nbody.PARSEC_CONVERSION));
+            out.write('\t');
+            out.write(Double.toString(particles.vx[i]/Nbody.KILOMETER_CONVERSION));
+            out.write(' ');
+            out.write(Double.toString(particles.vy[i]/Nbody.KILOMETER_CONVERSION));
+            out.write(' ');
+            out.write(Double.toString(particles.vz[i]/Nbody.KILOMETER_CONVERSION));
+            out.write('\t');
+            out.write(Double.toString(particles.mass[i]/Nbody.SOLAR_MASS));
+            out.write("\r\n");
+        }
+        out.flush();
+
+        framesInFile++;
+        frameCount++;
+    }
+
+    /**
+     * Continues a trajectory that already holds the given number of frames, as when a run is resumed or rolled back
+     * from a checkpoint. The file that would have received the next frame is reopened for appending rather than
+     * cleared, and is first cut back to its length at the checkpoint, so that frames written after the checkpoint by
+     * the interrupted run are not repeated.
+     *
+     * @param frames: the number of frames already written
+     * @param length: the length in bytes of the current file when the frames had been written
+     * @throws IOException: if the file cannot be opened or cut back
+     */
+    public void resume(long frames, long length) throws IOException
+    {
+        close();
+        frameCount = frames;
+        if(frames == 0)
+        {
+            fileIndex = -1;
+            return;
+        }
+        if(framesPerFile > 0)
+        {
+            //If the last file is full, it is reopened as full, so that the next frame starts a new file
+            fileIndex = (int)((frames - 1)/framesPerFile);
+            framesInFile = (int)(frames - (long)fileIndex*framesPerFile);
+        }
+        else
+        {
+            fileIndex = 0;
+        }
+
+        try(FileChannel file = FileChannel.open(fileFor(fileIndex).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE))
+        {
+            file.truncate(length);
+        }
+        open(fileIndex, true);
+    }
+
+    //Returns the length in bytes of the current file, or 0 if no frame has been written
+    public long getFileLength() throws IOException
+    {
+        if(fileIndex < 0)
+        {
+            return 0;
+        }
+        return binary ? channel.size() : fileFor(fileIndex).length();
+    }
+
+    //Returns the number of frames written so far
+    public long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    /**
+     * Closes the current file.
+     *
+     * @throws IOException: if the file cannot be closed
+     */
+    public void close() throws IOException
+    {
+        if(out != null)
+        {
+            out.close();
+            out = null;
+        }
+        if(channel != null)
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Closes the current file, starts the next one, and deletes any file that falls outside the retention policy.
+     *
+     * @throws IOException: if a file cannot be closed or opened
+     */
+    private void nextFile() throws IOException
+    {
+        close();
+        fileIndex++;
+        framesInFile = 0;
+        open(fileIndex, false);
+
+        if(framesPerFile > 0 && keepFiles > 0 && fileIndex >= keepFiles)
+        {
+            File expired = fileFor(fileIndex - keepFiles);
+            if(expired.exists() && !expired.delete())
+            {
+                throw new IOException("Could not delete old trajectory file " + expired);
+            }
+        }
+    }
+
+    /**
+     * Opens the file with the given sequence number.
+     *
+     * @param index: the sequence number of the file
+     * @param append: true to add frames to the end of the file, or false to clear it
+     * @throws IOException: if the file cannot be opened
+     */
+    private void open(int index, boolean append) throws IOException
+    {
+        if(binary)
+        {
+            channel = append
+                    ? FileChannel.open(fileFor(index).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE)
+                    : FileChannel.open(fileFor(index).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        else
+        {
+            out = new BufferedWriter(new FileWriter(fileFor(index), append), BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Finds the file with the given sequence number. Without rotation, this is always the output file.
+     *
+     * @param index: the sequence number of the file
+     * @return: the file
+     */
+    public File fileFor(int index)
+    {
+        if(framesPerFile <= 0)
+        {
+            return output;
+        }
+        String name = output.getName();
+        int dot = name.lastIndexOf('.');
+        String rotated = dot > 0 ? name.substring(0, dot) + "." + index + name.substring(dot) : name + "." + index;
+        return new File(output.getAbsoluteFile().getParentFile(), rotated);
+    }
+}
@@ -0,0 +1,348 @@
+package numericalmethods;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorKernel class holds a SIMD version of the pairwise gravitational kernel, written with the Vector API of the
+ * JDK (the jdk.incubator.vector module). The bodies exerting a force are taken in tiles as wide as the preferred vector
+ * register of the processor (4 doubles with AVX2, 8 with AVX-512), and every lane of a tile finds the separation, the
+ * distance, and the acceleration due to one body at once. Each lane keeps its own running sum, and the lanes are added
+ * together once at the end of each body, so the sums are reproducible on a given processor but round differently than
+ * those of the scalar GravityKernel. The bodies left over after the last full tile are handled one at a time.
+ *
+ * With rsqrt, the inverse distance is found without a square root or a division: a first guess is made from the bits
+ * of the squared distance and refined by RSQRT_STEPS Newton-Raphson steps, all of them multiplications and additions.
+ * Three steps leave a relative error of about 1e-10 in each acceleration.
+ *
+ * Plummer softening adds the square of the softening length to each squared distance. With spline softening, the
+ * lanes of a tile that fall within the radius of the kernel are blended with the spline factor, which is only found
+ * for tiles holding such a lane.
+ *
+ * accumulateMixed() is the single-precision form of the kernel used by MixedPrecisionSum, whose vectors of floats hold
+ * twice as many lanes.
+ *
+ * The module must be added when the JVM is started (--add-modules jdk.incubator.vector). This class must only be used
+ * after GravityKernel.isVectorSupported() has confirmed that it was.
+ *
+ */
+public final class VectorKernel
+{
+    //SPECIES is the widest vector of doubles the processor handles efficiently
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    //FLOAT_SPECIES is the widest vector of floats the processor handles efficiently, used by MixedPrecisionSum
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    //RSQRT_MAGIC is the constant from which the first guess of the inverse square root of a double is made
+    private static final long RSQRT_MAGIC = 0x5FE6EB50C7B537A9L;
+
+    //RSQRT_STEPS is the number of Newton-Raphson steps applied to the first guess
+    public static final int RSQRT_STEPS = 3;
+
+    //The kernel only has static methods and is never instantiated
+    private VectorKernel()
+    {
+    }
+
+    //Returns the number of lanes in a vector of doubles on this processor
+    public static int lanes()
+    {
+        return SPECIES.length();
+    }
+
+    /**
+     * Adds the accelerations of body i due to bodies from through to - 1 to the given sum. Body i is skipped if it lies
+     * in that range.
+     *
+     * @param particles: the bodies in the system
+     * @param i: the index of the body being accelerated
+     * @param from: the index of the first body exerting a force
+     * @param to: one more than the index of the last body exerting a force
+     * @param rsqrt: true to find inverse distances by Newton-Raphson refinement rather than a square root
+     * @param softening: the softening of the force
+     * @param sum: a vector to which the acceleration in meters/second^2 is added
+     */
+    public static void accumulate(ParticleStore particles, int i, int from, int to, boolean rsqrt,
+            Softening softening, double[] sum)
+    {
+        //The range is split around body i, so that no lane ever holds the body itself
+        if(i >= from && i < to)
+        {
+            accumulateRange(particles, i, from, i, rsqrt, softening, sum);
+            accumulateRange(particles, i, i + 1, to, rsqrt, softening, sum);
+        }
+        else
+        {
+            accumulateRange(particles, i, from, to, rsqrt, softening, sum);
+        }
+    }
+
+    /**
+     * Adds the accelerations of body i due to bodies from through to - 1, none of which is body i, to the given sum.
+     *
+     * @param particles: the bodies in the system
+     * @param i: the index of the body being accelerated
+     * @param from: the index of the first body exerting a force
+     * @param to: one more than the index of the last body exerting a force
+     * @param rsqrt: true to find inverse distances by Newton-Raphson refinement rather than a square root
+     * @param softening: the softening of the force
+     * @param sum: a vector to which the acceleration in meters/second^2 is added
+     */
+    private static void accumulateRange(ParticleStore particles, int i, int from, int to, boolean rsqrt,
+            Softening softening, double[] sum)
+    {
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double[] mass = particles.mass;
+        double xi = x[i], yi = y[i], zi = z[i];
+
+        DoubleVector axi = DoubleVector.zero(SPECIES);
+        DoubleVector ayi = DoubleVector.zero(SPECIES);
+        DoubleVector azi = DoubleVector.zero(SPECIES);
+        int j = from;
+        for(int end = from + SPECIES.loopBound(to - from); j < end; j += SPECIES.length())
+        {
+            //dx, dy, and dz hold the position of each body of the tile with respect to body i
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(xi);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(yi);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, z, j).sub(zi);
+            DoubleVector factor = DoubleVector.fromArray(SPECIES, mass, j)
+                    .mul(inverseCube(dx, dy, dz, rsqrt, softening));
+
+            axi = dx.fma(factor, axi);
+            ayi = dy.fma(factor, ayi);
+            azi = dz.fma(factor, azi);
+        }
+
+        double axs = axi.reduceLanes(VectorOperators.ADD);
+        double ays = ayi.reduceLanes(VectorOperators.ADD);
+        double azs = azi.reduceLanes(VectorOperators.ADD);
+        for(; j < to; j++)
+        {
+            double dx = x[j] - xi;
+            double dy = y[j] - yi;
+            double dz = z[j] - zi;
+            double factor = softening.factor(mass[j], dx*dx + dy*dy + dz*dz);
+
+            axs += dx*factor;
+            ays += dy*factor;
+            azs += dz*factor;
+        }
+
+        sum[0] += axs;
+        sum[1] += ays;
+        sum[2] += azs;
+    }
+
+    /**
+     * Evaluates the pairs (i, j) with j greater than i once for both bodies, adding the acceleration of body i to
+     * element i of the sums and the equal and opposite accelerations of the other bodies to their own elements.
+     *
+     * @param particles: the bodies in the system
+     * @param i: the row of pairs evaluated
+     * @param rsqrt: true to find inverse distances by Newton-Raphson refinement rather than a square root
+     * @param softening: the softening of the force
+     * @param sumX: the array to which the x component of each acceleration is added
+     * @param sumY: the array to which the y component of each acceleration is added
+     * @param sumZ: the array to which the z component of each acceleration is added
+     */
+    public static void accumulatePairs(ParticleStore particles, int i, boolean rsqrt, Softening softening,
+            double[] sumX, double[] sumY, double[] sumZ)
+    {
+        int n = particles.n;
+        double[] x = particles.x, y = particles.y, z = particles.z;
+        double[] mass = particles.mass;
+        double xi = x[i], yi = y[i], zi = z[i];
+        double mi = mass[i];
+
+        DoubleVector axi = DoubleVector.zero(SPECIES);
+        DoubleVector ayi = DoubleVector.zero(SPECIES);
+        DoubleVector azi = DoubleVector.zero(SPECIES);
+        int j = i + 1;
+        for(int end = j + SPECIES.loopBound(n - j); j < end; j += SPECIES.length())
+        {
+            //dx, dy, and dz hold the position of each body of the tile with respect to body i, and factor holds G/(r^3)
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(xi);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(yi);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, z, j).sub(zi);
+            DoubleVector factor = inverseCube(dx, dy, dz, rsqrt, softening);
+
+            //Body i is pulled toward each body of the tile, and each body of the tile is pulled toward body i with an
+            //equal and opposite force. The bodies of a tile are distinct, so their sums are updated as a vector.
+            DoubleVector factorI = DoubleVector.fromArray(SPECIES, mass, j).mul(factor);
+            DoubleVector factorJ = factor.mul(-mi);
+            axi = dx.fma(factorI, axi);
+            ayi = dy.fma(factorI, ayi);
+            azi = dz.fma(factorI, azi);
+            dx.fma(factorJ, DoubleVector.fromArray(SPECIES, sumX, j)).intoArray(sumX, j);
+            dy.fma(factorJ, DoubleVector.fromArray(SPECIES, sumY, j)).intoArray(sumY, j);
+            dz.fma(factorJ, DoubleVector.fromArray(SPECIES, sumZ, j)).intoArray(sumZ, j);
+        }
+
+        double axs = axi.reduceLanes(VectorOperators.ADD);
+        double ays = ayi.reduceLanes(VectorOperators.ADD);
+        double azs = azi.reduceLanes(VectorOperators.ADD);
+        for(; j < n; j++)
+        {
+            double dx = x[j] - xi;
+            double dy = y[j] - yi;
+            double dz = z[j] - zi;
+            double factor = softening.sharedFactor(dx*dx + dy*dy + dz*dz);
+
+            double factorI = mass[j]*factor;
+            double factorJ = mi*factor;
+            axs += dx*factorI;
+            ays += dy*factorI;
+            azs += dz*factorI;
+            sumX[j] -= dx*factorJ;
+            sumY[j] -= dy*factorJ;
+            sumZ[j] -= dz*factorJ;
+        }
+
+        sumX[i] += axs;
+        sumY[i] += ays;
+        sumZ[i] += azs;
+    }
+
+    /**
+     * Adds the scaled accelerations of body i due to bodies from through to - 1, none of which is body i, to the given
+     * sum, for MixedPrecisionSum. The pairs are evaluated in the lanes of vectors of floats, and the lanes are added
+     * together and into the sum in double precision after every MixedPrecisionSum.TILE bodies.
+     *
+     * @param x: the scaled x coordinates of the bodies
+     * @param y: the scaled y coordinates of the bodies
+     * @param z: the scaled z coordinates of the bodies
+     * @param mass: the scaled masses of the bodies
+     * @param i: the index of the body being accelerated
+     * @param from: the index of the first body exerting a force
+     * @param to: one more than the index of the last body exerting a force
+     * @param softeningSquared: the square of the scaled Plummer softening length, or 0 for none
+     * @param sum: a vector to which the scaled acceleration is added
+     */
+    public static void accumulateMixed(float[] x, float[] y, float[] z, float[] mass, int i, int from, int to,
+            float softeningSquared, double[] sum)
+    {
+        float xi = x[i], yi = y[i], zi = z[i];
+        double axs = 0, ays = 0, azs = 0;
+
+        int j = from;
+        for(int bound = from + FLOAT_SPECIES.loopBound(to - from); j < bound; )
+        {
+            FloatVector axi = FloatVector.zero(FLOAT_SPECIES);
+            FloatVector ayi = FloatVector.zero(FLOAT_SPECIES);
+            FloatVector azi = FloatVector.zero(FLOAT_SPECIES);
+            for(int end = Math.min(bound, j + MixedPrecisionSum.TILE); j < end; j += FLOAT_SPECIES.length())
+            {
+                //dx, dy, and dz hold the position of each body of the tile with respect to body i. Lanes holding a
+                //body at the same position as body i give NaN, as in double precision.
+                FloatVector dx = FloatVector.fromArray(FLOAT_SPECIES, x, j).sub(xi);
+                FloatVector dy = FloatVector.fromArray(FLOAT_SPECIES, y, j).sub(yi);
+                FloatVector dz = FloatVector.fromArray(FLOAT_SPECIES, z, j).sub(zi);
+                FloatVector distanceSquared = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).add(softeningSquared);
+                FloatVector factor = FloatVector.fromArray(FLOAT_SPECIES, mass, j)
+                        .div(distanceSquared.mul(distanceSquared.sqrt()));
+
+                axi = dx.fma(factor, axi);
+                ayi = dy.fma(factor, ayi);
+                azi = dz.fma(factor, azi);
+            }
+            axs += axi.reduceLanes(VectorOperators.ADD);
+            ays += ayi.reduceLanes(VectorOperators.ADD);
+            azs += azi.reduceLanes(VectorOperators.ADD);
+        }
+
+        float axl = 0, ayl = 0, azl = 0;
+        for(; j < to; j++)
+        {
+            float dx = x[j] - xi;
+            float dy = y[j] - yi;
+            float dz = z[j] - zi;
+            float distanceSquared = dx*dx + dy*dy + dz*dz + softeningSquared;
+            float factor = mass[j]/(distanceSquared*(float)Math.sqrt(distanceSquared));
+
+            axl += dx*factor;
+            ayl += dy*factor;
+            azl += dz*factor;
+        }
+
+        sum[0] += axs + axl;
+        sum[1] += ays + ayl;
+        sum[2] += azs + azl;
+    }
+
+    /**
+     * Finds G/(r^3), or its softened form, for each lane of a tile of separation vectors.
+     *
+     * @param dx: the x components of the separations in meters
+     * @param dy: the y components of the separations in meters
+     * @param dz: the z components of the separations in meters
+     * @param rsqrt: true to find the inverse distance by Newton-Raphson refinement rather than a square root
+     * @param softening: the softening of the force
+     * @return: G/(r^3) in 1/(kilogram second^2)
+     */
+    private static DoubleVector inverseCube(DoubleVector dx, DoubleVector dy, DoubleVector dz, boolean rsqrt,
+            Softening softening)
+    {
+        DoubleVector distanceSquared = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz));
+        if(softening.plummer)
+        {
+            distanceSquared = distanceSquared.add(softening.lengthSquared);
+        }
+        DoubleVector factor = rsqrt ? refinedInverseCube(distanceSquared)
+                : DoubleVector.broadcast(SPECIES, Nbody.GRAVITATIONAL_CONSTANT)
+                        .div(distanceSquared.mul(distanceSquared.sqrt()));
+
+        //The lanes within the radius of the spline kernel, if any, take the spline factor instead
+        if(softening.spline)
+        {
+            VectorMask<Double> near = distanceSquared.lt(softening.radiusSquared);
+            if(near.anyTrue())
+            {
+                factor = factor.blend(splineFactor(distanceSquared, softening), near);
+            }
+        }
+        return factor;
+    }
+
+    /**
+     * Finds G/(r^3) for each lane without a square root or a division.
+     *
+     * @param distanceSquared: the squares of the distances in meters^2
+     * @return: G/(r^3) in 1/(kilogram second^2)
+     */
+    private static DoubleVector refinedInverseCube(DoubleVector distanceSquared)
+    {
+        //Halving the exponent bits of r^2 and subtracting them from the magic constant gives 1/r within about 3.5%,
+        //and each step y = y*(1.5 - 0.5*r^2*y^2) roughly squares the relative error
+        LongVector bits = distanceSquared.reinterpretAsLongs();
+        DoubleVector inverse = LongVector.broadcast(bits.species(), RSQRT_MAGIC)
+                .sub(bits.lanewise(VectorOperators.LSHR, 1)).reinterpretAsDoubles();
+        DoubleVector half = distanceSquared.mul(0.5);
+        for(int step = 0; step < RSQRT_STEPS; step++)
+        {
+            inverse = inverse.mul(half.mul(inverse).mul(inverse).neg().add(1.5));
+        }
+        return inverse.mul(inverse).mul(inverse).mul(Nbody.GRAVITATIONAL_CONSTANT);
+    }
+
+    /**
+     * Finds the factor of the spline kernel, G C(u)/(h^3), for each lane, as Softening.splineShape() does for one pair.
+     * Lanes outside the inner half of the kernel take the outer polynomial, which is only used within the kernel.
+     *
+     * @param distanceSquared: the squares of the distances in meters^2
+     * @param softening: the spline softening
+     * @return: the factor in 1/(kilogram second^2)
+     */
+    private static DoubleVector splineFactor(DoubleVector distanceSquared, Softening softening)
+    {
+        DoubleVector u = distanceSquared.sqrt().mul(1/softening.radius);
+        DoubleVector u2 = u.mul(u);
+        DoubleVector inner = u.mul(32).sub(38.4).mul(u2).add(32.0/3);
+        DoubleVector outer = u.mul(-32.0/3).add(38.4).mul(u).sub(48).mul(u).add(64.0/3)
+                .sub(DoubleVector.broadcast(SPECIES, 1.0/15).div(u2.mul(u)));
+        return outer.blend(inner, u.lt(0.5)).mul(softening.inverseCube);
+    }
+}
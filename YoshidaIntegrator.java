@@ -0,0 +1,39 @@
+package numericalmethods;
+
+/**
+ * The YoshidaIntegrator class advances the system with the fourth-order symplectic scheme of Yoshida (1990). A step is
+ * a sequence of four drifts and three kicks whose lengths are fixed fractions of the time step, chosen so that the
+ * errors of the individual stages cancel up to fourth order. It needs three force evaluations per step, but because
+ * its error grows with the fourth power of the time step, it can usually reach the accuracy of the lower-order schemes
+ * with time steps many times longer.
+ *
+ */
+public class YoshidaIntegrator implements Integrator
+{
+    //W1 and W0 are the weights of the outer and inner second-order stages of the scheme
+    private static final double W1 = 1/(2 - Math.cbrt(2));
+    private static final double W0 = -Math.cbrt(2)/(2 - Math.cbrt(2));
+
+    //DRIFTS holds the fraction of the time step taken by each drift, and KICKS the fraction taken by each kick
+    private static final double[] DRIFTS = {W1/2, (W0 + W1)/2, (W0 + W1)/2, W1/2};
+    private static final double[] KICKS = {W1, W0, W1};
+
+    /**
+     * Advances the system by one step of alternating drifts and kicks.
+     */
+    public void step(ParticleStore particles, ForceEngine engine, double dt)
+    {
+        for(int stage = 0; stage < KICKS.length; stage++)
+        {
+            Nbody.drift(particles, DRIFTS[stage]*dt);
+            engine.computeAccelerations(particles);
+            Nbody.kick(particles, KICKS[stage]*dt);
+        }
+        Nbody.drift(particles, DRIFTS[KICKS.length]*dt);
+    }
+
+    //The scheme finds every acceleration it needs within the step
+    public void reset()
+    {
+    }
+}
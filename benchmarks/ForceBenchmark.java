@@ -0,0 +1,80 @@
+package numericalmethods;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ForceBenchmark class measures one pass of each force engine over a seeded random system. Every run uses the
+ * same system for a given number of bodies, generated by AccuracyReport.randomBodies() with SEED, so results can be
+ * compared across changes to the engines.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class ForceBenchmark
+{
+    //SEED is the seed of the random system used by every benchmark
+    public static final long SEED = 42;
+
+    //n is the number of bodies in the system
+    @Param({"100", "1000", "10000"})
+    public int n;
+
+    //engine names the force engine being measured, as it would be given in a control file; the vector variants use the
+    //SIMD kernel of the direct-sum engine, and the mixed variants evaluate pairs in single precision
+    @Param({"direct", "symmetric", "barneshut", "pm", "p3m", "vector", "vector-symmetric", "vector-rsqrt", "mixed",
+            "vector-mixed"})
+    public String engine;
+
+    private ParticleStore particles;
+    private ForceEngine forceEngine;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        particles = AccuracyReport.randomBodies(n, SEED);
+        Settings settings = new Settings();
+        if(engine.startsWith("vector"))
+        {
+            settings.kernel = "vector";
+            settings.symmetric = engine.equals("vector-symmetric");
+            settings.rsqrt = engine.equals("vector-rsqrt");
+            settings.precision = engine.equals("vector-mixed") ? "mixed" : "double";
+        }
+        else if(engine.equals("mixed"))
+        {
+            settings.precision = "mixed";
+        }
+        else if(engine.equals("symmetric"))
+        {
+            settings.symmetric = true;
+        }
+        else
+        {
+            settings.set("engine", engine);
+        }
+        forceEngine = Nbody.createEngine(settings, null, new ArrayList<>());
+    }
+
+    @Benchmark
+    public double computeAccelerations()
+    {
+        forceEngine.computeAccelerations(particles);
+        return particles.ax[0];
+    }
+}
@@ -0,0 +1,84 @@
+package numericalmethods;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The SnapshotBenchmark class measures writing a frame of the seeded random system in the text and binary formats,
+ * and reading each format back. Files are written to the temporary directory and deleted afterwards.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark
+{
+    //n is the number of bodies in the system
+    @Param({"100", "1000", "10000"})
+    public int n;
+
+    private ParticleStore particles;
+    private File textFile;
+    private File binaryFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        particles = AccuracyReport.randomBodies(n, ForceBenchmark.SEED);
+        textFile = File.createTempFile("nbody-benchmark", ".txt");
+        binaryFile = File.createTempFile("nbody-benchmark", ".nbs");
+        BinarySnapshot.write(binaryFile, particles, 0, 0);
+        writeText();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        textFile.delete();
+        binaryFile.delete();
+    }
+
+    @Benchmark
+    public long writeText() throws IOException
+    {
+        TrajectoryWriter writer = new TrajectoryWriter(textFile);
+        writer.writeFrame(particles, 0, 0);
+        writer.close();
+        return writer.getFrameCount();
+    }
+
+    @Benchmark
+    public long writeBinary() throws IOException
+    {
+        BinarySnapshot.write(binaryFile, particles, 0, 0);
+        return binaryFile.length();
+    }
+
+    @Benchmark
+    public int readText() throws IOException
+    {
+        return TextLoader.read(textFile, null).n;
+    }
+
+    @Benchmark
+    public int readBinary() throws IOException
+    {
+        return BinarySnapshot.readLast(binaryFile).particles.n;
+    }
+}
@@ -0,0 +1,70 @@
+package numericalmethods;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The StepBenchmark class measures the passes of a time step other than the force pass: the kick, the drift, and the
+ * collision pass, each over the seeded random system used by ForceBenchmark.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StepBenchmark
+{
+    //TIME_STEP is the time step in seconds used by the kick and drift
+    public static final double TIME_STEP = 100;
+
+    //COLLISION_RADIUS is the collision radius in meters, small enough that no bodies of the random system collide
+    public static final double COLLISION_RADIUS = 1e9;
+
+    //n is the number of bodies in the system
+    @Param({"100", "1000", "10000"})
+    public int n;
+
+    private ParticleStore particles;
+    private CollisionDetector collisions;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        particles = AccuracyReport.randomBodies(n, ForceBenchmark.SEED);
+        new DirectSum().computeAccelerations(particles);
+        collisions = new CollisionDetector(COLLISION_RADIUS);
+    }
+
+    @Benchmark
+    public double kick()
+    {
+        Nbody.kick(particles, TIME_STEP);
+        return particles.vx[0];
+    }
+
+    @Benchmark
+    public double drift()
+    {
+        Nbody.drift(particles, TIME_STEP);
+        return particles.x[0];
+    }
+
+    @Benchmark
+    public int collisions()
+    {
+        collisions.resolve(particles);
+        return particles.n;
+    }
+}
@@ -0,0 +1,35 @@
+package numericalmethods;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The AllocationReportTest class runs the check of AllocationReport: once warmed up, none of the force engines may
+ * allocate memory while finding accelerations. It is skipped if the JVM does not count allocated bytes per thread.
+ *
+ */
+public class AllocationReportTest
+{
+    //BODIES is the number of bodies in the system, and STEPS is the number of measured steps of each engine
+    private static final int BODIES = 2000;
+    private static final int STEPS = 10;
+
+    @Test
+    public void enginesDoNotAllocateDuringAStep()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "this JVM does not count allocated bytes");
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean)threads;
+        counter.setThreadAllocatedMemoryEnabled(true);
+
+        ParticleStore particles = AccuracyReport.randomBodies(BODIES, 1);
+        for(Map.Entry<String, ForceEngine> engine : AllocationReport.engines().entrySet())
+        {
+            assertEquals(0, AllocationReport.bytesPerStep(counter, engine.getValue(), particles, STEPS),
+                    engine.getKey() + " allocated memory during a step");
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package numericalmethods;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * The CheckpointTest class checks that a run resumed from a checkpoint continues exactly as if it had never stopped:
+ * a run of STEPS steps and a run that saves a checkpoint halfway and is then resumed from it must write the same
+ * output file, and report the same drift of the energy and momentum, for each engine and integrator.
+ *
+ */
+public class CheckpointTest
+{
+    //BODIES is the number of random bodies, STEPS the number of time steps of the whole run, and TIME_STEP and UPDATE
+    //the time step and the interval between frames in seconds
+    private static final int BODIES = 200;
+    private static final long STEPS = 20;
+    private static final double TIME_STEP = 1e12;
+    private static final double UPDATE = 5e12;
+
+    //SOFTENING is the softening length in meters, which keeps the block integrator from dividing its steps endlessly
+    //at close encounters
+    private static final double SOFTENING = 1e15;
+
+    //directory holds the control, output, metrics, and checkpoint files of each test
+    @TempDir
+    File directory;
+
+    @ParameterizedTest(name = "engine {0}, integrator {1}")
+    @CsvSource({"direct, euler", "direct, leapfrog", "direct, yoshida", "direct, block", "barneshut, leapfrog",
+            "pm, leapfrog", "p3m, yoshida", "distributed, euler", "distributed, leapfrog"})
+    public void resumedRunMatchesUninterruptedRun(String engine, String integrator) throws IOException
+    {
+        List<String> settings = new ArrayList<>(List.of("engine " + engine, "integrator " + integrator, "theta 0.6",
+                "meshSize 16", "workers 2", "rebalanceEvery 3", "softening " + SOFTENING));
+
+        run(control("whole", "whole", STEPS, settings, "metricsFile " + file("whole.csv")));
+        run(control("first", "resumed", STEPS/2, settings, "metricsFile " + file("first.csv"), "checkpointEvery 5",
+                "checkpointFile " + file("resumed.checkpoint")));
+        run(control("second", "resumed", STEPS, settings, "metricsFile " + file("second.csv"),
+                "resume " + file("resumed.checkpoint")));
+
+        assertArrayEquals(Files.readAllBytes(new File(directory, "whole.txt").toPath()),
+                Files.readAllBytes(new File(directory, "resumed.txt").toPath()), "the output files differ");
+
+        //Timings differ from run to run, so only the step, time, bodies, and drift columns are compared
+        List<String> resumed = drift("first.csv");
+        for(String line : drift("second.csv"))
+        {
+            if(!resumed.contains(line))
+            {
+                resumed.add(line);
+            }
+        }
+        assertEquals(drift("whole.csv"), resumed, "the drift of the resumed run differs");
+    }
+
+    //Returns the absolute path of a file in the directory of the test
+    private String file(String name)
+    {
+        return new File(directory, name).getAbsolutePath();
+    }
+
+    /**
+     * Writes a control file for a run of random bodies.
+     *
+     * @param name: the name of the control file, without its extension
+     * @param output: the name of the output file, without its extension
+     * @param steps: the number of steps to the end of the run
+     * @param settings: the settings shared by the runs of the test
+     * @param extra: the settings of this run alone
+     * @return: the control file
+     */
+    private File control(String name, String output, long steps, List<String> settings, String... extra)
+            throws IOException
+    {
+        File file = new File(directory, name + ".ctl");
+        try(PrintWriter out = new PrintWriter(file))
+        {
+            out.println(file(output + ".txt"));
+            out.println("random");
+            out.println(steps*TIME_STEP);
+            out.println(TIME_STEP);
+            out.println(UPDATE);
+            out.println("renderer none");
+            out.println("seed 5");
+            out.println("bodies " + BODIES);
+            for(String setting : settings)
+            {
+                out.println(setting);
+            }
+            for(String setting : extra)
+            {
+                out.println(setting);
+            }
+        }
+        return file;
+    }
+
+    //Runs the simulation of a control file to its end
+    private static void run(File control) throws IOException
+    {
+        Map<String, String> overrides = new LinkedHashMap<>();
+        Nbody nbody = new Nbody(control, overrides);
+        nbody.quiet = true;
+        try
+        {
+            nbody.run();
+        }
+        finally
+        {
+            nbody.shutdown();
+        }
+    }
+
+    //Returns the step, time, bodies, energy drift, and momentum drift of each report of a metrics file
+    private List<String> drift(String name) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        for(String line : Files.readAllLines(new File(directory, name).toPath()))
+        {
+            String[] fields = line.split(",", -1);
+            lines.add(fields[0] + "," + fields[1] + "," + fields[2] + "," + fields[11] + "," + fields[12]);
+        }
+        return lines;
+    }
+}
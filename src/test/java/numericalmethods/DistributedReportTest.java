@@ -0,0 +1,64 @@
+package numericalmethods;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The DistributedReportTest class runs the checks of DistributedReport against worker processes started on this
+ * machine: with an opening angle of 0 the distributed engine must match the direct sum within the tolerance of the
+ * report, and with an opening angle of THETA its RMS error must stay within ERROR_RATIO of the single-process
+ * Barnes-Hut engine, both before and after the domains are balanced by work.
+ *
+ */
+public class DistributedReportTest
+{
+    //BODIES is the number of bodies in the Plummer sphere, and WORKERS is the number of worker processes started
+    private static final int BODIES = 2000;
+    private static final int WORKERS = 3;
+
+    //particles holds the system, and exact holds the accelerations of its bodies found by the direct sum
+    private static ParticleStore particles;
+    private static double[][] exact;
+
+    @BeforeAll
+    public static void findDirectAccelerations()
+    {
+        particles = InitialConditions.generate("plummer", BODIES, 1, null);
+        new DirectSum().computeAccelerations(particles);
+        exact = AccuracyReport.accelerationsOf(particles);
+    }
+
+    @Test
+    public void zeroOpeningAngleMatchesDirectSum()
+    {
+        try(DistributedEngine engine = new DistributedEngine(WORKERS, 0, Softening.NONE, 1, 0))
+        {
+            engine.computeAccelerations(particles);
+            double[] errors = AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles));
+            double maxError = AccuracyReport.percentile(errors, 1.0);
+            assertTrue(maxError <= DistributedReport.TOLERANCE,
+                    "largest relative error " + maxError + " exceeds " + DistributedReport.TOLERANCE);
+        }
+    }
+
+    @Test
+    public void treeErrorMatchesBarnesHut()
+    {
+        new BarnesHut(DistributedReport.THETA).computeAccelerations(particles);
+        double limit = DistributedReport.ERROR_RATIO*AccuracyReport.rms(
+                AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles)));
+
+        //The domains are cut by count for the first evaluation and by the work of each worker for the second
+        try(DistributedEngine engine = new DistributedEngine(WORKERS, DistributedReport.THETA, Softening.NONE, 1, 1))
+        {
+            for(String cut : new String[] {"count", "work"})
+            {
+                engine.computeAccelerations(particles);
+                double rms = AccuracyReport.rms(
+                        AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles)));
+                assertTrue(rms <= limit, "RMS error " + rms + " with domains cut by " + cut + " exceeds " + limit);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package numericalmethods;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * The KernelReportTest class runs the cross-check of KernelReport: the accelerations found by the direct sum with the
+ * SIMD VectorKernel, in each of its modes, must agree with those of the scalar GravityKernel within the tolerance of
+ * the mode. It is skipped if the JVM was started without the Vector API.
+ *
+ */
+public class KernelReportTest
+{
+    //BODIES is the number of bodies in the system, and SEED is the seed from which they are drawn
+    private static final int BODIES = 1000;
+    private static final long SEED = 1;
+
+    //particles holds the system, and exact holds the accelerations of its bodies found by the scalar kernel
+    private static ParticleStore particles;
+    private static double[][] exact;
+
+    @BeforeAll
+    public static void findScalarAccelerations()
+    {
+        particles = AccuracyReport.randomBodies(BODIES, SEED);
+        new DirectSum().computeAccelerations(particles);
+        exact = AccuracyReport.accelerationsOf(particles);
+    }
+
+    @ParameterizedTest(name = "symmetric {0}, rsqrt {1}")
+    @CsvSource({"false, false", "false, true", "true, false", "true, true"})
+    public void vectorKernelMatchesScalarKernel(boolean symmetric, boolean rsqrt)
+    {
+        assumeTrue(GravityKernel.isVectorSupported(), "the Vector API is not available");
+
+        new DirectSum(null, symmetric, true, rsqrt).computeAccelerations(particles);
+        double[] errors = AccuracyReport.relativeErrors(exact, AccuracyReport.accelerationsOf(particles));
+        double maxError = AccuracyReport.percentile(errors, 1.0);
+        double tolerance = rsqrt ? KernelReport.RSQRT_TOLERANCE : KernelReport.TOLERANCE;
+        assertTrue(maxError <= tolerance, "largest relative error " + maxError + " exceeds " + tolerance);
+    }
+}